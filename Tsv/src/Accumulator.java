@@ -0,0 +1,641 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Accumulator folds the values of one field into running statistics, one value
+ * at a time. It lets TSVPipeline compute every Terminal statistic while the
+ * file is streamed, without keeping the file in memory. The variance is kept
+ * with Welford's online algorithm so the standard deviation also only needs
+ * one pass. Statistics that need more than a few numbers, such as TOP_K, are
+ * kept in a ValueSketch that is only made for the field being computed.
+ * 
+ * Longs and decimals are added up exactly as digits at the highest scale seen
+ * so far. When the digits no longer fit in a long, the sum so far is carried
+ * into a BigDecimal and the adding goes on in the long, so a BigDecimal is
+ * only made when the long overflows rather than for every value. Doubles
+ * written with an exponent are added up with Neumaier's compensated sum, so
+ * the rounding of each addition doesn't build up.
+ * 
+ * @author Tian Low ttl2132
+ * 
+ */
+public class Accumulator {
+	private long count;
+	private long numberCount;
+	private long sum = Computer.SUMDEFAULT;
+	private int sumScale;
+	private BigDecimal carried;
+	private boolean approximate;
+	private double doubleSum;
+	private double compensation;
+	private double max;
+	private long maxUnscaled;
+	private int maxScale;
+	private boolean maxExact;
+	private double min;
+	private long minUnscaled;
+	private int minScale;
+	private boolean minExact;
+	private String maxString;
+	private String minString;
+	private String firstValue;
+	private long firstNumber;
+	private boolean firstIsNumber;
+	private boolean allSame = true;
+	private double mean;
+	private double squaredDistance;
+	private ValueSketch sketch;
+	private NumberParser parser;
+
+	/**
+	 * Starts keeping a ValueSketch of the values added from now on.
+	 * 
+	 * @param mySketch
+	 *            an empty sketch
+	 */
+	public void track(ValueSketch mySketch) {
+		sketch = mySketch;
+	}
+
+	/**
+	 * Gets the ValueSketch of the values, if one is kept.
+	 * 
+	 * @return the sketch, or null if there isn't one
+	 */
+	public ValueSketch getSketch() {
+		return sketch;
+	}
+
+	/**
+	 * Adds one value of the field to the running statistics. Values that are
+	 * numbers count towards the numerical statistics, while the rest are only
+	 * compared alphabetically. An empty value, which only a left join writes
+	 * for a record without a match, is left out of every statistic.
+	 * 
+	 * @param value
+	 *            the value of the field in the current record
+	 */
+	public void add(String value) {
+		if (value.isEmpty())
+			return;
+		if (count == 0) {
+			firstValue = value;
+			maxString = value;
+			minString = value;
+			firstIsNumber = false;
+		} else if (allSame && !(firstValue.equals(value)))
+			allSame = false;
+		count++;
+		if (sketch != null)
+			sketch.add(value);
+		if (RowValidator.isLong(value, 0, value.length())) {
+			addNumber(Long.parseLong(value));
+			return;
+		}
+		if (parser == null)
+			parser = new NumberParser();
+		char kind = parser.parse(value, 0, value.length());
+		if (kind == NumberParser.DOUBLE) {
+			addDouble(parser.toDouble());
+			addStatistics(parser.toDouble(), 0, 0, false);
+		} else if (kind == NumberParser.DECIMAL) {
+			if (parser.isExact())
+				addExact(parser.getUnscaled(), parser.getScale());
+			else
+				carry(new BigDecimal(value));
+			addStatistics(parser.toDouble(), parser.getUnscaled(), parser.getScale(), parser.isExact());
+		} else {
+			if (maxString.compareTo(value) < 0)
+				maxString = value;
+			if (minString.compareTo(value) > 0)
+				minString = value;
+		}
+	}
+
+	/**
+	 * Adds one value of the field that was already parsed as a number, such as
+	 * from a ColumnTable.
+	 * 
+	 * @param number
+	 *            the number of the field in the current record
+	 */
+	public void add(long number) {
+		if (count == 0) {
+			firstValue = Long.toString(number);
+			maxString = firstValue;
+			minString = firstValue;
+			firstNumber = number;
+			firstIsNumber = true;
+		} else if (allSame && !(firstIsNumber && firstNumber == number))
+			allSame = false;
+		count++;
+		if (sketch != null)
+			sketch.add(number);
+		addNumber(number);
+	}
+
+	/**
+	 * Adds the same value of the field several times at once. Strings only
+	 * need to be compared once however many times they are added.
+	 * 
+	 * @param value
+	 *            the value of the field
+	 * @param times
+	 *            how many records have the value
+	 */
+	public void add(String value, long times) {
+		if (times <= 0 || value.isEmpty())
+			return;
+		long numbers = numberCount;
+		add(value);
+		if (numberCount > numbers) {
+			for (long i = 1; i < times; i++)
+				add(value);
+		} else {
+			count += times - 1;
+			if (sketch != null)
+				sketch.add(value, times - 1);
+		}
+	}
+
+	/**
+	 * Adds a long to the numerical statistics.
+	 * 
+	 * @param number
+	 *            the number of the field in the current record
+	 */
+	private void addNumber(long number) {
+		addExact(number, 0);
+		addStatistics(number, number, 0, true);
+	}
+
+	/**
+	 * Adds an exact number to the sum. The sum is moved to the higher scale
+	 * when the number has more digits after its decimal point, and whatever
+	 * doesn't fit in the long is carried.
+	 * 
+	 * @param unscaled
+	 *            the digits of the number
+	 * @param scale
+	 *            how many of the digits come after the decimal point
+	 */
+	private void addExact(long unscaled, int scale) {
+		if (scale > sumScale) {
+			try {
+				sum = NumberParser.rescale(sum, scale - sumScale);
+			} catch (ArithmeticException overflow) {
+				carry(BigDecimal.valueOf(sum, sumScale));
+				sum = 0;
+			}
+			sumScale = scale;
+		} else if (scale < sumScale) {
+			try {
+				unscaled = NumberParser.rescale(unscaled, sumScale - scale);
+			} catch (ArithmeticException overflow) {
+				carry(BigDecimal.valueOf(unscaled, scale));
+				return;
+			}
+		}
+		try {
+			sum = Math.addExact(sum, unscaled);
+		} catch (ArithmeticException overflow) {
+			carry(BigDecimal.valueOf(sum, sumScale));
+			sum = unscaled;
+		}
+	}
+
+	/**
+	 * Adds part of the exact sum that doesn't fit in a long.
+	 * 
+	 * @param part
+	 *            the part of the sum
+	 */
+	private void carry(BigDecimal part) {
+		carried = carried == null ? part : carried.add(part);
+	}
+
+	/**
+	 * Adds a double to the compensated sum. The rounding error of each
+	 * addition is kept in the compensation, whichever of the two numbers is
+	 * bigger.
+	 * 
+	 * @param number
+	 *            the double
+	 */
+	private void addDouble(double number) {
+		approximate = true;
+		double total = doubleSum + number;
+		if (Math.abs(doubleSum) >= Math.abs(number))
+			compensation += (doubleSum - total) + number;
+		else
+			compensation += (number - total) + doubleSum;
+		doubleSum = total;
+	}
+
+	/**
+	 * Adds a number to the highest and lowest numbers and to the variance.
+	 * Numbers are compared by their doubles, and exactly when their doubles
+	 * are the same.
+	 * 
+	 * @param number
+	 *            the number as a double
+	 * @param unscaled
+	 *            the digits of the number
+	 * @param scale
+	 *            how many of the digits come after the decimal point
+	 * @param exact
+	 *            whether the digits are exactly the number
+	 */
+	private void addStatistics(double number, long unscaled, int scale, boolean exact) {
+		if (numberCount == 0 || compare(number, unscaled, scale, exact, max, maxUnscaled, maxScale, maxExact) > 0) {
+			max = number;
+			maxUnscaled = unscaled;
+			maxScale = scale;
+			maxExact = exact;
+		}
+		if (numberCount == 0 || compare(number, unscaled, scale, exact, min, minUnscaled, minScale, minExact) < 0) {
+			min = number;
+			minUnscaled = unscaled;
+			minScale = scale;
+			minExact = exact;
+		}
+		numberCount++;
+		double delta = number - mean;
+		mean += delta / numberCount;
+		squaredDistance += delta * (number - mean);
+	}
+
+	/**
+	 * Compares two numbers by their doubles, or exactly if their doubles are
+	 * the same and both have exact digits. Rounding to a double never puts
+	 * two numbers out of order, it can only make them the same.
+	 * 
+	 * @param number
+	 *            the first number as a double
+	 * @param unscaled
+	 *            the digits of the first number
+	 * @param scale
+	 *            the scale of the first number
+	 * @param exact
+	 *            whether the digits are exactly the first number
+	 * @param other
+	 *            the second number as a double
+	 * @param otherUnscaled
+	 *            the digits of the second number
+	 * @param otherScale
+	 *            the scale of the second number
+	 * @param otherExact
+	 *            whether the digits are exactly the second number
+	 * @return below zero, zero or above zero as the first number is below,
+	 *         equal to or above the second
+	 */
+	private static int compare(double number, long unscaled, int scale, boolean exact, double other,
+			long otherUnscaled, int otherScale, boolean otherExact) {
+		if (number != other)
+			return number < other ? -1 : 1;
+		if (exact && otherExact)
+			return NumberParser.compare(unscaled, scale, otherUnscaled, otherScale);
+		return 0;
+	}
+
+	/**
+	 * Adds the statistics of another Accumulator, such as one that went through
+	 * a later part of the same file. The variances are combined with Chan's
+	 * formula so nothing has to be gone through again.
+	 * 
+	 * @param other
+	 *            the statistics of the values that came after these
+	 */
+	public void merge(Accumulator other) {
+		if (other.count == 0)
+			return;
+		if (sketch != null && other.sketch != null)
+			sketch.merge(other.sketch);
+		if (count == 0) {
+			firstValue = other.firstValue;
+			firstNumber = other.firstNumber;
+			firstIsNumber = other.firstIsNumber;
+			maxString = other.maxString;
+			minString = other.minString;
+			allSame = other.allSame;
+		} else {
+			allSame = allSame && other.allSame && firstValue.equals(other.firstValue);
+			if (maxString.compareTo(other.maxString) < 0)
+				maxString = other.maxString;
+			if (minString.compareTo(other.minString) > 0)
+				minString = other.minString;
+		}
+		count += other.count;
+		if (other.numberCount > 0) {
+			addExact(other.sum, other.sumScale);
+			if (other.carried != null)
+				carry(other.carried);
+			if (other.approximate) {
+				compensation += other.compensation;
+				addDouble(other.doubleSum);
+			}
+			if (numberCount == 0 || compare(other.max, other.maxUnscaled, other.maxScale, other.maxExact, max,
+					maxUnscaled, maxScale, maxExact) > 0) {
+				max = other.max;
+				maxUnscaled = other.maxUnscaled;
+				maxScale = other.maxScale;
+				maxExact = other.maxExact;
+			}
+			if (numberCount == 0 || compare(other.min, other.minUnscaled, other.minScale, other.minExact, min,
+					minUnscaled, minScale, minExact) < 0) {
+				min = other.min;
+				minUnscaled = other.minUnscaled;
+				minScale = other.minScale;
+				minExact = other.minExact;
+			}
+			long total = numberCount + other.numberCount;
+			double delta = other.mean - mean;
+			mean += delta * other.numberCount / total;
+			squaredDistance += other.squaredDistance + delta * delta * numberCount * other.numberCount / total;
+			numberCount = total;
+		}
+	}
+
+	/**
+	 * Writes the running statistics, so they can be set aside on disk and read
+	 * back later with readFrom.
+	 * 
+	 * @param output
+	 *            where the statistics are written
+	 * @throws IOException
+	 *             if the statistics can't be written
+	 */
+	public void writeTo(DataOutputStream output) throws IOException {
+		output.writeBoolean(sketch != null);
+		if (sketch != null)
+			sketch.writeTo(output);
+		output.writeLong(count);
+		if (count == 0)
+			return;
+		output.writeLong(numberCount);
+		output.writeLong(sum);
+		output.writeInt(sumScale);
+		output.writeBoolean(carried != null);
+		if (carried != null)
+			output.writeUTF(carried.toString());
+		output.writeBoolean(approximate);
+		output.writeDouble(doubleSum);
+		output.writeDouble(compensation);
+		output.writeDouble(max);
+		output.writeLong(maxUnscaled);
+		output.writeInt(maxScale);
+		output.writeBoolean(maxExact);
+		output.writeDouble(min);
+		output.writeLong(minUnscaled);
+		output.writeInt(minScale);
+		output.writeBoolean(minExact);
+		output.writeUTF(maxString);
+		output.writeUTF(minString);
+		output.writeUTF(firstValue);
+		output.writeLong(firstNumber);
+		output.writeBoolean(firstIsNumber);
+		output.writeBoolean(allSame);
+		output.writeDouble(mean);
+		output.writeDouble(squaredDistance);
+	}
+
+	/**
+	 * Reads running statistics that were written by writeTo.
+	 * 
+	 * @param input
+	 *            where the statistics are read from
+	 * @return the statistics
+	 * @throws IOException
+	 *             if the statistics can't be read
+	 */
+	public static Accumulator readFrom(DataInputStream input) throws IOException {
+		Accumulator myAccumulator = new Accumulator();
+		if (input.readBoolean())
+			myAccumulator.sketch = ValueSketch.readFrom(input);
+		myAccumulator.count = input.readLong();
+		if (myAccumulator.count == 0)
+			return myAccumulator;
+		myAccumulator.numberCount = input.readLong();
+		myAccumulator.sum = input.readLong();
+		myAccumulator.sumScale = input.readInt();
+		if (input.readBoolean())
+			myAccumulator.carried = new BigDecimal(input.readUTF());
+		myAccumulator.approximate = input.readBoolean();
+		myAccumulator.doubleSum = input.readDouble();
+		myAccumulator.compensation = input.readDouble();
+		myAccumulator.max = input.readDouble();
+		myAccumulator.maxUnscaled = input.readLong();
+		myAccumulator.maxScale = input.readInt();
+		myAccumulator.maxExact = input.readBoolean();
+		myAccumulator.min = input.readDouble();
+		myAccumulator.minUnscaled = input.readLong();
+		myAccumulator.minScale = input.readInt();
+		myAccumulator.minExact = input.readBoolean();
+		myAccumulator.maxString = input.readUTF();
+		myAccumulator.minString = input.readUTF();
+		myAccumulator.firstValue = input.readUTF();
+		myAccumulator.firstNumber = input.readLong();
+		myAccumulator.firstIsNumber = input.readBoolean();
+		myAccumulator.allSame = input.readBoolean();
+		myAccumulator.mean = input.readDouble();
+		myAccumulator.squaredDistance = input.readDouble();
+		return myAccumulator;
+	}
+
+	/**
+	 * Gets whether all of the values added were the same value.
+	 * 
+	 * @return whether or not the values are the same
+	 */
+	public boolean getALLSAME() {
+		return allSame;
+	}
+
+	/**
+	 * Gets how many values were added.
+	 * 
+	 * @return the number of records of the field
+	 */
+	public long getCOUNT() {
+		return count;
+	}
+
+	/**
+	 * Gets the highest value. Strings are only used if there were no numbers.
+	 * 
+	 * @return the highest value
+	 */
+	public String getMAX() {
+		if (count == 0)
+			return "" + Computer.MAXDEFAULT;
+		if (numberCount == 0)
+			return maxString;
+		return maxExact ? NumberParser.toString(maxUnscaled, maxScale) : NumberParser.toString(max);
+	}
+
+	/**
+	 * Gets the lowest value. Strings are only used if there were no numbers.
+	 * 
+	 * @return the lowest value
+	 */
+	public String getMIN() {
+		if (count == 0)
+			return "" + Computer.MINDEFAULT;
+		if (numberCount == 0)
+			return minString;
+		return minExact ? NumberParser.toString(minUnscaled, minScale) : NumberParser.toString(min);
+	}
+
+	/**
+	 * Gets the exact sum of the longs and decimals added.
+	 * 
+	 * @return the exact sum
+	 */
+	private BigDecimal exactSum() {
+		BigDecimal total = BigDecimal.valueOf(sum, sumScale);
+		return carried == null ? total : carried.add(total);
+	}
+
+	/**
+	 * Gets the sum of all of the numbers added as a double, once some of them
+	 * were doubles.
+	 * 
+	 * @return the sum of all of the numbers
+	 */
+	private double approximateSum() {
+		double exact = carried == null ? NumberParser.toDouble(sum, sumScale) : exactSum().doubleValue();
+		double total = doubleSum + exact;
+		if (Math.abs(doubleSum) >= Math.abs(exact))
+			return total + (compensation + ((doubleSum - total) + exact));
+		return total + (compensation + ((exact - total) + doubleSum));
+	}
+
+	/**
+	 * Gets whether any of the values added were numbers.
+	 * 
+	 * @return whether there are numbers
+	 */
+	public boolean hasNumbers() {
+		return numberCount > 0;
+	}
+
+	/**
+	 * Gets whether the numbers added were not all the same number.
+	 * 
+	 * @return whether the numbers have a standard deviation above zero
+	 */
+	public boolean hasDeviation() {
+		return numberCount > 1 && squaredDistance > 0;
+	}
+
+	/**
+	 * Gets whether every number added was zero.
+	 * 
+	 * @return whether there are numbers and they are all zeros
+	 */
+	public boolean hasOnlyZeros() {
+		return numberCount > 0 && max == 0 && min == 0;
+	}
+
+	/**
+	 * Gets the sum of all of the numbers added, rounded toward zero to a long.
+	 * Digits after the decimal point are dropped without a warning. If some
+	 * of the numbers were doubles, a sum beyond the range of a long is held
+	 * at Long.MAX_VALUE or Long.MIN_VALUE instead of throwing.
+	 * 
+	 * @return the sum of all of the numbers
+	 * @throws ArithmeticException
+	 *             if the exact sum of longs and decimals doesn't fit in a
+	 *             long, which formatSUM still writes in full
+	 */
+	public long getSUM() {
+		if (approximate)
+			return (long) approximateSum();
+		if (carried == null && sumScale == 0)
+			return sum;
+		return exactSum().setScale(0, RoundingMode.DOWN).longValueExact();
+	}
+
+	/**
+	 * Gets the mean of all of the numbers added over the number of records,
+	 * rounded toward zero to a long, so a mean of 2.9 is 2 and -2.9 is -2.
+	 * The mean lies between the smallest and largest number, so it never
+	 * overflows; formatAVERAGE keeps the digits that are dropped here.
+	 * 
+	 * @return the mean of all of the numbers, or Computer.SUMDEFAULT if no
+	 *         records were added
+	 */
+	public long getAVERAGE() {
+		if (count == 0)
+			return Computer.SUMDEFAULT;
+		if (approximate)
+			return (long) (approximateSum() / count);
+		return exactSum().divide(BigDecimal.valueOf(count), 0, RoundingMode.DOWN).longValue();
+	}
+
+	/**
+	 * Gets the sample standard deviation of all of the numbers added, rounded
+	 * toward zero to a long. It is worked out as a double, so it is held at
+	 * Long.MAX_VALUE instead of overflowing; formatSTANDARD_DEVIATION keeps
+	 * the digits that are dropped here.
+	 * 
+	 * @return the standard deviation of all of the numbers, or
+	 *         Computer.SUMDEFAULT if fewer than two numbers were added
+	 */
+	public long getSTANDARD_DEVIATION() {
+		if (numberCount < 2)
+			return Computer.SUMDEFAULT;
+		return (long) Math.sqrt(squaredDistance / (numberCount - 1));
+	}
+
+	/**
+	 * Writes the sum of all of the numbers added. It is exact unless some of
+	 * the numbers were doubles.
+	 * 
+	 * @return the sum of all of the numbers
+	 */
+	public String formatSUM() {
+		if (approximate)
+			return NumberParser.toString(approximateSum());
+		if (carried == null)
+			return NumberParser.toString(sum, sumScale);
+		return exactSum().toPlainString();
+	}
+
+	/**
+	 * Writes the mean of all of the numbers added over the number of records.
+	 * The mean of longs and decimals is rounded to 16 significant digits, but
+	 * keeps every digit before the decimal point and at least as many after
+	 * it as the sum has.
+	 * 
+	 * @return the mean of all of the numbers
+	 */
+	public String formatAVERAGE() {
+		if (count == 0)
+			return "" + Computer.SUMDEFAULT;
+		if (approximate)
+			return NumberParser.toString(approximateSum() / count);
+		BigDecimal total = exactSum();
+		int places = Math.max(total.scale(), 0);
+		BigDecimal average = total.divide(BigDecimal.valueOf(count),
+				new MathContext(Math.max(16, total.precision() - total.scale()))).stripTrailingZeros();
+		if (average.scale() < places)
+			average = average.setScale(places);
+		return average.toPlainString();
+	}
+
+	/**
+	 * Writes the sample standard deviation of all of the numbers added.
+	 * 
+	 * @return the standard deviation of all of the numbers
+	 */
+	public String formatSTANDARD_DEVIATION() {
+		if (numberCount < 2)
+			return "" + Computer.SUMDEFAULT;
+		return NumberParser.toString(Math.sqrt(squaredDistance / (numberCount - 1)));
+	}
+}
@@ -0,0 +1,207 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * AggregationEngine computes the statistics of any set of fields in a single
+ * pass over the records. Every record is split once and each wanted value is
+ * folded into the Accumulator of its field, so asking for several statistics
+ * of several fields never goes through the file more than once.
+ * 
+ * @author Tian Low ttl2132
+ * 
+ */
+public class AggregationEngine {
+	private final String[] fields;
+	private final int[] indices;
+	private final Accumulator[] accumulators;
+	private long count;
+
+	/**
+	 * Constructs an AggregationEngine for the given fields. Fields that aren't
+	 * in the first line are reported and left empty.
+	 * 
+	 * @param myFirstLine
+	 *            the first line of the file
+	 * @param myFields
+	 *            the fields to compute statistics for
+	 */
+	public AggregationEngine(String myFirstLine, String... myFields) {
+		fields = myFields;
+		indices = new int[myFields.length];
+		accumulators = new Accumulator[myFields.length];
+		String[] header = myFirstLine.split("\t");
+		for (int i = 0; i < myFields.length; i++) {
+			indices[i] = -1;
+			for (int j = 0; j < header.length; j++) {
+				if (myFields[i].equals(header[j]))
+					indices[i] = j;
+			}
+			if (indices[i] == -1)
+				System.out.println("Accurate field not specified.");
+			accumulators[i] = new Accumulator();
+		}
+	}
+
+	/**
+	 * Constructs an empty AggregationEngine for the same fields as another one,
+	 * so parts of a file can be computed separately and merged afterwards.
+	 * 
+	 * @param myEngine
+	 *            the AggregationEngine to take the fields from
+	 */
+	public AggregationEngine(AggregationEngine myEngine) {
+		fields = myEngine.fields;
+		indices = myEngine.indices;
+		accumulators = new Accumulator[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			accumulators[i] = new Accumulator();
+			ValueSketch sketch = myEngine.accumulators[i].getSketch();
+			if (sketch != null)
+				accumulators[i].track(sketch.empty());
+		}
+	}
+
+	/**
+	 * Constructs an AggregationEngine for every field in the first line.
+	 * 
+	 * @param myFirstLine
+	 *            the first line of the file
+	 * @return the AggregationEngine for all of the fields
+	 */
+	public static AggregationEngine allFields(String myFirstLine) {
+		return new AggregationEngine(myFirstLine, myFirstLine.split("\t"));
+	}
+
+	/**
+	 * Keeps a ValueSketch of a field, for statistics such as TOP_K that need
+	 * more than the running numbers every field has. Copies of the
+	 * AggregationEngine keep an empty sketch of the same kind.
+	 * 
+	 * @param myField
+	 *            the field
+	 * @param sketch
+	 *            an empty sketch
+	 */
+	public void track(String myField, ValueSketch sketch) {
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i].equals(myField))
+				accumulators[i].track(sketch.empty());
+		}
+	}
+
+	/**
+	 * Folds every record of a cleansed file into the statistics. Records are
+	 * found by looking for line breaks instead of splitting the whole file.
+	 * 
+	 * @param entireFile
+	 *            the cleansed file with records separated by line breaks
+	 */
+	public void addFile(String entireFile) {
+		int start = 0;
+		while (start < entireFile.length()) {
+			int end = entireFile.indexOf("\r\n", start);
+			if (end == -1)
+				end = entireFile.length();
+			if (end > start)
+				addRecord(entireFile.substring(start, end).split("\t"));
+			start = end + 2;
+		}
+	}
+
+	/**
+	 * Folds the values of one record into the statistics.
+	 * 
+	 * @param words
+	 *            the values of a record, already split on tabs
+	 */
+	public void addRecord(String[] words) {
+		count++;
+		for (int i = 0; i < indices.length; i++) {
+			if (indices[i] != -1)
+				accumulators[i].add(words[indices[i]]);
+		}
+	}
+
+	/**
+	 * Adds the statistics of another AggregationEngine for the same fields,
+	 * such as one that went through a later part of the same file.
+	 * 
+	 * @param other
+	 *            the statistics of the records that came after these
+	 */
+	public void merge(AggregationEngine other) {
+		count += other.count;
+		for (int i = 0; i < accumulators.length; i++)
+			accumulators[i].merge(other.accumulators[i]);
+	}
+
+	/**
+	 * Writes the statistics of every field, so they can be set aside on disk.
+	 * 
+	 * @param output
+	 *            where the statistics are written
+	 * @throws IOException
+	 *             if the statistics can't be written
+	 */
+	public void writeTo(DataOutputStream output) throws IOException {
+		output.writeLong(count);
+		for (Accumulator myAccumulator : accumulators)
+			myAccumulator.writeTo(output);
+	}
+
+	/**
+	 * Reads statistics that were written by writeTo into an empty
+	 * AggregationEngine for the same fields.
+	 * 
+	 * @param input
+	 *            where the statistics are read from
+	 * @throws IOException
+	 *             if the statistics can't be read
+	 */
+	public void readFrom(DataInputStream input) throws IOException {
+		count = input.readLong();
+		for (int i = 0; i < accumulators.length; i++)
+			accumulators[i] = Accumulator.readFrom(input);
+	}
+
+	/**
+	 * Gets how many records were folded into the statistics.
+	 * 
+	 * @return the number of records
+	 */
+	public long getCOUNT() {
+		return count;
+	}
+
+	/**
+	 * Gets the statistics of a field. Fields that weren't asked for get an
+	 * empty Accumulator.
+	 * 
+	 * @param myField
+	 *            the field
+	 * @return the statistics of the field
+	 */
+	public Accumulator getAccumulator(String myField) {
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i].equals(myField))
+				return accumulators[i];
+		}
+		return new Accumulator();
+	}
+
+	/**
+	 * Gets whether the field is in the first line of the file.
+	 * 
+	 * @param myField
+	 *            the field
+	 * @return whether the field was found
+	 */
+	public boolean hasField(String myField) {
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i].equals(myField))
+				return indices[i] != -1;
+		}
+		return false;
+	}
+}
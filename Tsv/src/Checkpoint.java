@@ -0,0 +1,154 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * Checkpoint remembers how far an incremental run of TSVPipeline got through
+ * a tsv file that only ever has records added to its end. It is kept next to
+ * the filtered file, named after it with .ckpt at the end, and holds the byte
+ * the next run should start at, the first line and format of the file, the
+ * filter that was run, the size the filtered file had, and the statistics of
+ * every record kept so far.
+ * 
+ * A Checkpoint is only used while it still matches: the same first line,
+ * format and filter, a filtered file of the same size, and a file that is at
+ * least as long as before and still has the same bytes just before the byte
+ * the run stopped at. Otherwise the file is gone through from the start.
+ * 
+ * @author Tian Low ttl2132
+ *
+ */
+public class Checkpoint {
+	private static final long MAGIC = 0x545356434b505432L;
+	private static final int TAIL = 4096;
+
+	/**
+	 * Gets the name of the checkpoint of a filtered file.
+	 * 
+	 * @param myOutputName
+	 *            the name of the filtered file
+	 * @return the name of the checkpoint
+	 */
+	public static String checkpointName(String myOutputName) {
+		return myOutputName + ".ckpt";
+	}
+
+	/**
+	 * Reads a checkpoint back, adding its statistics to an empty
+	 * AggregationEngine if it still matches the file.
+	 * 
+	 * @param myFileName
+	 *            the name of the tsv file
+	 * @param myOutputName
+	 *            the name of the filtered file
+	 * @param myFirstLine
+	 *            the cleansed first line of the tsv file
+	 * @param myFormat
+	 *            the format of the tsv file
+	 * @param mySignature
+	 *            the selects and compute field of the filter being run
+	 * @param myEngine
+	 *            an empty AggregationEngine for the compute field
+	 * @return the byte of the tsv file to start at, or -1 if the file has to
+	 *         be gone through from the start
+	 */
+	public static long restore(String myFileName, String myOutputName, String myFirstLine, String myFormat,
+			String mySignature, AggregationEngine myEngine) {
+		File checkpoint = new File(checkpointName(myOutputName));
+		if (!(checkpoint.exists()))
+			return -1;
+		try (DataInputStream input = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(checkpoint)))) {
+			if (input.readLong() != MAGIC)
+				return -1;
+			long offset = input.readLong();
+			long tail = input.readLong();
+			long outputSize = input.readLong();
+			if (!(input.readUTF().equals(myFirstLine) && input.readUTF().equals(myFormat)
+					&& input.readUTF().equals(mySignature)))
+				return -1;
+			if (new File(myFileName).length() < offset || new File(myOutputName).length() != outputSize
+					|| tailChecksum(myFileName, offset) != tail)
+				return -1;
+			AggregationEngine saved = new AggregationEngine(myEngine);
+			saved.readFrom(input);
+			myEngine.merge(saved);
+			return offset;
+		} catch (IOException error) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Saves a checkpoint once a run has written the filtered file. The
+	 * checkpoint is written to a temporary file first and then moved over the
+	 * old one, so a run that stops halfway never leaves half a checkpoint.
+	 * 
+	 * @param myFileName
+	 *            the name of the tsv file
+	 * @param myOutputName
+	 *            the name of the filtered file
+	 * @param myOffset
+	 *            the byte of the tsv file the next run should start at
+	 * @param myFirstLine
+	 *            the cleansed first line of the tsv file
+	 * @param myFormat
+	 *            the format of the tsv file
+	 * @param mySignature
+	 *            the selects and compute field of the filter that was run
+	 * @param myEngine
+	 *            the statistics of every record kept so far
+	 * @throws IOException
+	 *             if the checkpoint can't be written
+	 */
+	public static void save(String myFileName, String myOutputName, long myOffset, String myFirstLine,
+			String myFormat, String mySignature, AggregationEngine myEngine) throws IOException {
+		File checkpoint = new File(checkpointName(myOutputName));
+		File temporary = new File(checkpoint.getPath() + ".tmp");
+		try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temporary)))) {
+			output.writeLong(MAGIC);
+			output.writeLong(myOffset);
+			output.writeLong(tailChecksum(myFileName, myOffset));
+			output.writeLong(new File(myOutputName).length());
+			output.writeUTF(myFirstLine);
+			output.writeUTF(myFormat);
+			output.writeUTF(mySignature);
+			myEngine.writeTo(output);
+		}
+		Files.move(temporary.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Finds the checksum of the bytes just before a byte of a file, which
+	 * changes if anything other than adding to the end was done to the file.
+	 * 
+	 * @param myFileName
+	 *            the name of the file
+	 * @param myOffset
+	 *            the byte the checked bytes end at
+	 * @return the checksum of the bytes
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	private static long tailChecksum(String myFileName, long myOffset) throws IOException {
+		try (RandomAccessFile myFile = new RandomAccessFile(myFileName, "r")) {
+			int length = (int) Math.min(TAIL, myOffset);
+			byte[] tail = new byte[length];
+			myFile.seek(myOffset - length);
+			myFile.readFully(tail);
+			CRC32 checksum = new CRC32();
+			checksum.update(tail);
+			return checksum.getValue();
+		}
+	}
+}
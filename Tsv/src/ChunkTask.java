@@ -0,0 +1,121 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+/**
+ * ChunkTask cleanses, filters and computes one part of a file for the parallel
+ * mode of TSVPipeline. The part starts and ends on line breaks, so every record
+ * is read by exactly one ChunkTask. The records that are kept are written to a
+ * part file in the order they were read, so the parts can be joined back
+ * together in order.
+ * 
+ * @author Tian Low ttl2132
+ * 
+ */
+public class ChunkTask implements Callable<AggregationEngine> {
+	private final String myFileName;
+	private final long start;
+	private final long end;
+	private final Formatter myFormatter;
+	private final FilterExpression mySelect;
+	private final Projection myProjection;
+	private final AggregationEngine myEngine;
+	private final File part;
+	private final PipelineMetrics metrics = new PipelineMetrics();
+
+	/**
+	 * Constructs a ChunkTask for one part of a file.
+	 * 
+	 * @param fileName
+	 *            the name of the file
+	 * @param myStart
+	 *            the byte of the file the part starts at
+	 * @param myEnd
+	 *            the byte of the file the part ends at
+	 * @param formatter
+	 *            the Formatter that already found the format of the file
+	 * @param select
+	 *            the compiled select filter
+	 * @param projection
+	 *            the fields that are used and written
+	 * @param engine
+	 *            an empty AggregationEngine for the part
+	 * @param myPart
+	 *            the file the kept records are written to
+	 */
+	public ChunkTask(String fileName, long myStart, long myEnd, Formatter formatter, FilterExpression select,
+			Projection projection, AggregationEngine engine, File myPart) {
+		myFileName = fileName;
+		start = myStart;
+		end = myEnd;
+		myFormatter = formatter;
+		mySelect = select;
+		myProjection = projection;
+		myEngine = engine;
+		part = myPart;
+	}
+
+	/**
+	 * Goes through every line of the part, keeping the records that follow the
+	 * format of the file and match the select.
+	 * 
+	 * @return the statistics of the kept records
+	 * @throws IOException
+	 *             if the file or the part file can't be read or written
+	 */
+	@Override
+	public AggregationEngine call() throws IOException {
+		StringBuilder lineBuilder = new StringBuilder();
+		String[] words = myProjection.newWords();
+		try (MappedReader reader = new MappedReader(myFileName, start, end);
+				RecordWriter writer = new RecordWriter(part.getPath(), false, false)) {
+			while (true) {
+				metrics.begin();
+				if (!(reader.nextLine()))
+					break;
+				// The first line is counted in the metrics as part of finding
+				// the format, the same way Formatter counts it.
+				boolean header = reader.lineOffset() == 0;
+				if (!header)
+					metrics.read(reader.position() - reader.lineOffset());
+				metrics.lap(Stage.READ);
+				if (!(myFormatter.hasFormat(reader))) {
+					if (!header)
+						metrics.reject(myFormatter.rejection(reader));
+					metrics.lap(Stage.CLEANSE);
+					continue;
+				}
+				myProjection.read(reader, words);
+				metrics.lap(Stage.CLEANSE);
+				boolean kept = mySelect.matches(words);
+				metrics.lap(Stage.FILTER);
+				if (!kept)
+					continue;
+				writer.write(myProjection.write(reader, lineBuilder)).endRecord();
+				metrics.keep(1);
+				metrics.lap(Stage.WRITE);
+				myEngine.addRecord(words);
+				metrics.lap(Stage.COMPUTE);
+			}
+		}
+		return myEngine;
+	}
+
+	/**
+	 * Gets the metrics of the part, once it has been gone through.
+	 * 
+	 * @return the metrics of the part
+	 */
+	public PipelineMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Gets the file the kept records were written to.
+	 * 
+	 * @return the part file
+	 */
+	public File getPart() {
+		return part;
+	}
+}
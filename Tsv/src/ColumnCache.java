@@ -0,0 +1,90 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * ColumnCache keeps the ColumnTable of a tsv file in a binary file next to it,
+ * named after the tsv file with .col at the end, so a file that hasn't changed
+ * doesn't have to be parsed and checked against its format again. Number
+ * columns are kept as fixed-width longs along with the lowest and highest
+ * number of each block of rows, and String columns as their dictionary and a
+ * code for each row. The cache remembers the size and the last time the tsv
+ * file was changed, and is only used while those still match. It is
+ * memory-mapped when it is read, so caches larger than 2 GB aren't read back.
+ *
+ * @author Tian Low ttl2132
+ *
+ */
+public class ColumnCache {
+	private static final long MAGIC = 0x545356434f4c3032L;
+
+	/**
+	 * Gets the name of the cache file of a tsv file.
+	 *
+	 * @param myFileName
+	 *            the name of the tsv file
+	 * @return the name of the cache file
+	 */
+	public static String cacheName(String myFileName) {
+		return myFileName + ".col";
+	}
+
+	/**
+	 * Reads the ColumnTable of a tsv file from its cache.
+	 *
+	 * @param myFileName
+	 *            the name of the tsv file
+	 * @return the table, or null if there is no cache that still matches the
+	 *         tsv file
+	 */
+	public static ColumnTable load(String myFileName) {
+		File source = new File(myFileName);
+		File cache = new File(cacheName(myFileName));
+		if (!(cache.exists()) || cache.length() > Integer.MAX_VALUE)
+			return null;
+		try (FileChannel input = FileChannel.open(cache.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer bytes = input.map(FileChannel.MapMode.READ_ONLY, 0, input.size());
+			if (bytes.getLong() != MAGIC || bytes.getLong() != source.length()
+					|| bytes.getLong() != source.lastModified())
+				return null;
+			return ColumnTable.readFrom(bytes);
+		} catch (IOException | BufferUnderflowException error) {
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the ColumnTable of a tsv file to its cache. The cache is written
+	 * next to it first and then moved in place, so an unfinished cache is never
+	 * read.
+	 *
+	 * @param myFileName
+	 *            the name of the tsv file
+	 * @param table
+	 *            the cleansed file
+	 * @throws IOException
+	 *             if the cache can't be written
+	 */
+	public static void save(String myFileName, ColumnTable table) throws IOException {
+		File source = new File(myFileName);
+		String cacheName = cacheName(myFileName);
+		File temporary = new File(cacheName + ".tmp");
+		try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))) {
+			output.writeLong(MAGIC);
+			output.writeLong(source.length());
+			output.writeLong(source.lastModified());
+			table.writeTo(output);
+		}
+		Files.move(temporary.toPath(), Paths.get(cacheName), StandardCopyOption.REPLACE_EXISTING);
+	}
+}
@@ -0,0 +1,766 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * ColumnTable keeps a cleansed file in memory one column at a time, so the
+ * file only has to be parsed once no matter how many filters and computations
+ * are run over it. Number columns are kept as longs and String columns are
+ * kept as codes into a dictionary of the different values in the column.
+ * Numbers that wouldn't be written the same way by Long.toString, such as 007,
+ * also have their original text kept so the filtered file looks the same.
+ * The lowest and highest number of each number column are found the first
+ * time they are asked for, both for the whole column and for each block of
+ * BLOCK rows, so a select that no number between them could match doesn't have
+ * to check any rows of the table or of the block. Files that are sorted by a
+ * number, such as a time or an id, only have a few blocks left to check for a
+ * range of that number.
+ *
+ * @author Tian Low ttl2132
+ *
+ */
+public class ColumnTable {
+	// How many rows share the lowest and highest number of a block.
+	public static final int BLOCK = 1 << 16;
+	private final String firstLine;
+	private final String[] fields;
+	private final String format;
+	private final boolean[] numbers;
+	private final long[][] longColumns;
+	private final int[][] codeColumns;
+	private final ArrayList<List<String>> dictionaries = new ArrayList<List<String>>();
+	private final ArrayList<HashMap<String, Integer>> codes = new ArrayList<HashMap<String, Integer>>();
+	private final ArrayList<HashMap<Integer, String>> originals = new ArrayList<HashMap<Integer, String>>();
+	private final long[] minimums;
+	private final long[] maximums;
+	private final long[][] blockMinimums;
+	private final long[][] blockMaximums;
+	private final int[] measuredRows;
+	private int rowCount;
+	private int capacity = 1024;
+
+	/**
+	 * Constructs an empty ColumnTable.
+	 *
+	 * @param myFirstLine
+	 *            the cleansed first line of the file
+	 * @param myFormat
+	 *            the format found by Formatter.findFormat, where 0 means the
+	 *            column is a long column. Decimal and double columns are kept
+	 *            as their text, the same as String columns
+	 */
+	public ColumnTable(String myFirstLine, String myFormat) {
+		firstLine = myFirstLine;
+		fields = myFirstLine.split("\t");
+		format = myFormat;
+		numbers = new boolean[myFormat.length()];
+		longColumns = new long[numbers.length][];
+		codeColumns = new int[numbers.length][];
+		minimums = new long[numbers.length];
+		maximums = new long[numbers.length];
+		blockMinimums = new long[numbers.length][0];
+		blockMaximums = new long[numbers.length][0];
+		measuredRows = new int[numbers.length];
+		Arrays.fill(measuredRows, -1);
+		for (int i = 0; i < numbers.length; i++) {
+			numbers[i] = myFormat.charAt(i) == '0';
+			if (numbers[i])
+				longColumns[i] = new long[capacity];
+			else
+				codeColumns[i] = new int[capacity];
+			dictionaries.add(new ArrayList<String>());
+			codes.add(new HashMap<String, Integer>());
+			originals.add(new HashMap<Integer, String>());
+		}
+	}
+
+	/**
+	 * Adds a record that is already split into fields.
+	 *
+	 * @param words
+	 *            the fields of a record that follows the format
+	 */
+	public void addRecord(String[] words) {
+		grow();
+		for (int i = 0; i < numbers.length; i++) {
+			if (numbers[i])
+				setLong(i, Long.parseLong(words[i]), words[i]);
+			else
+				codeColumns[i][rowCount] = code(i, words[i]);
+		}
+		rowCount++;
+	}
+
+	/**
+	 * Adds the record a MappedReader is on. Numbers are parsed straight from
+	 * the mapped bytes.
+	 *
+	 * @param reader
+	 *            the MappedReader on a record that follows the format
+	 */
+	public void addRecord(MappedReader reader) {
+		grow();
+		for (int i = 0; i < numbers.length; i++) {
+			if (numbers[i]) {
+				long number = reader.longField(i);
+				if (reader.isPlainLong(i))
+					longColumns[i][rowCount] = number;
+				else
+					setLong(i, number, reader.field(i));
+			} else
+				codeColumns[i][rowCount] = code(i, reader.field(i));
+		}
+		rowCount++;
+	}
+
+	/**
+	 * Sets a number of the current row, keeping its text if Long.toString
+	 * would write it differently.
+	 *
+	 * @param column
+	 *            the index of the column
+	 * @param number
+	 *            the number
+	 * @param text
+	 *            the number as it was written in the file
+	 */
+	private void setLong(int column, long number, String text) {
+		longColumns[column][rowCount] = number;
+		if (!(Long.toString(number).equals(text)))
+			originals.get(column).put(rowCount, text);
+	}
+
+	/**
+	 * Finds the code of a String in the dictionary of a column, adding it if it
+	 * is new.
+	 *
+	 * @param column
+	 *            the index of the column
+	 * @param value
+	 *            the String
+	 * @return the code of the String
+	 */
+	private int code(int column, String value) {
+		Integer code = codes(column).get(value);
+		if (code == null) {
+			if (dictionaries.get(column) instanceof MappedDictionary)
+				dictionaries.set(column, new ArrayList<String>(dictionaries.get(column)));
+			code = dictionaries.get(column).size();
+			dictionaries.get(column).add(value);
+			codes.get(column).put(value, code);
+		}
+		return code;
+	}
+
+	/**
+	 * Gets the codes of the Strings in the dictionary of a column. A table read
+	 * by readFrom only finds them the first time they are needed.
+	 *
+	 * @param column
+	 *            the index of the column
+	 * @return the codes of the Strings
+	 */
+	private HashMap<String, Integer> codes(int column) {
+		HashMap<String, Integer> myCodes = codes.get(column);
+		List<String> dictionary = dictionaries.get(column);
+		for (int code = myCodes.size(); code < dictionary.size(); code++)
+			myCodes.put(dictionary.get(code), code);
+		return myCodes;
+	}
+
+	/**
+	 * Makes room for another row.
+	 */
+	private void grow() {
+		if (rowCount < capacity)
+			return;
+		capacity *= 2;
+		for (int i = 0; i < numbers.length; i++) {
+			if (numbers[i])
+				longColumns[i] = Arrays.copyOf(longColumns[i], capacity);
+			else
+				codeColumns[i] = Arrays.copyOf(codeColumns[i], capacity);
+		}
+	}
+
+	/**
+	 * Gets the cleansed first line of the file.
+	 *
+	 * @return the first line
+	 */
+	public String getFirstLine() {
+		return firstLine;
+	}
+
+	/**
+	 * Gets the format of the table the same way Formatter.findFormat writes
+	 * it.
+	 *
+	 * @return the format in terms of a String of NumberParser kinds
+	 */
+	public String getFormat() {
+		return format;
+	}
+
+	/**
+	 * Gets how many records are in the table.
+	 *
+	 * @return the number of rows
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Gets the rows of every record in the table, in order.
+	 *
+	 * @return every row
+	 */
+	public int[] allRows() {
+		int[] rows = new int[rowCount];
+		for (int i = 0; i < rowCount; i++)
+			rows[i] = i;
+		return rows;
+	}
+
+	/**
+	 * Gets every column of the table, in order.
+	 *
+	 * @return every column
+	 */
+	public int[] allColumns() {
+		int[] columns = new int[numbers.length];
+		for (int i = 0; i < columns.length; i++)
+			columns[i] = i;
+		return columns;
+	}
+
+	/**
+	 * Finds the column of a field in the first line.
+	 *
+	 * @param myField
+	 *            the field
+	 * @return the index of the column, or -1 if there isn't one
+	 */
+	public int columnIndex(String myField) {
+		int columnIndex = -1;
+		for (int i = 0; i < fields.length && i < numbers.length; i++) {
+			if (myField.equals(fields[i]))
+				columnIndex = i;
+		}
+		return columnIndex;
+	}
+
+	/**
+	 * Gets whether a column holds numbers.
+	 *
+	 * @param column
+	 *            the index of the column
+	 * @return whether the column is a number column
+	 */
+	public boolean isNumber(int column) {
+		return numbers[column];
+	}
+
+	/**
+	 * Gets a number from a number column.
+	 *
+	 * @param column
+	 *            the index of the column
+	 * @param row
+	 *            the row
+	 * @return the number
+	 */
+	public long getLong(int column, int row) {
+		return longColumns[column][row];
+	}
+
+	/**
+	 * Gets the dictionary code of a value in a String column.
+	 *
+	 * @param column
+	 *            the index of the column
+	 * @param row
+	 *            the row
+	 * @return the code of the value
+	 */
+	public int getCode(int column, int row) {
+		return codeColumns[column][row];
+	}
+
+	/**
+	 * Finds the code a String has in a String column.
+	 *
+	 * @param column
+	 *            the index of the column
+	 * @param value
+	 *            the String
+	 * @return the code, or -1 if no record has the String
+	 */
+	public int codeOf(int column, String value) {
+		Integer code = codes(column).get(value);
+		if (code == null)
+			return -1;
+		return code;
+	}
+
+	/**
+	 * Gets a String from the dictionary of a column.
+	 *
+	 * @param column
+	 *            the index of the column
+	 * @param code
+	 *            the code of the String
+	 * @return the String
+	 */
+	public String getDictionary(int column, int code) {
+		return dictionaries.get(column).get(code);
+	}
+
+	/**
+	 * Gets how many different Strings a String column has.
+	 *
+	 * @param column
+	 *            the index of the column
+	 * @return the size of the dictionary
+	 */
+	public int getDictionarySize(int column) {
+		return dictionaries.get(column).size();
+	}
+
+	/**
+	 * Gets the lowest number of a number column.
+	 *
+	 * @param column
+	 *            the index of the column
+	 * @return the lowest number, or Computer.MINDEFAULT if there are no rows
+	 */
+	public long getMinimum(int column) {
+		measure(column);
+		return minimums[column];
+	}
+
+	/**
+	 * Gets the highest number of a number column.
+	 *
+	 * @param column
+	 *            the index of the column
+	 * @return the highest number, or Computer.MAXDEFAULT if there are no rows
+	 */
+	public long getMaximum(int column) {
+		measure(column);
+		return maximums[column];
+	}
+
+	/**
+	 * Gets how many blocks of BLOCK rows the table is split into. The last
+	 * block can have fewer rows.
+	 *
+	 * @return the number of blocks
+	 */
+	public int getBlockCount() {
+		return (rowCount + BLOCK - 1) / BLOCK;
+	}
+
+	/**
+	 * Gets the lowest number of a number column in one block of rows.
+	 *
+	 * @param column
+	 *            the index of the column
+	 * @param block
+	 *            the index of the block, which is the row divided by BLOCK
+	 * @return the lowest number in the block
+	 */
+	public long getBlockMinimum(int column, int block) {
+		measure(column);
+		return blockMinimums[column][block];
+	}
+
+	/**
+	 * Gets the highest number of a number column in one block of rows.
+	 *
+	 * @param column
+	 *            the index of the column
+	 * @param block
+	 *            the index of the block, which is the row divided by BLOCK
+	 * @return the highest number in the block
+	 */
+	public long getBlockMaximum(int column, int block) {
+		measure(column);
+		return blockMaximums[column][block];
+	}
+
+	/**
+	 * Finds the first of the rows after an index that is in a later block than
+	 * the row at the index, so the rest of a block can be skipped.
+	 *
+	 * @param rows
+	 *            rows of the table, in order
+	 * @param index
+	 *            the index of a row in rows
+	 * @return the index of the first row of a later block, or the length of
+	 *         rows
+	 */
+	public static int nextBlock(int[] rows, int index) {
+		int next = (rows[index] / BLOCK + 1) * BLOCK;
+		int found = Arrays.binarySearch(rows, index + 1, rows.length, next);
+		return found >= 0 ? found : -found - 1;
+	}
+
+	/**
+	 * Finds the lowest and highest number of a number column in each block and
+	 * in the whole column, unless they were already found since the last
+	 * record was added. Only the blocks with rows added since then are looked
+	 * at again.
+	 *
+	 * @param column
+	 *            the index of the column
+	 */
+	private void measure(int column) {
+		if (measuredRows[column] == rowCount)
+			return;
+		int blocks = getBlockCount();
+		int first = Math.max(0, measuredRows[column]) / BLOCK;
+		blockMinimums[column] = Arrays.copyOf(blockMinimums[column], blocks);
+		blockMaximums[column] = Arrays.copyOf(blockMaximums[column], blocks);
+		long[] values = longColumns[column];
+		for (int block = first; block < blocks; block++) {
+			long min = Computer.MINDEFAULT;
+			long max = Computer.MAXDEFAULT;
+			int end = Math.min(rowCount, (block + 1) * BLOCK);
+			for (int row = block * BLOCK; row < end; row++) {
+				if (values[row] < min)
+					min = values[row];
+				if (values[row] > max)
+					max = values[row];
+			}
+			blockMinimums[column][block] = min;
+			blockMaximums[column][block] = max;
+		}
+		long min = Computer.MINDEFAULT;
+		long max = Computer.MAXDEFAULT;
+		for (int block = 0; block < blocks; block++) {
+			min = Math.min(min, blockMinimums[column][block]);
+			max = Math.max(max, blockMaximums[column][block]);
+		}
+		minimums[column] = min;
+		maximums[column] = max;
+		measuredRows[column] = rowCount;
+	}
+
+	/**
+	 * Gets a value as it was written in the file.
+	 *
+	 * @param column
+	 *            the index of the column
+	 * @param row
+	 *            the row
+	 * @return the value as a String
+	 */
+	public String getString(int column, int row) {
+		if (!(numbers[column]))
+			return dictionaries.get(column).get(codeColumns[column][row]);
+		if (!(originals.get(column).isEmpty())) {
+			String original = originals.get(column).get(row);
+			if (original != null)
+				return original;
+		}
+		return Long.toString(longColumns[column][row]);
+	}
+
+	/**
+	 * Adds a record to a StringBuilder the same way Formatter.toString writes
+	 * it, with a tab after each field.
+	 *
+	 * @param row
+	 *            the row
+	 * @param builder
+	 *            the StringBuilder to add to
+	 * @return the StringBuilder
+	 */
+	public StringBuilder appendRow(int row, StringBuilder builder) {
+		return appendRow(row, builder, allColumns());
+	}
+
+	/**
+	 * Adds some of the fields of a record to a StringBuilder the same way
+	 * appendRow adds all of them.
+	 *
+	 * @param row
+	 *            the row
+	 * @param builder
+	 *            the StringBuilder to add to
+	 * @param columns
+	 *            the columns to add, in order
+	 * @return the StringBuilder
+	 */
+	public StringBuilder appendRow(int row, StringBuilder builder, int[] columns) {
+		for (int column : columns)
+			builder.append(getString(column, row)).append('\t');
+		return builder;
+	}
+
+	/**
+	 * Writes a record to a RecordWriter the same way appendRow adds it, with
+	 * numbers written straight from the long column.
+	 *
+	 * @param row
+	 *            the row
+	 * @param writer
+	 *            the RecordWriter to write to
+	 * @return the RecordWriter
+	 * @throws IOException
+	 *             if the record can't be written
+	 */
+	public RecordWriter writeRow(int row, RecordWriter writer) throws IOException {
+		return writeRow(row, writer, allColumns());
+	}
+
+	/**
+	 * Writes some of the fields of a record to a RecordWriter the same way
+	 * writeRow writes all of them.
+	 *
+	 * @param row
+	 *            the row
+	 * @param writer
+	 *            the RecordWriter to write to
+	 * @param columns
+	 *            the columns to write, in order
+	 * @return the RecordWriter
+	 * @throws IOException
+	 *             if the record can't be written
+	 */
+	public RecordWriter writeRow(int row, RecordWriter writer, int[] columns) throws IOException {
+		for (int column : columns) {
+			if (numbers[column] && (originals.get(column).isEmpty() || !(originals.get(column).containsKey(row))))
+				writer.write(longColumns[column][row]);
+			else
+				writer.write(getString(column, row));
+			writer.write('\t');
+		}
+		return writer;
+	}
+
+	/**
+	 * Computes the statistics of a column over some of the rows. Numbers are
+	 * added straight from the long column, and each different String is only
+	 * compared once no matter how many rows have it.
+	 *
+	 * @param column
+	 *            the index of the column
+	 * @param rows
+	 *            the rows to compute over
+	 * @return the statistics of the column
+	 */
+	public Accumulator accumulate(int column, int[] rows) {
+		return accumulate(column, rows, new Accumulator());
+	}
+
+	/**
+	 * Adds the values of a column over some of the rows to an Accumulator,
+	 * such as one that keeps a ValueSketch.
+	 *
+	 * @param column
+	 *            the index of the column
+	 * @param rows
+	 *            the rows to compute over
+	 * @param myAccumulator
+	 *            an empty Accumulator
+	 * @return the Accumulator
+	 */
+	public Accumulator accumulate(int column, int[] rows, Accumulator myAccumulator) {
+		if (numbers[column]) {
+			long[] values = longColumns[column];
+			for (int row : rows)
+				myAccumulator.add(values[row]);
+			return myAccumulator;
+		}
+		int[] values = codeColumns[column];
+		long[] times = new long[dictionaries.get(column).size()];
+		int[] order = new int[times.length];
+		int different = 0;
+		for (int row : rows) {
+			if (times[values[row]]++ == 0)
+				order[different++] = values[row];
+		}
+		for (int i = 0; i < different; i++)
+			myAccumulator.add(dictionaries.get(column).get(order[i]), times[order[i]]);
+		return myAccumulator;
+	}
+
+	/**
+	 * Writes the table so it can be read back by readFrom without parsing the
+	 * file again. Each column is written in one piece, together with its
+	 * dictionary or the lowest and highest number of each of its blocks.
+	 *
+	 * @param output
+	 *            where the table is written
+	 * @throws IOException
+	 *             if the table can't be written
+	 */
+	public void writeTo(DataOutputStream output) throws IOException {
+		writeString(output, firstLine);
+		writeString(output, getFormat());
+		output.writeInt(rowCount);
+		ByteBuffer block = ByteBuffer.allocate(1 << 16);
+		for (int i = 0; i < numbers.length; i++) {
+			if (numbers[i]) {
+				measure(i);
+				for (int j = 0; j < getBlockCount(); j++) {
+					output.writeLong(blockMinimums[i][j]);
+					output.writeLong(blockMaximums[i][j]);
+				}
+				for (int row = 0; row < rowCount; row += block.capacity() / 8) {
+					int length = Math.min(block.capacity() / 8, rowCount - row);
+					block.clear();
+					block.asLongBuffer().put(longColumns[i], row, length);
+					output.write(block.array(), 0, length * 8);
+				}
+				output.writeInt(originals.get(i).size());
+				for (Integer row : originals.get(i).keySet()) {
+					output.writeInt(row);
+					writeString(output, originals.get(i).get(row));
+				}
+			} else {
+				output.writeInt(dictionaries.get(i).size());
+				for (String value : dictionaries.get(i))
+					writeString(output, value);
+				for (int row = 0; row < rowCount; row += block.capacity() / 4) {
+					int length = Math.min(block.capacity() / 4, rowCount - row);
+					block.clear();
+					block.asIntBuffer().put(codeColumns[i], row, length);
+					output.write(block.array(), 0, length * 4);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a table that was written by writeTo. The columns are copied out of
+	 * the buffer whole, and the Strings of the dictionaries are only read from
+	 * the buffer when they are needed, so reading a table from a memory-mapped
+	 * file takes about as long as reading the file.
+	 *
+	 * @param input
+	 *            the bytes written by writeTo
+	 * @return the table
+	 */
+	public static ColumnTable readFrom(ByteBuffer input) {
+		String myFirstLine = readString(input);
+		ColumnTable table = new ColumnTable(myFirstLine, readString(input));
+		int rows = input.getInt();
+		table.rowCount = rows;
+		table.capacity = Math.max(1, rows);
+		for (int i = 0; i < table.numbers.length; i++) {
+			if (table.numbers[i]) {
+				int blocks = table.getBlockCount();
+				table.blockMinimums[i] = new long[blocks];
+				table.blockMaximums[i] = new long[blocks];
+				table.minimums[i] = Computer.MINDEFAULT;
+				table.maximums[i] = Computer.MAXDEFAULT;
+				for (int j = 0; j < blocks; j++) {
+					table.blockMinimums[i][j] = input.getLong();
+					table.blockMaximums[i][j] = input.getLong();
+					table.minimums[i] = Math.min(table.minimums[i], table.blockMinimums[i][j]);
+					table.maximums[i] = Math.max(table.maximums[i], table.blockMaximums[i][j]);
+				}
+				table.measuredRows[i] = rows;
+				table.longColumns[i] = new long[table.capacity];
+				input.asLongBuffer().get(table.longColumns[i], 0, rows);
+				input.position(input.position() + 8 * rows);
+				int originals = input.getInt();
+				for (int j = 0; j < originals; j++) {
+					int row = input.getInt();
+					table.originals.get(i).put(row, readString(input));
+				}
+			} else {
+				table.dictionaries.set(i, new MappedDictionary(input, input.getInt()));
+				table.codeColumns[i] = new int[table.capacity];
+				input.asIntBuffer().get(table.codeColumns[i], 0, rows);
+				input.position(input.position() + 4 * rows);
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Writes a String as its length and its UTF-8 bytes.
+	 *
+	 * @param output
+	 *            where the String is written
+	 * @param value
+	 *            the String
+	 * @throws IOException
+	 *             if the String can't be written
+	 */
+	private static void writeString(DataOutputStream output, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	/**
+	 * Reads a String written by writeString.
+	 *
+	 * @param input
+	 *            the bytes the String is in
+	 * @return the String
+	 */
+	private static String readString(ByteBuffer input) {
+		byte[] bytes = new byte[input.getInt()];
+		input.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * The dictionary of a column read by readFrom. Each String is left in the
+	 * buffer until it is asked for.
+	 */
+	private static class MappedDictionary extends AbstractList<String> {
+		private final ByteBuffer bytes;
+		private final int[] offsets;
+		private final String[] values;
+
+		/**
+		 * Finds where each String of a dictionary written by writeTo starts,
+		 * and moves the buffer past the dictionary.
+		 *
+		 * @param input
+		 *            the buffer, at the first String of the dictionary
+		 * @param size
+		 *            how many Strings the dictionary has
+		 */
+		private MappedDictionary(ByteBuffer input, int size) {
+			bytes = input.slice();
+			offsets = new int[size];
+			values = new String[size];
+			int position = 0;
+			for (int code = 0; code < size; code++) {
+				offsets[code] = position;
+				position += 4 + bytes.getInt(position);
+			}
+			input.position(input.position() + position);
+		}
+
+		@Override
+		public String get(int code) {
+			if (values[code] == null) {
+				ByteBuffer value = bytes.duplicate();
+				value.position(offsets[code]);
+				values[code] = readString(value);
+			}
+			return values[code];
+		}
+
+		@Override
+		public int size() {
+			return values.length;
+		}
+	}
+}
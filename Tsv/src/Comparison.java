@@ -0,0 +1,9 @@
+/**
+ * An enum with the different ways a field can be compared in a select.
+ * 
+ * @author Tian Low ttl2132
+ *
+ */
+public enum Comparison {
+	EQUALS, LESS, LESS_EQUAL, GREATER, GREATER_EQUAL, BETWEEN, IN, PREFIX;
+}
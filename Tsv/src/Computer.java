@@ -1,10 +1,12 @@
-import java.lang.Math;
+import java.util.HashMap;
 
 /**
  * This class helps TSVPipeline compute the different values for whether all
  * fields are the same, average, number of records in a field, the maximum and
  * minimum values, standard deviation, and the sum of all of the numbers in a
- * given field.
+ * given field. The statistics are either computed from a ColumnTable, or
+ * computed together for every field in one pass by an AggregationEngine the
+ * first time one is asked for.
  * 
  * @author Tian Low ttl2132
  *
@@ -12,6 +14,11 @@ import java.lang.Math;
 public class Computer {
 	private String firstLine;
 	private String entireFile;
+	private AggregationEngine engine;
+	private ColumnTable table;
+	private int[] rows;
+	private HashMap<String, Accumulator> columns = new HashMap<String, Accumulator>();
+	private HashMap<String, ValueSketch> sketches = new HashMap<String, ValueSketch>();
 	// Defaults for certain computations.
 	public static final long MAXDEFAULT = Long.MIN_VALUE;
 	public static final long MINDEFAULT = Long.MAX_VALUE;
@@ -30,6 +37,36 @@ public class Computer {
 		entireFile = myEntireFile;
 	}
 
+	/**
+	 * Constructs a Computer that reads the values from an AggregationEngine
+	 * that was already filled, such as when the file was streamed.
+	 * 
+	 * @param myFirstLine
+	 *            the first line of the file
+	 * @param myEngine
+	 *            the statistics folded while the file was read
+	 */
+	public Computer(String myFirstLine, AggregationEngine myEngine) {
+		firstLine = myFirstLine;
+		engine = myEngine;
+	}
+
+	/**
+	 * Constructs a Computer that computes values straight from the columns of
+	 * a ColumnTable, without parsing the file again. Each field is only
+	 * computed once, the first time one of its statistics is asked for.
+	 * 
+	 * @param myTable
+	 *            the cleansed file
+	 * @param myRows
+	 *            the rows that were kept by the filter
+	 */
+	public Computer(ColumnTable myTable, int[] myRows) {
+		firstLine = myTable.getFirstLine();
+		table = myTable;
+		rows = myRows;
+	}
+
 	/**
 	 * Iterates through fields in the first line to find the field entered by
 	 * the user.
@@ -48,6 +85,68 @@ public class Computer {
 		return fieldIndex;
 	}
 
+	/**
+	 * Keeps a ValueSketch of a field, for statistics such as TOP_K. It has to
+	 * be asked for before any statistic of the field is computed. A Computer
+	 * made from an AggregationEngine uses the sketches the AggregationEngine
+	 * already kept.
+	 * 
+	 * @param myField
+	 *            the user input field
+	 * @param sketch
+	 *            an empty sketch
+	 */
+	public void track(String myField, ValueSketch sketch) {
+		sketches.put(myField, sketch);
+	}
+
+	/**
+	 * Gets the statistics of a field, going through the entire file once to
+	 * compute the statistics of every field if that hasn't been done yet.
+	 * 
+	 * @param myField
+	 *            the user input field
+	 * @return the statistics of the field
+	 */
+	private Accumulator accumulator(String myField) {
+		if (table != null) {
+			Accumulator column = columns.get(myField);
+			if (column == null) {
+				int columnIndex = table.columnIndex(myField);
+				if (columnIndex == -1) {
+					System.out.println("Accurate field not specified.");
+					return new Accumulator();
+				}
+				column = new Accumulator();
+				if (sketches.containsKey(myField))
+					column.track(sketches.get(myField).empty());
+				table.accumulate(columnIndex, rows, column);
+				columns.put(myField, column);
+			}
+			return column;
+		}
+		if (!(engine().hasField(myField)) && fieldIndex(myField) == -1)
+			System.out.println("Accurate field not specified.");
+		return engine().getAccumulator(myField);
+	}
+
+	/**
+	 * Gets the AggregationEngine, filling it with the entire file the first
+	 * time it is needed.
+	 * 
+	 * @return the AggregationEngine with the statistics of the file
+	 */
+	private AggregationEngine engine() {
+		if (engine == null) {
+			engine = AggregationEngine.allFields(firstLine);
+			for (String myField : sketches.keySet())
+				engine.track(myField, sketches.get(myField));
+			if (!(entireFile.contains("Error")))
+				engine.addFile(entireFile);
+		}
+		return engine;
+	}
+
 	/**
 	 * Computes whether all of the values in a certain field column are the same
 	 * value.
@@ -57,98 +156,33 @@ public class Computer {
 	 * @return whether or not the values are the same
 	 */
 	public boolean computeALLSAME(String myField) {
-		int recordIndex = fieldIndex(myField);
-		if (recordIndex == -1)
-			System.out.println("Accurate field not specified.");
-		else {
-			String previous = "";
-			String[] splitFile = entireFile.split("\r\n");
-			for (int i = 0; i < splitFile.length; i++) {
-				String[] words = splitFile[i].split("\t");
-				if (i > 0) {
-					if (!(previous.equals(words[recordIndex])))
-						return false;
-				}
-				previous = words[recordIndex];
-			}
-		}
-		return true;
+		return accumulator(myField).getALLSAME();
 	}
 
 	/**
-	 * Computes the highest value under the given field. Iterates through the
-	 * entire file, checking if the value is a String or long along the way.
-	 * Note that for Strings the highest value is the last word alphabetically.
+	 * Computes the highest value under the given field. Note that for Strings
+	 * the highest value is the last word alphabetically, and Strings are only
+	 * used if the field has no numbers.
 	 * 
 	 * @param myField
 	 *            the user input field
 	 * @return the highest value
 	 */
 	public String computeMAX(String myField) {
-		int recordIndex = fieldIndex(myField);
-		long previous = MAXDEFAULT;
-		if (recordIndex == -1)
-			System.out.println("Accurate field not specified.");
-		else {
-			String[] splitFile = entireFile.split("\r\n");
-			if (splitFile.length == 0)
-				return "" + previous;
-			if (entireFile.contains("Error"))
-				return "" + previous;
-			String[] words = splitFile[0].split("\t");
-			String previous2 = words[recordIndex];
-			for (int i = 0; i < splitFile.length; i++) {
-				try {
-					words = splitFile[i].split("\t");
-					if (previous < (Long.parseLong(words[recordIndex])))
-						previous = Long.parseLong(words[recordIndex]);
-				} catch (NumberFormatException error) {
-					if (previous2.compareTo(words[recordIndex]) < 0)
-						previous2 = words[recordIndex];
-				}
-			}
-			if (previous == MAXDEFAULT)
-				return previous2;
-		}
-		return "" + previous;
+		return accumulator(myField).getMAX();
 	}
 
 	/**
-	 * Computes the lowest value under the given field. Iterates through the
-	 * entire file, checking if the value is a String or long along the way.
-	 * Note that for Strings the lowest value is the first word alphabetically.
+	 * Computes the lowest value under the given field. Note that for Strings
+	 * the lowest value is the first word alphabetically, and Strings are only
+	 * used if the field has no numbers.
 	 * 
 	 * @param myField
 	 *            the user input field
 	 * @return the lowest value
 	 */
 	public String computeMIN(String myField) {
-		int recordIndex = fieldIndex(myField);
-		long previous = MINDEFAULT;
-		if (recordIndex == -1)
-			System.out.println("Accurate field not specified.");
-		else {
-			String[] splitFile = entireFile.split("\r\n");
-			if (splitFile.length == 0)
-				return "" + previous;
-			if (entireFile.contains("Error"))
-				return "" + previous;
-			String[] words = splitFile[0].split("\t");
-			String previous2 = words[recordIndex];
-			for (int i = 0; i < splitFile.length; i++) {
-				try {
-					words = splitFile[i].split("\t");
-					if (previous > (Long.parseLong(words[recordIndex])))
-						previous = Long.parseLong(words[recordIndex]);
-				} catch (NumberFormatException error) {
-					if (previous2.compareTo(words[recordIndex]) > 0)
-						previous2 = words[recordIndex];
-				}
-			}
-			if (previous == MINDEFAULT)
-				return previous2;
-		}
-		return "" + previous;
+		return accumulator(myField).getMIN();
 	}
 
 	/**
@@ -159,81 +193,157 @@ public class Computer {
 	 * @return the number of records of the field
 	 */
 	public int computeCOUNT() {
-		return entireFile.split("\r\n").length;
+		if (table != null)
+			return rows.length;
+		return (int) engine().getCOUNT();
 	}
 
 	/**
-	 * Computes the sum of all of the numbers under a given field.
+	 * Computes the sum of all of the numbers under a given field, rounded
+	 * toward zero to a long. A decimal field can add up to more than a long
+	 * holds even when every record is valid, so use formatSUM to write the
+	 * sum out and only use this when the long itself is needed.
 	 * 
 	 * @param myField
 	 *            the user input field
-	 * @return the sum of all of the numbers under the field
+	 * @return the sum of all of the numbers under the field, held at the
+	 *         range of a long if the field has doubles
+	 * @throws ArithmeticException
+	 *             if the sum of a long or decimal field doesn't fit in a long
 	 */
 	public long computeSUM(String myField) {
-		long sum = SUMDEFAULT;
-		int recordIndex = fieldIndex(myField);
-		if (recordIndex == -1)
-			System.out.println("Accurate field not specified.");
-		else {
-			String[] splitFile = entireFile.split("\r\n");
-			if (entireFile.contains("Error"))
-				return sum;
-			for (int i = 0; i < splitFile.length; i++) {
-				String[] words = splitFile[i].split("\t");
-				try {
-					sum += Long.parseLong(words[recordIndex]);
-				} catch (NumberFormatException error) {
-				}
-			}
-			if (sum == SUMDEFAULT)
-				System.out.println("Record is not a number.");
-		}
-		return sum;
+		return numbers(myField).getSUM();
 	}
 
 	/**
 	 * Computes the mean of all of the numbers under a given field. Takes the
-	 * sum of all of the number and divides it by the number of numbers.
+	 * sum of all of the number and divides it by the number of records,
+	 * rounded toward zero to a long. The digits after the decimal point are
+	 * lost without a warning, so formatAVERAGE is what should be written out.
 	 * 
 	 * @param myField
 	 *            the user input field
 	 * @return the mean of all of the numbers under the given field
 	 */
 	public long computeAVERAGE(String myField) {
-		return computeSUM(myField) / computeCOUNT();
+		return accumulator(myField).getAVERAGE();
 	}
 
 	/**
-	 * Computes the standard deviation of the numbers in a given field.
+	 * Computes the standard deviation of the numbers in a given field. The
+	 * variance is kept with Welford's online algorithm, so this doesn't need
+	 * the average to be computed first.
 	 * 
 	 * @param myField
 	 *            the user input field
 	 * @return the standard deviation of all of the numbers under the given
-	 *         field
+	 *         field, rounded toward zero to a long; formatSTANDARD_DEVIATION
+	 *         keeps the digits after the decimal point
 	 */
 	public long computeSTANDARD_DEVIATION(String myField) {
-		long sum = 0;
-		int recordIndex = fieldIndex(myField);
-		if (recordIndex == -1)
-			System.out.println("Accurate field not specified.");
-		else {
-			String[] splitFile = entireFile.split("\r\n");
-			if (entireFile.contains("Error"))
-				return sum;
-			for (int i = 0; i < splitFile.length; i++) {
-				String[] words = splitFile[i].split("\t");
-				try {
-					sum += Math.pow(((Long.parseLong(words[recordIndex]) - computeAVERAGE(myField))), 2);
-				} catch (NumberFormatException error) {
-				}
-			}
-			if (sum == SUMDEFAULT) {
-				System.out.println("Record is not a number.");
-				return sum;
-			}
+		return numbers(myField).getSTANDARD_DEVIATION();
+	}
 
-		}
-		return (long) Math.sqrt(sum / (computeCOUNT() - 1));
+	/**
+	 * Writes the sum of all of the numbers under a given field. The sum of
+	 * longs and decimals is exact, however big it gets.
+	 * 
+	 * @param myField
+	 *            the user input field
+	 * @return the sum of all of the numbers under the field
+	 */
+	public String formatSUM(String myField) {
+		return numbers(myField).formatSUM();
+	}
+
+	/**
+	 * Writes the mean of all of the numbers under a given field, keeping the
+	 * digits after the decimal point.
+	 * 
+	 * @param myField
+	 *            the user input field
+	 * @return the mean of all of the numbers under the given field
+	 */
+	public String formatAVERAGE(String myField) {
+		return accumulator(myField).formatAVERAGE();
+	}
 
+	/**
+	 * Writes the standard deviation of the numbers in a given field, keeping
+	 * the digits after the decimal point.
+	 * 
+	 * @param myField
+	 *            the user input field
+	 * @return the standard deviation of all of the numbers under the given
+	 *         field
+	 */
+	public String formatSTANDARD_DEVIATION(String myField) {
+		return numbers(myField).formatSTANDARD_DEVIATION();
+	}
+
+	/**
+	 * Checks whether a given field has any numbers, so there is a sum to
+	 * compute.
+	 * 
+	 * @param myField
+	 *            the user input field
+	 * @return whether the field has numbers
+	 */
+	public boolean hasNumbers(String myField) {
+		return accumulator(myField).hasNumbers();
+	}
+
+	/**
+	 * Checks whether the numbers of a given field are not all the same, so
+	 * they have a standard deviation.
+	 * 
+	 * @param myField
+	 *            the user input field
+	 * @return whether the numbers of the field are different
+	 */
+	public boolean hasDeviation(String myField) {
+		return accumulator(myField).hasDeviation();
+	}
+
+	/**
+	 * Checks whether every number of a given field is zero.
+	 * 
+	 * @param myField
+	 *            the user input field
+	 * @return whether the field has numbers and they are all zeros
+	 */
+	public boolean hasOnlyZeros(String myField) {
+		return accumulator(myField).hasOnlyZeros();
+	}
+
+	/**
+	 * Gets the statistics of a field whose numbers are needed, letting the
+	 * user know if it has none.
+	 * 
+	 * @param myField
+	 *            the user input field
+	 * @return the statistics of the field
+	 */
+	private Accumulator numbers(String myField) {
+		Accumulator myAccumulator = accumulator(myField);
+		if (!(myAccumulator.hasNumbers()))
+			System.out.println("Record is not a number.");
+		return myAccumulator;
+	}
+
+	/**
+	 * Computes a statistic kept in a ValueSketch, such as the highest values
+	 * for TOP_K, the number of different values for DISTINCT_COUNT or the
+	 * median for QUANTILES.
+	 * 
+	 * @param myField
+	 *            the user input field
+	 * @return the statistic, or null if no sketch of the field was kept
+	 */
+	public String computeSketch(String myField) {
+		ValueSketch sketch = accumulator(myField).getSketch();
+		if (sketch == null)
+			return null;
+		return sketch.result();
 	}
 }
@@ -0,0 +1,311 @@
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * A Condition is one comparison of a select, such as a field being between two
+ * numbers or starting with a certain String. Number values only match fields
+ * that are numbers, where decimals are compared exactly with the longs of the
+ * Condition, while String values are compared with the text of the field.
+ * 
+ * @author Tian Low ttl2132
+ *
+ */
+public class Condition {
+	private final String field;
+	private final Comparison comparison;
+	private final long[] longValues;
+	private final String[] stringValues;
+	private final HashSet<String> stringSet;
+	// One NumberParser for each thread, since the parallel parts of a file
+	// check the same Condition at the same time.
+	private final ThreadLocal<NumberParser> parsers = new ThreadLocal<NumberParser>() {
+		@Override
+		protected NumberParser initialValue() {
+			return new NumberParser();
+		}
+	};
+
+	/**
+	 * Constructs a Condition that compares a field with numbers.
+	 * 
+	 * @param myField
+	 *            the field being compared
+	 * @param myComparison
+	 *            how the field is compared
+	 * @param myValues
+	 *            the numbers the field is compared with
+	 */
+	public Condition(String myField, Comparison myComparison, long... myValues) {
+		checkValues(myComparison, myValues.length);
+		field = myField;
+		comparison = myComparison;
+		longValues = myValues.clone();
+		if (comparison == Comparison.IN)
+			Arrays.sort(longValues);
+		stringValues = null;
+		stringSet = null;
+	}
+
+	/**
+	 * Constructs a Condition that compares a field with Strings.
+	 * 
+	 * @param myField
+	 *            the field being compared
+	 * @param myComparison
+	 *            how the field is compared
+	 * @param myValues
+	 *            the Strings the field is compared with
+	 */
+	public Condition(String myField, Comparison myComparison, String... myValues) {
+		checkValues(myComparison, myValues.length);
+		field = myField;
+		comparison = myComparison;
+		longValues = null;
+		stringValues = myValues.clone();
+		stringSet = new HashSet<String>(Arrays.asList(myValues));
+	}
+
+	/**
+	 * Makes sure a comparison was given the right number of values.
+	 * 
+	 * @param myComparison
+	 *            how the field is compared
+	 * @param count
+	 *            the number of values
+	 */
+	private static void checkValues(Comparison myComparison, int count) {
+		if (myComparison == Comparison.BETWEEN && count != 2)
+			throw new IllegalArgumentException("BETWEEN needs a lowest and a highest value.");
+		if (myComparison == Comparison.IN && count == 0)
+			throw new IllegalArgumentException("IN needs at least one value.");
+		if (myComparison != Comparison.BETWEEN && myComparison != Comparison.IN && count != 1)
+			throw new IllegalArgumentException(myComparison + " needs exactly one value.");
+	}
+
+	/**
+	 * Gets the field being compared.
+	 * 
+	 * @return the field
+	 */
+	public String getField() {
+		return field;
+	}
+
+	/**
+	 * Gets how the field is compared.
+	 * 
+	 * @return the comparison
+	 */
+	public Comparison getComparison() {
+		return comparison;
+	}
+
+	/**
+	 * Gets the first value the field is compared with, as text.
+	 * 
+	 * @return the first value
+	 */
+	public String getValue() {
+		if (isNumber())
+			return Long.toString(longValues[0]);
+		return stringValues[0];
+	}
+
+	/**
+	 * Gets whether the field is compared with numbers.
+	 * 
+	 * @return whether the values are numbers
+	 */
+	public boolean isNumber() {
+		return longValues != null;
+	}
+
+	/**
+	 * Describes the Condition, such as Age BETWEEN [20, 30]. String values are
+	 * put in quotes so they can't be mistaken for numbers.
+	 * 
+	 * @return the Condition as a String
+	 */
+	@Override
+	public String toString() {
+		if (isNumber())
+			return field + " " + comparison + " " + Arrays.toString(longValues);
+		StringBuilder values = new StringBuilder();
+		for (String value : stringValues)
+			values.append(values.length() == 0 ? "[\"" : ", \"").append(value).append('"');
+		return field + " " + comparison + " " + values.append(']');
+	}
+
+	/**
+	 * Estimates how much work the Condition is for each record, so cheaper
+	 * Conditions can be checked first.
+	 * 
+	 * @return the relative cost of the Condition
+	 */
+	public int cost() {
+		if (isNumber()) {
+			if (comparison == Comparison.IN || comparison == Comparison.PREFIX)
+				return 3;
+			return comparison == Comparison.BETWEEN ? 2 : 1;
+		}
+		if (comparison == Comparison.EQUALS)
+			return 4;
+		return comparison == Comparison.IN ? 6 : 5;
+	}
+
+	/**
+	 * Checks whether a value of the field matches.
+	 * 
+	 * @param value
+	 *            the value of the field in a record
+	 * @return whether the value matches
+	 */
+	public boolean matches(String value) {
+		if (isNumber()) {
+			if (RowValidator.isLong(value, 0, value.length()))
+				return matches(Long.parseLong(value));
+			NumberParser parser = parsers.get();
+			return parser.parse(value, 0, value.length()) != NumberParser.STRING && matches(parser, value);
+		}
+		switch (comparison) {
+		case EQUALS:
+			return value.equals(stringValues[0]);
+		case LESS:
+			return value.compareTo(stringValues[0]) < 0;
+		case LESS_EQUAL:
+			return value.compareTo(stringValues[0]) <= 0;
+		case GREATER:
+			return value.compareTo(stringValues[0]) > 0;
+		case GREATER_EQUAL:
+			return value.compareTo(stringValues[0]) >= 0;
+		case BETWEEN:
+			return value.compareTo(stringValues[0]) >= 0 && value.compareTo(stringValues[1]) <= 0;
+		case IN:
+			return stringSet.contains(value);
+		case PREFIX:
+			return value.startsWith(stringValues[0]);
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether a number of the field that isn't a long matches.
+	 * 
+	 * @param parser
+	 *            the NumberParser that read the number
+	 * @param value
+	 *            the value of the field in a record
+	 * @return whether the number matches
+	 */
+	private boolean matches(NumberParser parser, String value) {
+		switch (comparison) {
+		case EQUALS:
+			return compare(parser, longValues[0]) == 0;
+		case LESS:
+			return compare(parser, longValues[0]) < 0;
+		case LESS_EQUAL:
+			return compare(parser, longValues[0]) <= 0;
+		case GREATER:
+			return compare(parser, longValues[0]) > 0;
+		case GREATER_EQUAL:
+			return compare(parser, longValues[0]) >= 0;
+		case BETWEEN:
+			return compare(parser, longValues[0]) >= 0 && compare(parser, longValues[1]) <= 0;
+		case IN:
+			for (long each : longValues) {
+				if (compare(parser, each) == 0)
+					return true;
+			}
+			return false;
+		case PREFIX:
+			return value.startsWith(Long.toString(longValues[0]));
+		}
+		return false;
+	}
+
+	/**
+	 * Compares the number a NumberParser read with a long. Numbers that aren't
+	 * exact are compared by their doubles.
+	 * 
+	 * @param parser
+	 *            the NumberParser that read the number
+	 * @param other
+	 *            the long
+	 * @return below zero, zero or above zero as the number is below, equal to
+	 *         or above the long
+	 */
+	private static int compare(NumberParser parser, long other) {
+		if (parser.isExact())
+			return NumberParser.compare(parser.getUnscaled(), parser.getScale(), other, 0);
+		return Double.compare(parser.toDouble(), other);
+	}
+
+	/**
+	 * Checks whether a number of the field matches. Numbers never match a
+	 * Condition on Strings, except through their text.
+	 * 
+	 * @param value
+	 *            the number of the field in a record
+	 * @return whether the number matches
+	 */
+	public boolean matches(long value) {
+		if (!(isNumber()))
+			return matches(Long.toString(value));
+		switch (comparison) {
+		case EQUALS:
+			return value == longValues[0];
+		case LESS:
+			return value < longValues[0];
+		case LESS_EQUAL:
+			return value <= longValues[0];
+		case GREATER:
+			return value > longValues[0];
+		case GREATER_EQUAL:
+			return value >= longValues[0];
+		case BETWEEN:
+			return value >= longValues[0] && value <= longValues[1];
+		case IN:
+			return Arrays.binarySearch(longValues, value) >= 0;
+		case PREFIX:
+			return Long.toString(value).startsWith(Long.toString(longValues[0]));
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether any number between two numbers could match, so a set of
+	 * records whose numbers all lie between them can be skipped when none
+	 * could. Conditions that aren't on numbers might always match.
+	 * 
+	 * @param min
+	 *            the lowest number of the field in the records
+	 * @param max
+	 *            the highest number of the field in the records
+	 * @return whether some number between min and max might match
+	 */
+	public boolean mayMatch(long min, long max) {
+		if (!(isNumber()))
+			return true;
+		if (min > max)
+			return false;
+		switch (comparison) {
+		case EQUALS:
+			return longValues[0] >= min && longValues[0] <= max;
+		case LESS:
+			return min < longValues[0];
+		case LESS_EQUAL:
+			return min <= longValues[0];
+		case GREATER:
+			return max > longValues[0];
+		case GREATER_EQUAL:
+			return max >= longValues[0];
+		case BETWEEN:
+			return longValues[0] <= max && longValues[1] >= min;
+		case IN:
+			int index = Arrays.binarySearch(longValues, min);
+			return index >= 0 || -index - 1 < longValues.length && longValues[-index - 1] <= max;
+		default:
+			return true;
+		}
+	}
+}
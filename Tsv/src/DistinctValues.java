@@ -0,0 +1,220 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+
+/**
+ * DistinctValues counts the different values of a field for DISTINCT_COUNT.
+ * The values are kept in a set and counted exactly until there are more of
+ * them than the size of the sketch. From then on they are counted with
+ * HyperLogLog: each value is hashed, and a register picked by the first bits
+ * of the hash remembers the longest run of zeros seen in the rest of it. The
+ * number of registers is the highest power of two that fits in the size, up to
+ * 2^16, so the estimate is usually within 1.04 / sqrt(registers) of the real
+ * count and the memory never grows past one byte per register.
+ *
+ * @author Tian Low ttl2132
+ *
+ */
+public class DistinctValues extends ValueSketch {
+	private static final int MINBITS = 4;
+	private static final int MAXBITS = 16;
+	private final int size;
+	private final int bits;
+	private HashSet<String> values = new HashSet<String>();
+	private byte[] registers;
+
+	/**
+	 * Constructs an empty DistinctValues.
+	 *
+	 * @param mySize
+	 *            how many values are counted exactly
+	 */
+	public DistinctValues(int mySize) {
+		size = Math.max(1, mySize);
+		bits = Math.max(MINBITS, Math.min(MAXBITS, 31 - Integer.numberOfLeadingZeros(size)));
+	}
+
+	@Override
+	public void add(String value) {
+		if (registers == null)
+			addKey(key(value));
+		else
+			addHash(hash(value));
+	}
+
+	@Override
+	public void add(long number) {
+		if (registers == null)
+			addKey(Long.toString(number));
+		else
+			addHash(mix(number));
+	}
+
+	@Override
+	public void add(String value, long times) {
+		add(value);
+	}
+
+	/**
+	 * Adds a value to the set of values counted exactly, moving on to
+	 * HyperLogLog if the set gets too big.
+	 *
+	 * @param myKey
+	 *            the key of the value
+	 */
+	private void addKey(String myKey) {
+		values.add(myKey);
+		if (values.size() > size)
+			startEstimating();
+	}
+
+	/**
+	 * Moves from counting exactly to counting with HyperLogLog.
+	 */
+	private void startEstimating() {
+		registers = new byte[1 << bits];
+		for (String value : values)
+			addHash(hash(value));
+		values = null;
+	}
+
+	/**
+	 * Adds the hash of a value to its register.
+	 *
+	 * @param hash
+	 *            the hash of the value
+	 */
+	private void addHash(long hash) {
+		int register = (int) (hash >>> (64 - bits));
+		int zeros = Math.min(Long.numberOfLeadingZeros(hash << bits), 64 - bits) + 1;
+		if (registers[register] < zeros)
+			registers[register] = (byte) zeros;
+	}
+
+	/**
+	 * Hashes a value the same way it would be hashed as a key.
+	 *
+	 * @param key
+	 *            the key of the value
+	 * @return the 64-bit hash of the value
+	 */
+	private static long hash(String key) {
+		if (RowValidator.isLong(key, 0, key.length()))
+			return mix(Long.parseLong(key));
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * Spreads the bits of a number over the whole hash, so values that are
+	 * close together land in different registers.
+	 *
+	 * @param number
+	 *            the number to hash
+	 * @return the 64-bit hash
+	 */
+	private static long mix(long number) {
+		number ^= number >>> 33;
+		number *= 0xff51afd7ed558ccdL;
+		number ^= number >>> 33;
+		number *= 0xc4ceb9fe1a85ec53L;
+		return number ^ number >>> 33;
+	}
+
+	@Override
+	public void merge(ValueSketch other) {
+		DistinctValues myOther = (DistinctValues) other;
+		if (myOther.registers == null) {
+			for (String value : myOther.values)
+				add(value);
+			return;
+		}
+		if (registers == null)
+			startEstimating();
+		for (int i = 0; i < registers.length; i++) {
+			if (registers[i] < myOther.registers[i])
+				registers[i] = myOther.registers[i];
+		}
+	}
+
+	@Override
+	public ValueSketch empty() {
+		return new DistinctValues(size);
+	}
+
+	/**
+	 * Gets how many different values there were, exactly if there were no
+	 * more than the size of the sketch.
+	 *
+	 * @return the number of different values
+	 */
+	@Override
+	public String result() {
+		if (registers == null)
+			return Integer.toString(values.size());
+		int m = registers.length;
+		double sum = 0;
+		int empty = 0;
+		for (byte register : registers) {
+			sum += Math.scalb(1.0, -register);
+			if (register == 0)
+				empty++;
+		}
+		double alpha = 0.7213 / (1 + 1.079 / m);
+		double estimate = alpha * m * m / sum;
+		if (estimate <= 2.5 * m && empty > 0)
+			estimate = m * Math.log((double) m / empty);
+		return Long.toString(Math.round(estimate));
+	}
+
+	@Override
+	public void writeTo(DataOutputStream output) throws IOException {
+		output.writeUTF(toString());
+		output.writeInt(size);
+		output.writeBoolean(registers == null);
+		if (registers == null) {
+			output.writeInt(values.size());
+			for (String value : values)
+				output.writeUTF(value);
+		} else
+			output.write(registers);
+	}
+
+	/**
+	 * Reads the rest of a DistinctValues that was written by writeTo.
+	 *
+	 * @param input
+	 *            where the DistinctValues is read from
+	 * @return the DistinctValues
+	 * @throws IOException
+	 *             if the DistinctValues can't be read
+	 */
+	public static DistinctValues readFrom(DataInputStream input) throws IOException {
+		DistinctValues myValues = new DistinctValues(input.readInt());
+		if (input.readBoolean()) {
+			int count = input.readInt();
+			for (int i = 0; i < count; i++)
+				myValues.values.add(input.readUTF());
+		} else {
+			myValues.registers = new byte[1 << myValues.bits];
+			input.readFully(myValues.registers);
+			myValues.values = null;
+		}
+		return myValues;
+	}
+
+	/**
+	 * Names the statistic the DistinctValues was made for.
+	 *
+	 * @return DISTINCT_COUNT
+	 */
+	@Override
+	public String toString() {
+		return "DISTINCT_COUNT";
+	}
+}
@@ -0,0 +1,242 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileFollower keeps watching a tsv file that is still being written, like
+ * tail -f. Every line added to the end of the file goes through the format
+ * check of the Formatter and the select of the filter, the records that are
+ * kept are added to the filtered file right away, and their statistics are
+ * kept up to date so they can be asked for at any time with getComputer.
+ * 
+ * The folder of the file is watched with a WatchService, and the size of the
+ * file is also checked every so often in case a change isn't reported. A
+ * last line without a line break is left until it is finished. If the file
+ * gets shorter, such as when a log is rotated, it is gone through again from
+ * the start.
+ * 
+ * @author Tian Low ttl2132
+ *
+ */
+public class FileFollower implements Runnable, Closeable {
+	public static final long POLL = 500;
+	private final String myFileName;
+	private final Formatter myFormatter;
+	private final FilterExpression mySelect;
+	private final Projection myProjection;
+	private final String[] words;
+	private final AggregationEngine template;
+	private final long pollMillis;
+	private final Object lock = new Object();
+	private AggregationEngine myEngine;
+	private long offset;
+	private boolean restarting;
+	private volatile boolean running = true;
+	private WatchService watcher;
+	private Thread thread;
+
+	/**
+	 * Constructs a FileFollower for a file whose stream was already opened by
+	 * the Formatter.
+	 * 
+	 * @param fileName
+	 *            the name of the file
+	 * @param formatter
+	 *            the Formatter that opened the stream of the file
+	 * @param select
+	 *            the compiled select filter
+	 * @param projection
+	 *            the fields that are used and written
+	 * @param engine
+	 *            an empty AggregationEngine for the compute field
+	 * @param myPollMillis
+	 *            how many milliseconds to wait between checks of the file
+	 */
+	public FileFollower(String fileName, Formatter formatter, FilterExpression select, Projection projection,
+			AggregationEngine engine, long myPollMillis) {
+		myFileName = fileName;
+		myFormatter = formatter;
+		mySelect = select;
+		myProjection = projection;
+		words = projection.newWords();
+		template = engine;
+		myEngine = new AggregationEngine(engine);
+		pollMillis = myPollMillis;
+	}
+
+	/**
+	 * Starts following the file on a thread of its own.
+	 */
+	public void start() {
+		thread = new Thread(this, "follow " + myFileName);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Goes through the file as it is now, then keeps going through the lines
+	 * added to it until close is called.
+	 */
+	@Override
+	public void run() {
+		myFormatter.openWriter();
+		try {
+			Path path = new File(myFileName).getAbsoluteFile().toPath();
+			try {
+				watcher = FileSystems.getDefault().newWatchService();
+				path.getParent().register(watcher, StandardWatchEventKinds.ENTRY_MODIFY,
+						StandardWatchEventKinds.ENTRY_CREATE);
+			} catch (IOException error) {
+				watcher = null;
+			}
+			while (running) {
+				readNewLines();
+				waitForChange();
+			}
+		} catch (IOException error) {
+			System.out.println("The file could not be followed.");
+		} finally {
+			myFormatter.closeWriter();
+			myFormatter.closeStream();
+			stopWatching();
+		}
+	}
+
+	/**
+	 * Goes through the lines added to the file since it was last read.
+	 * 
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	private void readNewLines() throws IOException {
+		long size = new File(myFileName).length();
+		if (size < offset) {
+			System.out.println("The file got shorter, so it is read again from the start.");
+			myFormatter.closeWriter();
+			offset = 0;
+			restarting = true;
+		}
+		if (restarting && !(restart(size)))
+			return;
+		long end = MappedReader.completeLinesEnd(myFileName);
+		if (end <= offset)
+			return;
+		offset = Math.max(myFormatter.limitStream(offset, end), end);
+		while (myFormatter.nextWords(myProjection, words)) {
+			if (!(mySelect.matches(words)))
+				continue;
+			myFormatter.writeRecord(myFormatter.record(myProjection));
+			myFormatter.getMetrics().keep(1);
+			synchronized (lock) {
+				myEngine.addRecord(words);
+			}
+		}
+		myFormatter.flushWriter();
+	}
+
+	/**
+	 * Starts the file over after it got shorter, as long as it still has the
+	 * same first line. If the file doesn't have its first and second line yet,
+	 * it is tried again the next time the file changes.
+	 * 
+	 * @param size
+	 *            the size of the file
+	 * @return whether the file can be read from the start
+	 */
+	private boolean restart(long size) {
+		String firstLine = myFormatter.firstLine;
+		if (size == 0 || !(myFormatter.openStream())) {
+			myFormatter.firstLine = firstLine;
+			return false;
+		}
+		if (!(myFormatter.firstLine.equals(firstLine))) {
+			System.out.println("The first line of the file changed, so it is no longer followed.");
+			running = false;
+			return false;
+		}
+		restarting = false;
+		synchronized (lock) {
+			myEngine = new AggregationEngine(template);
+		}
+		myFormatter.openWriter();
+		return true;
+	}
+
+	/**
+	 * Waits until the folder of the file reports a change or the poll time
+	 * runs out, whichever comes first.
+	 */
+	private void waitForChange() {
+		try {
+			if (watcher == null) {
+				Thread.sleep(pollMillis);
+				return;
+			}
+			WatchKey key = watcher.poll(pollMillis, TimeUnit.MILLISECONDS);
+			if (key != null) {
+				key.pollEvents();
+				key.reset();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException error) {
+			running = false;
+		}
+	}
+
+	/**
+	 * Gets the statistics of every record kept so far. The statistics are
+	 * copied, so they don't change while they are being computed.
+	 * 
+	 * @return a Computer for the kept records
+	 */
+	public Computer getComputer() {
+		AggregationEngine snapshot = new AggregationEngine(template);
+		synchronized (lock) {
+			snapshot.merge(myEngine);
+		}
+		return new Computer(myFormatter.firstLine, snapshot);
+	}
+
+	/**
+	 * Gets whether the file is still being followed.
+	 * 
+	 * @return whether the FileFollower is running
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Stops following the file and waits for the filtered file to be closed.
+	 * Records that were already read stay in the filtered file.
+	 */
+	@Override
+	public void close() {
+		stopWatching();
+		try {
+			if (thread != null && thread != Thread.currentThread())
+				thread.join();
+		} catch (InterruptedException error) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stops the loop of run and wakes it up if it is waiting for a change.
+	 */
+	private void stopWatching() {
+		running = false;
+		try {
+			if (watcher != null)
+				watcher.close();
+		} catch (IOException error) {
+
+		}
+	}
+}
@@ -0,0 +1,259 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * FilterExpression is the select of a TSVFilter compiled for one file. A
+ * record is kept if it matches every Condition of at least one group, so the
+ * groups are ORed together and the Conditions in a group are ANDed together.
+ * The fields are found in the first line once, the Conditions in each group are
+ * put in order from cheapest to most expensive, and checking stops as soon as
+ * the answer is known.
+ * 
+ * @author Tian Low ttl2132
+ *
+ */
+public class FilterExpression {
+	private final Condition[][] groups;
+	private final int[][] indices;
+
+	/**
+	 * Compiles the groups of Conditions for a file.
+	 * 
+	 * @param myGroups
+	 *            the groups of Conditions, where any group has to match
+	 * @param myFirstLine
+	 *            the cleansed first line of the file
+	 */
+	public FilterExpression(List<List<Condition>> myGroups, String myFirstLine) {
+		String[] fields = myFirstLine.split("\t");
+		ArrayList<Condition[]> compiled = new ArrayList<Condition[]>();
+		for (List<Condition> group : myGroups) {
+			if (group.isEmpty())
+				continue;
+			ArrayList<Condition> sorted = new ArrayList<Condition>(group);
+			Collections.sort(sorted, new Comparator<Condition>() {
+				@Override
+				public int compare(Condition first, Condition second) {
+					return Integer.compare(first.cost(), second.cost());
+				}
+			});
+			compiled.add(sorted.toArray(new Condition[sorted.size()]));
+		}
+		groups = compiled.toArray(new Condition[compiled.size()][]);
+		indices = new int[groups.length][];
+		for (int i = 0; i < groups.length; i++) {
+			indices[i] = new int[groups[i].length];
+			for (int j = 0; j < groups[i].length; j++) {
+				indices[i][j] = -1;
+				for (int k = 0; k < fields.length; k++) {
+					if (groups[i][j].getField().equals(fields[k]))
+						indices[i][j] = k;
+				}
+				if (indices[i][j] == -1)
+					System.out.println("Accurate field not specified.");
+			}
+		}
+	}
+
+	/**
+	 * Gets whether there is nothing to select, so every record is kept.
+	 * 
+	 * @return whether there are no Conditions
+	 */
+	public boolean isEmpty() {
+		return groups.length == 0;
+	}
+
+	/**
+	 * Checks whether a record matches the select. Conditions on fields that
+	 * aren't in the first line are ignored.
+	 * 
+	 * @param words
+	 *            the fields of a cleansed record
+	 * @return whether the record should be kept
+	 */
+	public boolean matches(String[] words) {
+		if (groups.length == 0)
+			return true;
+		for (int i = 0; i < groups.length; i++) {
+			boolean matched = true;
+			for (int j = 0; j < groups[i].length && matched; j++) {
+				if (indices[i][j] != -1 && !(groups[i][j].matches(words[indices[i][j]])))
+					matched = false;
+			}
+			if (matched)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether any record could match, going by the lowest and highest
+	 * number of each column in a set of records, so the set can be skipped
+	 * when none could.
+	 * 
+	 * @param minimums
+	 *            the lowest number of each column of the first line, or the
+	 *            lowest long for columns that aren't numbers
+	 * @param maximums
+	 *            the highest number of each column of the first line, or the
+	 *            highest long for columns that aren't numbers
+	 * @return whether some record might match
+	 */
+	public boolean mayMatch(long[] minimums, long[] maximums) {
+		if (groups.length == 0)
+			return true;
+		for (int i = 0; i < groups.length; i++) {
+			boolean possible = true;
+			for (int j = 0; j < groups[i].length && possible; j++) {
+				int column = indices[i][j];
+				if (column != -1 && !(groups[i][j].mayMatch(minimums[column], maximums[column])))
+					possible = false;
+			}
+			if (possible)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Keeps the rows of a ColumnTable that match the select. Conditions on
+	 * String columns are checked once for each different String in the
+	 * column, so each row only has to look up its code. Groups with a
+	 * Condition that no number of its column can match are skipped, for the
+	 * whole table or for one block of rows at a time, and rows of a block no
+	 * group can match aren't looked at.
+	 * 
+	 * @param table
+	 *            the cleansed file
+	 * @param rows
+	 *            the rows to check, in order
+	 * @return the rows that match, in the same order
+	 */
+	public int[] filter(ColumnTable table, int[] rows) {
+		if (groups.length == 0)
+			return rows;
+		boolean[] possible = possibleGroups(table, -1, null);
+		if (possible == null)
+			return new int[0];
+		boolean[][][] accepted = new boolean[groups.length][][];
+		for (int i = 0; i < groups.length; i++) {
+			if (!(possible[i]))
+				continue;
+			accepted[i] = new boolean[groups[i].length][];
+			for (int j = 0; j < groups[i].length; j++) {
+				int column = indices[i][j];
+				if (column == -1 || table.isNumber(column))
+					continue;
+				accepted[i][j] = new boolean[table.getDictionarySize(column)];
+				for (int code = 0; code < accepted[i][j].length; code++)
+					accepted[i][j][code] = groups[i][j].matches(table.getDictionary(column, code));
+			}
+		}
+		int[] kept = new int[rows.length];
+		int count = 0;
+		int block = -1;
+		boolean[] inBlock = possible;
+		int index = 0;
+		while (index < rows.length) {
+			int row = rows[index];
+			if (row / ColumnTable.BLOCK != block) {
+				block = row / ColumnTable.BLOCK;
+				inBlock = possibleGroups(table, block, possible);
+				if (inBlock == null) {
+					index = ColumnTable.nextBlock(rows, index);
+					continue;
+				}
+			}
+			for (int i = 0; i < groups.length; i++) {
+				if (inBlock[i] && matches(table, row, i, accepted[i])) {
+					kept[count++] = row;
+					break;
+				}
+			}
+			index++;
+		}
+		return Arrays.copyOf(kept, count);
+	}
+
+	/**
+	 * Finds the groups that some row of a ColumnTable, or of one block of its
+	 * rows, could match.
+	 * 
+	 * @param table
+	 *            the cleansed file
+	 * @param block
+	 *            the index of the block, or -1 for the whole table
+	 * @param within
+	 *            the groups that are still possible, or null for all of them
+	 * @return which groups might match, or null if none might
+	 */
+	private boolean[] possibleGroups(ColumnTable table, int block, boolean[] within) {
+		boolean[] possible = new boolean[groups.length];
+		boolean anyPossible = false;
+		for (int i = 0; i < groups.length; i++) {
+			possible[i] = (within == null || within[i]) && mayMatch(table, block, i);
+			anyPossible = anyPossible || possible[i];
+		}
+		return anyPossible ? possible : null;
+	}
+
+	/**
+	 * Checks whether any row of a ColumnTable, or of one block of its rows,
+	 * could match a group, going by the lowest and highest number of each
+	 * number column.
+	 * 
+	 * @param table
+	 *            the cleansed file
+	 * @param block
+	 *            the index of the block, or -1 for the whole table
+	 * @param group
+	 *            the index of the group
+	 * @return whether some row might match the group
+	 */
+	private boolean mayMatch(ColumnTable table, int block, int group) {
+		for (int j = 0; j < groups[group].length; j++) {
+			int column = indices[group][j];
+			if (column == -1 || !(table.isNumber(column)))
+				continue;
+			long min = block == -1 ? table.getMinimum(column) : table.getBlockMinimum(column, block);
+			long max = block == -1 ? table.getMaximum(column) : table.getBlockMaximum(column, block);
+			if (!(groups[group][j].mayMatch(min, max)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether a row of a ColumnTable matches every Condition of a group.
+	 * 
+	 * @param table
+	 *            the cleansed file
+	 * @param row
+	 *            the row
+	 * @param group
+	 *            the index of the group
+	 * @param accepted
+	 *            the codes each Condition on a String column accepts
+	 * @return whether the row matches the group
+	 */
+	private boolean matches(ColumnTable table, int row, int group, boolean[][] accepted) {
+		for (int j = 0; j < groups[group].length; j++) {
+			int column = indices[group][j];
+			if (column == -1)
+				continue;
+			if (accepted[j] != null) {
+				if (!(accepted[j][table.getCode(column, row)]))
+					return false;
+			} else if (groups[group][j].isNumber()) {
+				if (!(groups[group][j].matches(table.getLong(column, row))))
+					return false;
+			} else if (!(groups[group][j].matches(table.getString(column, row))))
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * FilterResult holds what came out of running one TSVFilter as part of a
+ * batch: the name of the filtered file it wrote, how many records it kept and
+ * a Computer that can compute any statistic of the kept records.
+ * 
+ * @author Tian Low ttl2132
+ *
+ */
+public class FilterResult {
+	private final TSVFilter filter;
+	private final String outputName;
+	private final Computer computer;
+	private final long count;
+
+	/**
+	 * Constructs a FilterResult.
+	 * 
+	 * @param myFilter
+	 *            the TSVFilter that was run
+	 * @param myOutputName
+	 *            the name of the filtered file
+	 * @param myComputer
+	 *            the Computer for the kept records, or null if the file
+	 *            couldn't be read
+	 * @param myCount
+	 *            the number of records kept
+	 */
+	public FilterResult(TSVFilter myFilter, String myOutputName, Computer myComputer, long myCount) {
+		filter = myFilter;
+		outputName = myOutputName;
+		computer = myComputer;
+		count = myCount;
+	}
+
+	/**
+	 * Allows other classes to get the TSVFilter that was run.
+	 * 
+	 * @return the TSVFilter
+	 */
+	public TSVFilter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Allows other classes to get the name of the filtered file.
+	 * 
+	 * @return the name of the filtered file
+	 */
+	public String getOutputName() {
+		return outputName;
+	}
+
+	/**
+	 * Allows other classes to compute statistics of the kept records.
+	 * 
+	 * @return the Computer, or null if the file couldn't be read
+	 */
+	public Computer getComputer() {
+		return computer;
+	}
+
+	/**
+	 * Allows other classes to get how many records were kept.
+	 * 
+	 * @return the number of records kept
+	 */
+	public long getCount() {
+		return count;
+	}
+}
@@ -1,11 +1,10 @@
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Formatter helps TSVPipeline make sure the file chosen is in the right format.
@@ -21,13 +20,25 @@ public class Formatter {
 	public String entireFile = "";
 	private String secondLine = "";
 	private String fileFormat = "";
-	private FileReader fReader = null;
-	private FileReader fReader2 = null;
-	private BufferedReader bReader = null;
-	private BufferedReader bReader2 = null;
+	private RowValidator validator = null;
+	private MappedReader reader = null;
+	private StringBuilder lineBuilder = new StringBuilder();
+	private RecordWriter writer = null;
+	private RecordSorter sorter = null;
+	private Projection projection = null;
+	private String[] orderFields;
+	private boolean[] descending;
+	private int sortRecords;
+	private int sortThreads;
+	private boolean sync;
 	private File myFile;
 	private String myFileName;
+	private String outputName;
 	private int count;
+	private int replayedLines;
+	private String replayed;
+	private PipelineMetrics metrics = new PipelineMetrics();
+	public static final String FORMATERROR = "Error: header and fields do not match in file. Make sure to at least have an example value for the tsv file!";
 
 	/**
 	 * Constructs an instance of Formatter.
@@ -37,6 +48,100 @@ public class Formatter {
 	 */
 	public Formatter(String input) {
 		myFileName = input;
+		outputName = "filtered" + input;
+	}
+
+	/**
+	 * Changes the name of the file the filtered records are written to, which
+	 * is the word filtered in front of the original name by default.
+	 * 
+	 * @param myOutputName
+	 *            the name of the filtered file
+	 */
+	public void setOutputName(String myOutputName) {
+		outputName = myOutputName;
+	}
+
+	/**
+	 * Gets the name of the file the filtered records are written to.
+	 * 
+	 * @return the name of the filtered file
+	 */
+	public String getOutputName() {
+		return outputName;
+	}
+
+	/**
+	 * Gets the format of the file found from its second line.
+	 * 
+	 * @return the format in terms of a String of NumberParser kinds
+	 */
+	public String getFormat() {
+		return fileFormat;
+	}
+
+	/**
+	 * Determines whether the filtered file is forced to disk once it is
+	 * written, so it survives a crash of the machine.
+	 * 
+	 * @param mySync
+	 *            whether the filtered file is forced to disk
+	 */
+	public void setSync(boolean mySync) {
+		sync = mySync;
+	}
+
+	/**
+	 * Puts the records written to the filtered file in order by some of their
+	 * fields, using a RecordSorter that is started each time the filtered file
+	 * is opened from its start.
+	 * 
+	 * @param myFields
+	 *            the fields the records are put in order by, most important
+	 *            first
+	 * @param myDescending
+	 *            whether each field goes from highest to lowest
+	 * @param myRecords
+	 *            how many records are sorted in memory at once
+	 * @param myThreads
+	 *            how many threads sort the records
+	 */
+	public void setOrder(String[] myFields, boolean[] myDescending, int myRecords, int myThreads) {
+		orderFields = myFields;
+		descending = myDescending;
+		sortRecords = myRecords;
+		sortThreads = myThreads;
+	}
+
+	/**
+	 * Writes only some of the fields of the records to the filtered file. The
+	 * first line written and the fields the records can be put in order by
+	 * are the ones of the projection.
+	 * 
+	 * @param myProjection
+	 *            the fields to write
+	 */
+	public void setProjection(Projection myProjection) {
+		projection = myProjection;
+	}
+
+	/**
+	 * Gives the Formatter the metrics to record its reading and cleansing in.
+	 * 
+	 * @param myMetrics
+	 *            the metrics of the current run
+	 */
+	public void setMetrics(PipelineMetrics myMetrics) {
+		metrics = myMetrics;
+	}
+
+	/**
+	 * Gets the metrics the Formatter records its reading and cleansing in.
+	 * 
+	 * @return the metrics of the current run
+	 */
+	public PipelineMetrics getMetrics() {
+		return metrics;
 	}
 
 	/**
@@ -44,64 +149,486 @@ public class Formatter {
 	 * valid, the file is then cleansed of incorrectly formatted lines.
 	 */
 	public void defineFormat() {
+		long begin = System.nanoTime();
 		if (hasFirstLine() && hasFormattedSecondLine()) {
 			fileFormat = findFormat(secondLine);
+			validator = new RowValidator(fileFormat);
+			metrics.time(Stage.FORMAT, begin);
 			cleanseFile();
 		} else
-			entireFile = "Error: header and fields do not match in file. Make sure to at least have an example value for the tsv file!";
+			entireFile = FORMATERROR;
 	}
 
 	/**
-	 * Reads the file that the user wants to format. Note that there are two
-	 * sets of readers, because the first and second line are separately checked
-	 * from the rest of the file.
+	 * Reads the file that the user wants to format. The file is memory-mapped
+	 * and only read once; the first and second line are kept after they are
+	 * checked so the rest of the file doesn't have to be read again.
 	 * 
 	 * @return the entire file as one String
 	 */
 	public String readFile() {
 		myFile = new File(System.getProperty("user.dir"));
 		try {
-			fReader = new FileReader(myFileName);
-			bReader = new BufferedReader(fReader);
-			fReader2 = new FileReader(myFileName);
-			bReader2 = new BufferedReader(fReader2);
+			reader = new MappedReader(myFileName);
 			defineFormat();
-		} catch (FileNotFoundException e) {
+		} catch (IOException e) {
 			entireFile = "File Not Found!";
 			System.out.println(entireFile);
 		}
 		return entireFile;
 	}
 
+	/**
+	 * Reads the file into a ColumnTable instead of one String. The file is
+	 * cleansed the same way readFile cleanses it, but the records are parsed
+	 * straight from the mapped bytes into the columns of the table.
+	 * 
+	 * @return the cleansed file as a ColumnTable, or null if the file is
+	 *         missing or its first and second lines are not valid
+	 */
+	public ColumnTable readTable() {
+		myFile = new File(System.getProperty("user.dir"));
+		try {
+			reader = new MappedReader(myFileName);
+		} catch (IOException e) {
+			entireFile = "File Not Found!";
+			System.out.println(entireFile);
+			return null;
+		}
+		long begin = System.nanoTime();
+		if (!(hasFirstLine() && hasFormattedSecondLine())) {
+			entireFile = FORMATERROR;
+			closeStream();
+			return null;
+		}
+		fileFormat = findFormat(secondLine);
+		validator = new RowValidator(fileFormat);
+		metrics.time(Stage.FORMAT, begin);
+		ColumnTable table = new ColumnTable(firstLine, fileFormat);
+		if (hasFormat(firstLine))
+			table.addRecord(removeExtraTabs(firstLine));
+		if (accept(secondLine))
+			table.addRecord(removeExtraTabs(secondLine));
+		try {
+			while (nextLine()) {
+				if (accept(reader))
+					table.addRecord(reader);
+				metrics.lap(Stage.CLEANSE);
+			}
+		} catch (IOException error) {
+
+		}
+		closeStream();
+		return table;
+	}
+
+	/**
+	 * Writes the first line and some of the records of a ColumnTable to the
+	 * filtered file, one record at a time.
+	 * 
+	 * @param table
+	 *            the cleansed file
+	 * @param rows
+	 *            the rows of the records to write, in order
+	 */
+	public void writeTable(ColumnTable table, int[] rows) {
+		openWriter(false, table.getFormat());
+		int[] columns = projection == null ? table.allColumns() : projection.getColumns();
+		try {
+			if (sorter != null) {
+				StringBuilder rowBuilder = new StringBuilder();
+				for (int row : rows) {
+					rowBuilder.setLength(0);
+					sorter.add(table.appendRow(row, rowBuilder, columns).toString());
+				}
+			} else if (writer != null) {
+				for (int row : rows)
+					table.writeRow(row, writer, columns).endRecord();
+			}
+		} catch (IOException error) {
+			System.out.println("The sorted records could not be written to disk.");
+		}
+		closeWriter();
+	}
+
 	/**
 	 * Writes the contents of the first line and the entire rest of the file to
-	 * a new file. The new file has the word filtered at the front of the
-	 * original name.
+	 * a new file. Unless another name was given, the new file has the word
+	 * filtered at the front of the original name.
 	 * 
 	 * @param filteredFile
 	 *            the cleansed and filtered file, or an error message
 	 */
 	public void writeFile(String filteredFile) {
-		BufferedWriter bWriter = null;
-		FileWriter fWriter = null;
+		try (RecordWriter myWriter = new RecordWriter(outputName, false, sync)) {
+			if (!(header().isEmpty()))
+				myWriter.write(header()).endRecord();
+			myWriter.write(filteredFile);
+		} catch (IOException error) {
+		}
+		metrics.wrote(new File(outputName).length());
+	}
+
+	/**
+	 * Adds the contents of other files to the end of the filtered file, in
+	 * order. The bytes are copied over by the FileChannels without being read
+	 * into memory.
+	 * 
+	 * @param parts
+	 *            the files with filtered records
+	 */
+	public void appendFiles(List<File> parts) {
+		if (orderFields != null) {
+			sortFiles(parts);
+			return;
+		}
+		try (FileChannel output = new FileOutputStream(outputName, true).getChannel()) {
+			for (File part : parts) {
+				try (FileChannel input = new FileInputStream(part).getChannel()) {
+					long copied = 0;
+					while (copied < input.size())
+						copied += input.transferTo(copied, input.size() - copied, output);
+					metrics.wrote(copied);
+				}
+			}
+			if (sync)
+				output.force(true);
+		} catch (IOException error) {
+			error.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes the first line and the records of other files to the filtered
+	 * file, putting the records in order on the way.
+	 * 
+	 * @param parts
+	 *            the files with filtered records
+	 */
+	private void sortFiles(List<File> parts) {
+		openWriter();
+		StringBuilder partBuilder = new StringBuilder();
+		try {
+			for (File part : parts) {
+				try (MappedReader partReader = new MappedReader(part.getPath())) {
+					while (partReader.nextLine())
+						sorter.add(partReader.joinFields(partBuilder));
+				}
+			}
+		} catch (IOException error) {
+			System.out.println("The sorted records could not be written to disk.");
+		}
+		closeWriter();
+	}
+
+	/**
+	 * Opens the file to be streamed. Unlike readFile, the records are handed
+	 * out one at a time by nextRecord, so only the line being read is kept in
+	 * memory.
+	 * 
+	 * @return whether the file exists and its first and second lines are valid
+	 */
+	public boolean openStream() {
+		try {
+			reader = new MappedReader(myFileName);
+		} catch (IOException e) {
+			entireFile = "File Not Found!";
+			System.out.println(entireFile);
+			return false;
+		}
+		long begin = System.nanoTime();
+		if (hasFirstLine() && hasFormattedSecondLine()) {
+			fileFormat = findFormat(secondLine);
+			validator = new RowValidator(fileFormat);
+			replayedLines = 0;
+			metrics.time(Stage.FORMAT, begin);
+			return true;
+		}
+		entireFile = FORMATERROR;
+		closeStream();
+		return false;
+	}
+
+	/**
+	 * Limits a stream opened by openStream to the lines between two bytes of
+	 * the file. If the stream starts after the first and second line, they
+	 * aren't handed out again by nextRecord.
+	 * 
+	 * @param start
+	 *            the byte to start at, or 0 to start right after the second
+	 *            line
+	 * @param end
+	 *            the byte to stop at
+	 * @return the byte the stream starts at
+	 * @throws IOException
+	 *             if the file can't be opened again
+	 */
+	public long limitStream(long start, long end) throws IOException {
+		long from = Math.max(start, reader.position());
+		closeStream();
+		reader = new MappedReader(myFileName, from, end);
+		if (start > 0)
+			replayedLines = 2;
+		return from;
+	}
+
+	/**
+	 * Reads the next record of a streamed file that follows the format of the
+	 * first and second line. The first and second line are handed out again
+	 * first, the same way cleanseFile reads them, and the file is closed once
+	 * the end is reached.
+	 * 
+	 * @return the next cleansed record, or null at the end of the file
+	 */
+	public String nextRecord() {
+		if (!(nextWords(null, null)))
+			return null;
+		return replayed != null ? replayed : currentLine();
+	}
+
+	/**
+	 * Goes on to the next record of a streamed file the same way nextRecord
+	 * does, but only turns the fields a Projection uses into Strings. The
+	 * record itself is only put together by record, once it is kept.
+	 * 
+	 * @param myProjection
+	 *            the fields that are used and written, or null to not read
+	 *            any field
+	 * @param words
+	 *            where the used fields are put
+	 * @return whether there was a next record, or false at the end of the
+	 *         file
+	 */
+	public boolean nextWords(Projection myProjection, String[] words) {
 		try {
-			fWriter = new FileWriter("filtered" + myFileName, false);
-			bWriter = new BufferedWriter(fWriter);
-			if (!(firstLine.isEmpty()))
-				bWriter.write(firstLine + "\r\n" + filteredFile);
+			while (replayedLines < 2) {
+				replayedLines++;
+				replayed = replayedLines == 1 ? firstLine : secondLine;
+				if (replayedLines == 1 ? hasFormat(firstLine) : accept(secondLine)) {
+					if (myProjection != null)
+						myProjection.read(replayed, words);
+					return true;
+				}
+			}
+			replayed = null;
+			while (nextLine()) {
+				if (accept(reader)) {
+					if (myProjection != null)
+						myProjection.read(reader, words);
+					metrics.lap(Stage.CLEANSE);
+					return true;
+				}
+				metrics.lap(Stage.CLEANSE);
+			}
+		} catch (IOException error) {
+
+		}
+		closeStream();
+		return false;
+	}
+
+	/**
+	 * Puts together the written fields of the record nextWords went on to.
+	 * 
+	 * @param myProjection
+	 *            the fields that are written
+	 * @return the cleansed record with only the written fields
+	 */
+	public String record(Projection myProjection) {
+		return replayed != null ? myProjection.write(replayed, lineBuilder) : myProjection.write(reader,
+				lineBuilder);
+	}
+
+	/**
+	 * Moves the reader on to the next line, counting it in the metrics.
+	 * 
+	 * @return whether there was another line
+	 * @throws IOException
+	 *             if the file can't be mapped
+	 */
+	private boolean nextLine() throws IOException {
+		metrics.begin();
+		if (!(reader.nextLine()))
+			return false;
+		metrics.read(reader.position() - reader.lineOffset());
+		metrics.lap(Stage.READ);
+		return true;
+	}
+
+	/**
+	 * Checks whether a line that was read follows the format, counting it in
+	 * the metrics as read and, if it doesn't, as left out.
+	 * 
+	 * @param currentLine
+	 *            any line from the file
+	 * @return whether or not the line's format is correct
+	 */
+	private boolean accept(String currentLine) {
+		metrics.read(currentLine.length() + 2);
+		if (hasFormat(currentLine))
+			return true;
+		metrics.reject(validator.reason(currentLine));
+		return false;
+	}
+
+	/**
+	 * Checks whether the line the reader is on follows the format, counting
+	 * it in the metrics as left out if it doesn't.
+	 * 
+	 * @param myReader
+	 *            the MappedReader on the line to check
+	 * @return whether or not the line's format is correct
+	 */
+	private boolean accept(MappedReader myReader) {
+		if (hasFormat(myReader))
+			return true;
+		metrics.reject(rejection(myReader));
+		return false;
+	}
+
+	/**
+	 * Finds why the line a MappedReader is on doesn't follow the format.
+	 * 
+	 * @param myReader
+	 *            the MappedReader on the line
+	 * @return the reason the line is left out, or null if it follows the
+	 *         format
+	 */
+	public Rejection rejection(MappedReader myReader) {
+		if (validator == null)
+			validator = new RowValidator(fileFormat);
+		return validator.reason(myReader);
+	}
+
+	/**
+	 * Puts the fields of the line the reader is on back together, without
+	 * their extra tabs and whitespace, the same way toString does.
+	 * 
+	 * @return the current line without extra space
+	 */
+	private String currentLine() {
+		return reader.joinFields(lineBuilder);
+	}
+
+	/**
+	 * Closes the reader of the file.
+	 */
+	public void closeStream() {
+		try {
+			if (reader != null)
+				reader.close();
+		} catch (IOException error) {
+
+		}
+	}
+
+	/**
+	 * Opens the filtered file so records can be written as they are streamed.
+	 * The first line is written right away.
+	 */
+	public void openWriter() {
+		openWriter(false);
+	}
+
+	/**
+	 * Opens the filtered file so records can be written as they are streamed.
+	 * Unless the records are added to the end of the file, the first line is
+	 * written right away.
+	 * 
+	 * @param append
+	 *            whether the records are added to the end of the file
+	 */
+	public void openWriter(boolean append) {
+		openWriter(append, fileFormat);
+	}
+
+	/**
+	 * Opens the filtered file for records of a file whose format was found by
+	 * another Formatter, and starts a RecordSorter if the records are put in
+	 * order and the file is written from its start.
+	 * 
+	 * @param append
+	 *            whether the records are added to the end of the file
+	 * @param format
+	 *            the format of the records
+	 */
+	public void openWriter(boolean append, String format) {
+		try {
+			writer = new RecordWriter(outputName, append, sync);
+			if (!append && !(header().isEmpty()))
+				writer.write(header()).endRecord();
+			if (!append && orderFields != null)
+				sorter = new RecordSorter(header(), projection == null ? format : projection.getFormat(format),
+						orderFields, descending, sortRecords, sortThreads);
+		} catch (IOException error) {
+		}
+	}
+
+	/**
+	 * Gets the first line of the filtered file, which only has the projected
+	 * fields if there is a projection.
+	 * 
+	 * @return the first line to write
+	 */
+	private String header() {
+		return projection == null || firstLine == null ? firstLine : projection.getFirstLine();
+	}
+
+	/**
+	 * Writes one record to the filtered file opened by openWriter, or hands
+	 * it to the RecordSorter if the records are put in order.
+	 * 
+	 * @param record
+	 *            a cleansed and filtered record, with only the projected
+	 *            fields if there is a projection
+	 */
+	public void writeRecord(CharSequence record) {
+		try {
+			if (sorter != null)
+				sorter.add(record.toString());
 			else
-				bWriter.write(filteredFile);
+				writer.write(record).endRecord();
+		} catch (IOException error) {
+			if (sorter != null)
+				System.out.println("The sorted records could not be written to disk.");
+		}
+	}
+
+	/**
+	 * Pushes the records written so far out to the filtered file, so they can
+	 * be read while more are still coming.
+	 */
+	public void flushWriter() {
+		try {
+			if (writer != null)
+				writer.flush();
+		} catch (IOException error) {
+			error.printStackTrace();
+		}
+	}
+
+	/**
+	 * Closes the filtered file opened by openWriter, writing the records in
+	 * order first if they are put in order.
+	 */
+	public void closeWriter() {
+		if (writer == null)
+			return;
+		try {
+			if (sorter != null)
+				sorter.writeTo(writer);
 		} catch (IOException error) {
+			System.out.println("The sorted records could not be read back from disk.");
 		} finally {
-			try {
-				if (bWriter != null)
-					bWriter.close();
-				if (fWriter != null)
-					fWriter.close();
-			} catch (IOException error) {
-				error.printStackTrace();
-			}
+			sorter = null;
+		}
+		try {
+			writer.close();
+		} catch (IOException error) {
+			error.printStackTrace();
 		}
+		metrics.wrote(writer.getBytesWritten());
+		writer = null;
 	}
 
 	/**
@@ -111,12 +638,14 @@ public class Formatter {
 	 */
 	public boolean hasFirstLine() {
 		try {
-			firstLine = bReader.readLine();
-			if (firstLine == null || firstLine.isEmpty())
+			if (!(reader.nextLine())) {
+				firstLine = null;
+				return false;
+			}
+			if (reader.lineLength() == 0)
 				return false;
-			String[] temp = removeExtraTabs(firstLine);
-			count = temp.length;
-			firstLine = toString(temp);
+			count = reader.fieldCount();
+			firstLine = currentLine();
 			return true;
 		} catch (IOException error) {
 			return false;
@@ -131,12 +660,10 @@ public class Formatter {
 	 */
 	public boolean hasFormattedSecondLine() {
 		try {
-			secondLine = bReader.readLine();
-			String[] fields = removeExtraTabs(secondLine);
-			secondLine = toString(fields);
-			if (count != fields.length)
+			if (!(reader.nextLine()))
 				return false;
-			if (secondLine == null)
+			secondLine = currentLine();
+			if (count != reader.fieldCount())
 				return false;
 			else
 				return true;
@@ -151,25 +678,11 @@ public class Formatter {
 	 * file.
 	 */
 	public void cleanseFile() {
+		StringBuilder cleansedFile = new StringBuilder(entireFile);
 		String currentLine;
-		try {
-			while ((currentLine = bReader2.readLine()) != null) {
-				currentLine = toString(removeExtraTabs(currentLine));
-				if (hasFormat(currentLine))
-					entireFile += currentLine + "\r\n";
-			}
-		} catch (IOException error) {
-
-		} finally {
-			try {
-				if (bReader2 != null)
-					bReader2.close();
-				if (fReader2 != null)
-					fReader2.close();
-			} catch (IOException error) {
-
-			}
-		}
+		while ((currentLine = nextRecord()) != null)
+			cleansedFile.append(currentLine).append("\r\n");
+		entireFile = cleansedFile.toString();
 	}
 
 	/**
@@ -203,11 +716,11 @@ public class Formatter {
 	 * @return the line as one String
 	 */
 	public String toString(String[] stringArray) {
-		String temp = "";
+		StringBuilder temp = new StringBuilder();
 		for (String each : stringArray) {
-			temp += each + "\t";
+			temp.append(each).append('\t');
 		}
-		return temp;
+		return temp.toString();
 	}
 
 	/**
@@ -217,37 +730,44 @@ public class Formatter {
 	 * 
 	 * @param line
 	 *            any line from the file
-	 * @return the format in terms of a String of 0's and 1's. 1 means the value
-	 *         is a String. 0 means it is not a String.
+	 * @return the format in terms of a String of NumberParser kinds. 1 means
+	 *         the value is a String. 0 means it is a long, 2 that it is a
+	 *         decimal such as 12.50 and 3 that it is a double such as 1.5e-3.
 	 */
 	public String findFormat(String line) {
 		String[] fields = removeExtraTabs(line);
-		String format = "";
-		for (String each : fields) {
-			try {
-				Long.parseLong(each);
-				format += 0;
-			} catch (NumberFormatException error) {
-				format += 1;
-			}
-		}
-		return format;
+		StringBuilder format = new StringBuilder();
+		for (String each : fields)
+			format.append(NumberParser.kind(each, 0, each.length()));
+		return format.toString();
 	}
 
 	/**
-	 * Determines the format of each line based off of the values of the first
-	 * and second line, then checks the current line's format against the second
-	 * line's format.
+	 * Checks the current line's format against the second line's format. The
+	 * line is checked field by field by a RowValidator, so nothing is split or
+	 * made for lines with the correct format.
 	 * 
 	 * @param currentLine the line the iterator is currently on
 	 * @return whether or not the current line's format is correct
 	 */
 	public boolean hasFormat(String currentLine) {
-		String currentLineFormat = findFormat(currentLine);
-		if (fileFormat.equals(currentLineFormat))
-			return true;
-		else
-			return false;
+		if (validator == null)
+			validator = new RowValidator(fileFormat);
+		return validator.matches(currentLine);
+	}
+
+	/**
+	 * Checks the format of the line a MappedReader is on against the second
+	 * line's format, looking at the mapped bytes of each field.
+	 * 
+	 * @param myReader
+	 *            the MappedReader on the line to check
+	 * @return whether or not the line's format is correct
+	 */
+	public boolean hasFormat(MappedReader myReader) {
+		if (validator == null)
+			validator = new RowValidator(fileFormat);
+		return validator.matches(myReader);
 	}
 
 }
@@ -0,0 +1,260 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * FrequentValues finds the most frequent values of a field for MOST_FREQUENT
+ * with the space-saving algorithm. A counter is kept for at most size
+ * different values; once they are all taken, a new value takes over the
+ * counter with the lowest count and carries that count on as a possible
+ * overcount. While a field has no more different values than there are
+ * counters, the counts are exact. Otherwise every value that appears more
+ * often than the lowest count is still found, and its count is at most that
+ * much too high.
+ *
+ * @author Tian Low ttl2132
+ *
+ */
+public class FrequentValues extends ValueSketch {
+	// Puts the counters with the highest counts first, and equal counts in
+	// alphabetical order.
+	private static final Comparator<Counter> HIGHEST = new Comparator<Counter>() {
+		@Override
+		public int compare(Counter first, Counter second) {
+			int order = Long.compare(second.count, first.count);
+			return order != 0 ? order : first.value.compareTo(second.value);
+		}
+	};
+	private final int k;
+	private final int size;
+	private HashMap<String, Counter> counters = new HashMap<String, Counter>();
+	private ArrayList<Counter> lowest = new ArrayList<Counter>();
+	private long lowestCount;
+
+	/**
+	 * Constructs an empty FrequentValues.
+	 *
+	 * @param myK
+	 *            how many of the most frequent values are given
+	 * @param mySize
+	 *            how many counters are kept
+	 */
+	public FrequentValues(int myK, int mySize) {
+		k = Math.max(1, myK);
+		size = Math.max(k, mySize);
+	}
+
+	@Override
+	public void add(String value) {
+		add(value, 1);
+	}
+
+	@Override
+	public void add(long number) {
+		count(Long.toString(number), 1);
+	}
+
+	@Override
+	public void add(String value, long times) {
+		count(key(value), times);
+	}
+
+	/**
+	 * Counts a value, taking over the counter with the lowest count if the
+	 * value doesn't have one and every counter is taken.
+	 *
+	 * @param myKey
+	 *            the key of the value
+	 * @param times
+	 *            how many times the value was seen
+	 */
+	private void count(String myKey, long times) {
+		Counter counter = counters.get(myKey);
+		if (counter != null) {
+			counter.count += times;
+			return;
+		}
+		if (counters.size() < size) {
+			counters.put(myKey, new Counter(myKey, times, 0));
+			return;
+		}
+		counter = lowest();
+		counters.remove(counter.value);
+		counter.value = myKey;
+		counter.error = counter.count;
+		counter.count += times;
+		counters.put(myKey, counter);
+	}
+
+	/**
+	 * Finds a counter with the lowest count. The counters with the lowest
+	 * count are collected in one pass and handed out until they run out, and
+	 * counters that were counted again in the meantime are skipped, since
+	 * counts only go up.
+	 *
+	 * @return a counter with the lowest count
+	 */
+	private Counter lowest() {
+		while (!(lowest.isEmpty())) {
+			Counter counter = lowest.remove(lowest.size() - 1);
+			if (counter.count == lowestCount)
+				return counter;
+		}
+		lowestCount = Long.MAX_VALUE;
+		for (Counter counter : counters.values()) {
+			if (counter.count < lowestCount) {
+				lowestCount = counter.count;
+				lowest.clear();
+			}
+			if (counter.count == lowestCount)
+				lowest.add(counter);
+		}
+		return lowest.remove(lowest.size() - 1);
+	}
+
+	/**
+	 * Gets the count a value that has no counter could at most have.
+	 *
+	 * @return the lowest count if every counter is taken, or else 0
+	 */
+	private long missingCount() {
+		if (counters.size() < size)
+			return 0;
+		long count = Long.MAX_VALUE;
+		for (Counter counter : counters.values())
+			count = Math.min(count, counter.count);
+		return count;
+	}
+
+	/**
+	 * Adds the counters of another FrequentValues. A value that only one of
+	 * them has a counter for is counted as if the other one had seen it as
+	 * often as its lowest count, and the counters with the highest counts are
+	 * kept.
+	 *
+	 * @param other
+	 *            the FrequentValues to add
+	 */
+	@Override
+	public void merge(ValueSketch other) {
+		FrequentValues myOther = (FrequentValues) other;
+		long missing = missingCount();
+		long otherMissing = myOther.missingCount();
+		HashMap<String, Counter> merged = new HashMap<String, Counter>();
+		for (Counter counter : counters.values()) {
+			Counter found = myOther.counters.get(counter.value);
+			if (found == null)
+				merged.put(counter.value,
+						new Counter(counter.value, counter.count + otherMissing, counter.error + otherMissing));
+			else
+				merged.put(counter.value,
+						new Counter(counter.value, counter.count + found.count, counter.error + found.error));
+		}
+		for (Counter counter : myOther.counters.values()) {
+			if (!(merged.containsKey(counter.value)))
+				merged.put(counter.value,
+						new Counter(counter.value, counter.count + missing, counter.error + missing));
+		}
+		ArrayList<Counter> sorted = new ArrayList<Counter>(merged.values());
+		if (sorted.size() > size) {
+			Collections.sort(sorted, HIGHEST);
+			sorted = new ArrayList<Counter>(sorted.subList(0, size));
+		}
+		counters = new HashMap<String, Counter>();
+		for (Counter counter : sorted)
+			counters.put(counter.value, counter);
+		lowest.clear();
+	}
+
+	@Override
+	public ValueSketch empty() {
+		return new FrequentValues(k, size);
+	}
+
+	/**
+	 * Gets the most frequent values with their counts, from the most frequent
+	 * down.
+	 *
+	 * @return the values and their counts
+	 */
+	@Override
+	public String result() {
+		ArrayList<Counter> sorted = new ArrayList<Counter>(counters.values());
+		Collections.sort(sorted, HIGHEST);
+		StringBuilder myResult = new StringBuilder("[");
+		for (int i = 0; i < Math.min(k, sorted.size()); i++)
+			myResult.append(i == 0 ? "" : ", ").append(sorted.get(i).value).append(": ").append(sorted.get(i).count);
+		return myResult.append(']').toString();
+	}
+
+	@Override
+	public void writeTo(DataOutputStream output) throws IOException {
+		output.writeUTF(toString());
+		output.writeInt(k);
+		output.writeInt(size);
+		output.writeInt(counters.size());
+		for (Counter counter : counters.values()) {
+			output.writeUTF(counter.value);
+			output.writeLong(counter.count);
+			output.writeLong(counter.error);
+		}
+	}
+
+	/**
+	 * Reads the rest of a FrequentValues that was written by writeTo.
+	 *
+	 * @param input
+	 *            where the FrequentValues is read from
+	 * @return the FrequentValues
+	 * @throws IOException
+	 *             if the FrequentValues can't be read
+	 */
+	public static FrequentValues readFrom(DataInputStream input) throws IOException {
+		FrequentValues myValues = new FrequentValues(input.readInt(), input.readInt());
+		int count = input.readInt();
+		for (int i = 0; i < count; i++) {
+			String value = input.readUTF();
+			myValues.counters.put(value, new Counter(value, input.readLong(), input.readLong()));
+		}
+		return myValues;
+	}
+
+	/**
+	 * Names the statistic the FrequentValues was made for.
+	 *
+	 * @return MOST_FREQUENT
+	 */
+	@Override
+	public String toString() {
+		return "MOST_FREQUENT";
+	}
+
+	/**
+	 * The count of one value.
+	 */
+	private static class Counter {
+		private String value;
+		private long count;
+		private long error;
+
+		/**
+		 * Constructs a Counter.
+		 *
+		 * @param myValue
+		 *            the value being counted
+		 * @param myCount
+		 *            how many times it was seen
+		 * @param myError
+		 *            how much the count may be too high
+		 */
+		private Counter(String myValue, long myCount, long myError) {
+			value = myValue;
+			count = myCount;
+			error = myError;
+		}
+	}
+}
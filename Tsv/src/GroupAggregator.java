@@ -0,0 +1,334 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * GroupAggregator computes statistics separately for every group of records
+ * that share the same values in the group fields. Groups are found in a hash
+ * table keyed on the values of the group fields turned into longs: numbers are
+ * used as they are and Strings are replaced by a code from a dictionary of the
+ * field. If there are more groups than the memory budget allows, the groups
+ * are written out to partition files on disk and merged back together one
+ * partition at a time after the last record, so the number of groups in
+ * memory stays bounded.
+ * 
+ * Once every record is added, the groups are gone through with nextGroup,
+ * getLabel and getEngine. Groups come out in the order they were first seen,
+ * unless they had to be written to disk, in which case they come out one
+ * partition at a time.
+ * 
+ * @author Tian Low ttl2132
+ *
+ */
+public class GroupAggregator {
+	public static final int DEFAULTGROUPS = 100000;
+	private static final int PARTITIONS = 16;
+	private final String[] keyFields;
+	private final int[] keyIndices;
+	private final boolean[] numberKeys;
+	private final AggregationEngine template;
+	private final int maxGroups;
+	private final ArrayList<HashMap<String, Integer>> dictionaries = new ArrayList<HashMap<String, Integer>>();
+	private final GroupKey probe;
+	private LinkedHashMap<GroupKey, Group> groups = new LinkedHashMap<GroupKey, Group>();
+	private File[] spills;
+	private DataOutputStream[] spillOutputs;
+	private int[] spillCounts;
+	private boolean finished;
+	private int partition;
+	private Iterator<Group> current;
+	private Group group;
+
+	/**
+	 * Constructs a GroupAggregator. Group fields that aren't in the first line
+	 * are reported and left out of the groups.
+	 * 
+	 * @param myFirstLine
+	 *            the cleansed first line of the file
+	 * @param myFormat
+	 *            the format of the file, where 1 means the field is a String
+	 * @param myKeyFields
+	 *            the fields the records are grouped by
+	 * @param myTemplate
+	 *            an AggregationEngine for the fields computed in each group
+	 * @param myMaxGroups
+	 *            how many groups can be kept in memory at once
+	 */
+	public GroupAggregator(String myFirstLine, String myFormat, String[] myKeyFields,
+			AggregationEngine myTemplate, int myMaxGroups) {
+		String[] fields = myFirstLine.split("\t");
+		keyFields = myKeyFields;
+		keyIndices = new int[myKeyFields.length];
+		numberKeys = new boolean[myKeyFields.length];
+		for (int i = 0; i < myKeyFields.length; i++) {
+			keyIndices[i] = -1;
+			for (int j = 0; j < fields.length; j++) {
+				if (myKeyFields[i].equals(fields[j]))
+					keyIndices[i] = j;
+			}
+			if (keyIndices[i] == -1)
+				System.out.println("Accurate field not specified.");
+			else
+				numberKeys[i] = keyIndices[i] < myFormat.length() && myFormat.charAt(keyIndices[i]) == '0';
+			dictionaries.add(new HashMap<String, Integer>());
+		}
+		template = myTemplate;
+		maxGroups = Math.max(1, myMaxGroups);
+		probe = new GroupKey(new long[myKeyFields.length]);
+	}
+
+	/**
+	 * Adds a record to the statistics of its group, starting a new group if
+	 * it is the first record with its values.
+	 * 
+	 * @param words
+	 *            the fields of a cleansed record
+	 * @throws IOException
+	 *             if the groups have to be written to disk and can't be
+	 */
+	public void addRecord(String[] words) throws IOException {
+		for (int i = 0; i < keyIndices.length; i++) {
+			if (keyIndices[i] == -1)
+				probe.values[i] = 0;
+			else if (numberKeys[i] && RowValidator.isLong(words[keyIndices[i]], 0, words[keyIndices[i]].length()))
+				probe.values[i] = Long.parseLong(words[keyIndices[i]]);
+			else
+				probe.values[i] = code(i, words[keyIndices[i]]);
+		}
+		probe.hash = Arrays.hashCode(probe.values);
+		Group myGroup = groups.get(probe);
+		if (myGroup == null) {
+			if (groups.size() >= maxGroups) {
+				spill();
+				for (int i = 0; i < keyIndices.length; i++) {
+					if (keyIndices[i] != -1 && !(numberKeys[i]))
+						probe.values[i] = code(i, words[keyIndices[i]]);
+				}
+				probe.hash = Arrays.hashCode(probe.values);
+			}
+			myGroup = new Group(words);
+			groups.put(new GroupKey(probe.values.clone()), myGroup);
+		}
+		myGroup.engine.addRecord(words);
+	}
+
+	/**
+	 * Finds the code of a String in the dictionary of a group field, adding
+	 * it if it is new.
+	 * 
+	 * @param key
+	 *            the index of the group field
+	 * @param value
+	 *            the String
+	 * @return the code of the String
+	 */
+	private long code(int key, String value) {
+		HashMap<String, Integer> dictionary = dictionaries.get(key);
+		Integer code = dictionary.get(value);
+		if (code == null) {
+			code = dictionary.size();
+			dictionary.put(value, code);
+		}
+		return code;
+	}
+
+	/**
+	 * Writes every group in memory to the partition files and forgets them,
+	 * along with the dictionaries of the group fields.
+	 * 
+	 * @throws IOException
+	 *             if the partition files can't be written
+	 */
+	private void spill() throws IOException {
+		if (spills == null) {
+			spills = new File[PARTITIONS];
+			spillOutputs = new DataOutputStream[PARTITIONS];
+			spillCounts = new int[PARTITIONS];
+			for (int i = 0; i < PARTITIONS; i++) {
+				spills[i] = File.createTempFile("group", ".part");
+				spillOutputs[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spills[i])));
+			}
+		}
+		for (Group myGroup : groups.values()) {
+			int myPartition = (myGroup.identity.hashCode() & 0x7fffffff) % PARTITIONS;
+			spillOutputs[myPartition].writeUTF(myGroup.identity);
+			spillOutputs[myPartition].writeUTF(myGroup.label);
+			myGroup.engine.writeTo(spillOutputs[myPartition]);
+			spillCounts[myPartition]++;
+		}
+		groups.clear();
+		for (HashMap<String, Integer> dictionary : dictionaries)
+			dictionary.clear();
+	}
+
+	/**
+	 * Moves on to the next group once every record has been added.
+	 * 
+	 * @return whether there was another group
+	 * @throws IOException
+	 *             if the partition files can't be read
+	 */
+	public boolean nextGroup() throws IOException {
+		if (!finished) {
+			finished = true;
+			if (spills != null) {
+				spill();
+				for (DataOutputStream output : spillOutputs)
+					output.close();
+			} else
+				current = groups.values().iterator();
+		}
+		while (true) {
+			if (current != null && current.hasNext()) {
+				group = current.next();
+				return true;
+			}
+			if (spills == null || partition == PARTITIONS) {
+				if (spills != null) {
+					for (File spill : spills)
+						spill.delete();
+					spills = null;
+				}
+				return false;
+			}
+			current = readPartition(partition++).values().iterator();
+		}
+	}
+
+	/**
+	 * Reads the groups written to a partition file, merging the parts of each
+	 * group that were written at different times.
+	 * 
+	 * @param myPartition
+	 *            the index of the partition
+	 * @return the groups of the partition
+	 * @throws IOException
+	 *             if the partition file can't be read
+	 */
+	private LinkedHashMap<String, Group> readPartition(int myPartition) throws IOException {
+		LinkedHashMap<String, Group> merged = new LinkedHashMap<String, Group>();
+		try (DataInputStream input = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(spills[myPartition])))) {
+			for (int i = 0; i < spillCounts[myPartition]; i++) {
+				Group myGroup = new Group(input.readUTF(), input.readUTF());
+				myGroup.engine.readFrom(input);
+				Group existing = merged.get(myGroup.identity);
+				if (existing == null)
+					merged.put(myGroup.identity, myGroup);
+				else
+					existing.engine.merge(myGroup.engine);
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Gets the values of the group fields of the current group, such as
+	 * City=NYC, Age=30.
+	 * 
+	 * @return the label of the current group
+	 */
+	public String getLabel() {
+		return group.label;
+	}
+
+	/**
+	 * Gets the statistics of the current group.
+	 * 
+	 * @return the AggregationEngine of the current group
+	 */
+	public AggregationEngine getEngine() {
+		return group.engine;
+	}
+
+	/**
+	 * The statistics of one group, along with the values that identify it.
+	 */
+	private class Group {
+		private final String identity;
+		private final String label;
+		private final AggregationEngine engine;
+
+		/**
+		 * Constructs a Group for the values of the group fields in a record.
+		 * Numbers are identified the way Long.toString writes them, so 007 and
+		 * 7 are in the same group.
+		 * 
+		 * @param words
+		 *            the fields of the first record of the group
+		 */
+		private Group(String[] words) {
+			StringBuilder myIdentity = new StringBuilder();
+			StringBuilder myLabel = new StringBuilder();
+			for (int i = 0; i < keyIndices.length; i++) {
+				String value = keyIndices[i] == -1 ? "" : words[keyIndices[i]];
+				if (i > 0) {
+					myIdentity.append('\t');
+					myLabel.append(", ");
+				}
+				if (numberKeys[i] && RowValidator.isLong(value, 0, value.length()))
+					myIdentity.append(Long.parseLong(value));
+				else
+					myIdentity.append(value);
+				myLabel.append(keyFields[i]).append('=').append(value);
+			}
+			identity = myIdentity.toString();
+			label = myLabel.toString();
+			engine = new AggregationEngine(template);
+		}
+
+		/**
+		 * Constructs an empty Group that was read back from a partition file.
+		 * 
+		 * @param myIdentity
+		 *            the values that identify the group
+		 * @param myLabel
+		 *            the label of the group
+		 */
+		private Group(String myIdentity, String myLabel) {
+			identity = myIdentity;
+			label = myLabel;
+			engine = new AggregationEngine(template);
+		}
+	}
+
+	/**
+	 * The values of the group fields of a record as longs, used as the key of
+	 * the hash table.
+	 */
+	private static class GroupKey {
+		private final long[] values;
+		private int hash;
+
+		/**
+		 * Constructs a GroupKey.
+		 * 
+		 * @param myValues
+		 *            the values of the group fields as longs
+		 */
+		private GroupKey(long[] myValues) {
+			values = myValues;
+			hash = Arrays.hashCode(myValues);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof GroupKey && Arrays.equals(values, ((GroupKey) other).values);
+		}
+	}
+}
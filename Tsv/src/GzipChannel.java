@@ -0,0 +1,179 @@
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * GzipChannel reads a gzip compressed file as the bytes it decompresses to.
+ * The file is decompressed on a thread of its own, which hands blocks of
+ * decompressed bytes over through a small queue, so decompressing the next
+ * block and parsing the current one happen at the same time and nothing is
+ * ever decompressed to a temporary file. Files made of several gzip members,
+ * such as filtered files that were added to over several runs, are read as
+ * one.
+ * 
+ * @author Tian Low ttl2132
+ *
+ */
+public class GzipChannel implements ReadableByteChannel {
+	public static final int BLOCK = 1 << 20;
+	private static final int BLOCKS = 4;
+	private static final byte[] END = new byte[0];
+	private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<byte[]>(BLOCKS);
+	private final Thread decoder;
+	private volatile IOException failure;
+	private volatile boolean open = true;
+	private byte[] block;
+	private int blockLength;
+	private int blockIndex;
+
+	/**
+	 * Constructs a GzipChannel and starts decompressing the file.
+	 * 
+	 * @param myFileName
+	 *            the name of the compressed file
+	 * @throws IOException
+	 *             if the file can't be opened
+	 */
+	public GzipChannel(String myFileName) throws IOException {
+		final InputStream input = new GZIPInputStream(new FileInputStream(myFileName), 1 << 16);
+		decoder = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				decode(input);
+			}
+		}, "gunzip " + myFileName);
+		decoder.setDaemon(true);
+		decoder.start();
+	}
+
+	/**
+	 * Checks whether a file starts with the magic bytes of gzip.
+	 * 
+	 * @param myFileName
+	 *            the name of the file
+	 * @return whether the file is gzip compressed
+	 */
+	public static boolean isGzip(String myFileName) {
+		try (RandomAccessFile myFile = new RandomAccessFile(myFileName, "r")) {
+			return myFile.length() >= 2 && myFile.read() == 0x1f && myFile.read() == 0x8b;
+		} catch (IOException error) {
+			return false;
+		}
+	}
+
+	/**
+	 * Finds the file to read for a file name without .tsv, which is the .tsv
+	 * file if there is one, or else the .tsv.gz file if there is one.
+	 * 
+	 * @param myName
+	 *            the name of the file without .tsv
+	 * @return the name of the file to read
+	 */
+	public static String inputName(String myName) {
+		String plain = myName + ".tsv";
+		if (!(new File(plain).exists()) && new File(plain + ".gz").exists())
+			return plain + ".gz";
+		return plain;
+	}
+
+	/**
+	 * Decompresses the file into blocks until the end of the file, or until the
+	 * channel is closed.
+	 * 
+	 * @param input
+	 *            the decompressing stream
+	 */
+	private void decode(InputStream input) {
+		try {
+			while (open) {
+				byte[] myBlock = new byte[BLOCK];
+				int length = 0;
+				int read = 0;
+				while (length < BLOCK && (read = input.read(myBlock, length, BLOCK - length)) != -1)
+					length += read;
+				if (length > 0)
+					blocks.put(length == BLOCK ? myBlock : Arrays.copyOf(myBlock, length));
+				if (read == -1)
+					break;
+			}
+		} catch (EOFException error) {
+			failure = new IOException("The compressed file ends too soon.", error);
+		} catch (IOException error) {
+			failure = error;
+		} catch (InterruptedException error) {
+			return;
+		} finally {
+			try {
+				input.close();
+			} catch (IOException error) {
+
+			}
+		}
+		try {
+			blocks.put(END);
+		} catch (InterruptedException error) {
+
+		}
+	}
+
+	/**
+	 * Copies decompressed bytes into a buffer, waiting for the next block if
+	 * it isn't ready yet.
+	 * 
+	 * @param destination
+	 *            the buffer to copy into
+	 * @return the number of bytes copied, or -1 at the end of the file
+	 * @throws IOException
+	 *             if the file couldn't be decompressed
+	 */
+	@Override
+	public int read(ByteBuffer destination) throws IOException {
+		if (!open)
+			throw new ClosedChannelException();
+		if (block == END)
+			return -1;
+		if (block == null || blockIndex == blockLength) {
+			try {
+				block = blocks.take();
+			} catch (InterruptedException error) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while decompressing.", error);
+			}
+			blockIndex = 0;
+			blockLength = block.length;
+			if (block == END) {
+				if (failure != null)
+					throw failure;
+				return -1;
+			}
+		}
+		int length = Math.min(destination.remaining(), blockLength - blockIndex);
+		destination.put(block, blockIndex, length);
+		blockIndex += length;
+		return length;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Stops decompressing and closes the file.
+	 */
+	@Override
+	public void close() {
+		open = false;
+		decoder.interrupt();
+	}
+}
@@ -0,0 +1,635 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * HashJoin combines the records of two tsv files that have the same value in a
+ * key field, like JOIN in SQL. Both files are cleansed by their own Formatter,
+ * and each joined record is the record of the first file followed by the
+ * fields of the record of the joined file other than its key, so the joined
+ * records have a first line and a format of their own that select, compute,
+ * group by and order by work on. Fields of the joined file whose names are
+ * already taken get the name of the joined file in front, such as
+ * customers.Name. Number keys are matched by their value, so 007 and 7 match,
+ * and so do 5.0 and 5.00.
+ *
+ * The records of the smaller file are put in a hash table by their key and the
+ * larger file is streamed through it. In an inner join, records without a
+ * match are left out. In a left join, every record of the first file is kept,
+ * with empty fields for the joined file if nothing matched. The empty fields
+ * are left out of the statistics of those fields, but the cleanser of a
+ * Formatter drops records with empty fields, so a filtered file with records
+ * that didn't match can't be read back in full by TSVPipeline. If the smaller
+ * file has more records than the memory budget, both files are split by the
+ * hash of their key into partition files on disk, and the partitions are
+ * joined one at a time, splitting a partition again if it is still too big.
+ * Records come out in the order of the streamed file, with records of the
+ * first file without a match last if it is the smaller one, unless they had to
+ * be written to disk, in which case they come out one partition at a time.
+ *
+ * @author Tian Low ttl2132
+ *
+ */
+public class HashJoin {
+	// How many records of the smaller file are kept in memory by default.
+	public static final int DEFAULTRECORDS = 1 << 18;
+	private static final int PARTITIONS = 16;
+	// How many times a partition that is still too big is split again.
+	private static final int MAXDEPTH = 3;
+	private final Formatter left;
+	private final Formatter right;
+	private final String leftName;
+	private final String rightName;
+	private final String leftField;
+	private final String rightField;
+	private final boolean outer;
+	private final int maxRecords;
+	private final PipelineMetrics metrics;
+	private final LinkedHashMap<String, Bucket> table = new LinkedHashMap<String, Bucket>();
+	private final ArrayDeque<Partition> partitions = new ArrayDeque<Partition>();
+	private final ArrayDeque<String> pending = new ArrayDeque<String>();
+	private final ArrayList<File> spills = new ArrayList<File>();
+	private String firstLine;
+	private String format;
+	private String padding;
+	private boolean buildLeft;
+	private int rightKey;
+	private int buildKey;
+	private int probeKey;
+	private boolean buildNumber;
+	private boolean probeNumber;
+	private boolean probing;
+	private Partition current;
+	private DataInputStream probeInput;
+	private Iterator<Bucket> unmatched;
+
+	/**
+	 * Constructs a HashJoin.
+	 *
+	 * @param myLeft
+	 *            the Formatter of the first file, already opened by openStream
+	 * @param myLeftName
+	 *            the name of the first file
+	 * @param myRightName
+	 *            the name of the file joined to it
+	 * @param myLeftField
+	 *            the key field of the first file
+	 * @param myRightField
+	 *            the key field of the joined file
+	 * @param myOuter
+	 *            whether every record of the first file is kept, as in a left
+	 *            join
+	 * @param myMaxRecords
+	 *            how many records of the smaller file are kept in memory
+	 */
+	public HashJoin(Formatter myLeft, String myLeftName, String myRightName, String myLeftField,
+			String myRightField, boolean myOuter, int myMaxRecords) {
+		left = myLeft;
+		leftName = myLeftName;
+		rightName = GzipChannel.inputName(myRightName);
+		leftField = myLeftField;
+		rightField = myRightField;
+		outer = myOuter;
+		maxRecords = Math.max(1, myMaxRecords);
+		metrics = myLeft.getMetrics();
+		right = new Formatter(rightName);
+		right.setMetrics(metrics);
+	}
+
+	/**
+	 * Opens the joined file and puts the records of the smaller file in the
+	 * hash table, or in partition files if there are too many of them.
+	 *
+	 * @return whether both files and both key fields were found
+	 */
+	public boolean open() {
+		if (!(right.openStream())) {
+			if (!(right.entireFile.equals("File Not Found!")))
+				System.out.println(right.entireFile);
+			left.closeStream();
+			return false;
+		}
+		int leftKey = Arrays.asList(left.firstLine.split("\t")).lastIndexOf(leftField);
+		String[] rightFields = right.firstLine.split("\t");
+		rightKey = Arrays.asList(rightFields).lastIndexOf(rightField);
+		if (leftKey == -1 || rightKey == -1) {
+			System.out.println("Accurate field not specified.");
+			close();
+			return false;
+		}
+		boolean leftNumber = isNumber(left.getFormat(), leftKey);
+		boolean rightNumber = isNumber(right.getFormat(), rightKey);
+		String prefix = new File(rightName).getName().replaceFirst("\\.gz$", "").replaceFirst("\\.tsv$", "");
+		HashSet<String> taken = new HashSet<String>(Arrays.asList(left.firstLine.split("\t")));
+		StringBuilder myFirstLine = new StringBuilder(left.firstLine);
+		StringBuilder myFormat = new StringBuilder(left.getFormat());
+		StringBuilder myPadding = new StringBuilder();
+		for (int i = 0; i < rightFields.length; i++) {
+			if (i == rightKey)
+				continue;
+			String name = taken.contains(rightFields[i]) ? prefix + "." + rightFields[i] : rightFields[i];
+			taken.add(name);
+			myFirstLine.append(name).append('\t');
+			myFormat.append(i < right.getFormat().length() ? right.getFormat().charAt(i) : '1');
+			myPadding.append('\t');
+		}
+		firstLine = myFirstLine.toString();
+		format = myFormat.toString();
+		padding = myPadding.toString();
+		buildLeft = new File(leftName).length() < new File(rightName).length();
+		buildKey = buildLeft ? leftKey : rightKey;
+		probeKey = buildLeft ? rightKey : leftKey;
+		buildNumber = buildLeft ? leftNumber : rightNumber;
+		probeNumber = buildLeft ? rightNumber : leftNumber;
+		try {
+			build();
+		} catch (IOException error) {
+			System.out.println("The join could not be written to disk.");
+			close();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the first line of the joined records.
+	 *
+	 * @return the fields of the first file followed by the fields of the
+	 *         joined file other than its key
+	 */
+	public String getFirstLine() {
+		return firstLine;
+	}
+
+	/**
+	 * Gets the format of the joined records.
+	 *
+	 * @return the format in terms of a String of NumberParser kinds
+	 */
+	public String getFormat() {
+		return format;
+	}
+
+	/**
+	 * Checks whether a field of a file holds numbers.
+	 *
+	 * @param myFormat
+	 *            the format of the file
+	 * @param index
+	 *            the index of the field
+	 * @return whether the field is a long, decimal or double field
+	 */
+	private static boolean isNumber(String myFormat, int index) {
+		return index < myFormat.length() && myFormat.charAt(index) != NumberParser.STRING;
+	}
+
+	/**
+	 * Reads the records of the smaller file into the hash table. Once there are
+	 * more than the memory budget allows, every record of both files is
+	 * written to the partition files instead.
+	 *
+	 * @throws IOException
+	 *             if the partition files can't be written
+	 */
+	private void build() throws IOException {
+		Formatter buildSide = buildLeft ? left : right;
+		Formatter probeSide = buildLeft ? right : left;
+		DataOutputStream[] outputs = null;
+		Partition[] parts = null;
+		int records = 0;
+		String record;
+		while ((record = buildSide.nextRecord()) != null) {
+			if (outputs != null) {
+				write(outputs, record, buildKey, buildNumber, 0);
+				continue;
+			}
+			add(record);
+			metrics.lap(Stage.JOIN);
+			if (++records > maxRecords) {
+				parts = split(0);
+				outputs = open(parts, true);
+				for (Bucket bucket : table.values()) {
+					for (String built : bucket.records)
+						write(outputs, built, buildKey, buildNumber, 0);
+				}
+				table.clear();
+			}
+		}
+		if (outputs == null) {
+			probing = true;
+			return;
+		}
+		close(outputs);
+		outputs = open(parts, false);
+		while ((record = probeSide.nextRecord()) != null)
+			write(outputs, record, probeKey, probeNumber, 0);
+		close(outputs);
+		for (int i = PARTITIONS - 1; i >= 0; i--)
+			partitions.push(parts[i]);
+	}
+
+	/**
+	 * Puts a record of the smaller file in the hash table.
+	 *
+	 * @param record
+	 *            a cleansed record
+	 */
+	private void add(String record) {
+		String key = key(record, buildKey, buildNumber);
+		Bucket bucket = table.get(key);
+		if (bucket == null) {
+			bucket = new Bucket();
+			table.put(key, bucket);
+		}
+		bucket.records.add(record);
+	}
+
+	/**
+	 * Looks up a record of the larger file in the hash table, and gets ready
+	 * the joined records it makes.
+	 *
+	 * @param record
+	 *            a cleansed record
+	 */
+	private void probe(String record) {
+		Bucket bucket = table.get(key(record, probeKey, probeNumber));
+		if (bucket == null) {
+			if (outer && !buildLeft)
+				pending.add(record + padding);
+			return;
+		}
+		bucket.matched = true;
+		for (String built : bucket.records)
+			pending.add(buildLeft ? built + without(record, rightKey) : record + without(built, rightKey));
+	}
+
+	/**
+	 * Gets the next joined record.
+	 *
+	 * @return the next joined record, or null once there are no more
+	 */
+	public String nextRecord() {
+		try {
+			while (pending.isEmpty()) {
+				if (!(advance())) {
+					close();
+					return null;
+				}
+			}
+			return pending.poll();
+		} catch (IOException error) {
+			System.out.println("The join could not be read back from disk.");
+			close();
+			return null;
+		}
+	}
+
+	/**
+	 * Moves the join along by one record of the larger file, one group of
+	 * records without a match or one partition.
+	 *
+	 * @return whether there was anything left to join
+	 * @throws IOException
+	 *             if the partition files can't be read or written
+	 */
+	private boolean advance() throws IOException {
+		if (probing) {
+			String record = probeInput != null ? read(probeInput) : (buildLeft ? right : left).nextRecord();
+			if (record != null) {
+				probe(record);
+				metrics.lap(Stage.JOIN);
+				return true;
+			}
+			probing = false;
+			if (probeInput != null) {
+				probeInput.close();
+				probeInput = null;
+				current.probe.delete();
+			}
+			if (outer && buildLeft)
+				unmatched = table.values().iterator();
+		}
+		if (unmatched != null) {
+			while (unmatched.hasNext()) {
+				Bucket bucket = unmatched.next();
+				if (bucket.matched)
+					continue;
+				for (String built : bucket.records)
+					pending.add(built + padding);
+				return true;
+			}
+			unmatched = null;
+		}
+		table.clear();
+		if (!(nextPartition()))
+			return false;
+		probing = true;
+		return true;
+	}
+
+	/**
+	 * Reads the records of the smaller file in the next partition into the
+	 * hash table. A partition that is still too big is split again by a
+	 * different hash, unless its keys can't be told apart any further.
+	 *
+	 * @return whether there was another partition
+	 * @throws IOException
+	 *             if the partition files can't be read or written
+	 */
+	private boolean nextPartition() throws IOException {
+		while (!(partitions.isEmpty())) {
+			current = partitions.pop();
+			int records = 0;
+			try (DataInputStream input = open(current.build)) {
+				String record;
+				while ((record = read(input)) != null && (++records <= maxRecords || current.depth == MAXDEPTH))
+					add(record);
+			}
+			if (records <= maxRecords || current.depth == MAXDEPTH) {
+				current.build.delete();
+				probeInput = open(current.probe);
+				return true;
+			}
+			table.clear();
+			Partition[] parts = split(current.depth + 1);
+			DataOutputStream[] outputs = open(parts, true);
+			copy(current.build, outputs, buildKey, buildNumber, current.depth + 1);
+			outputs = open(parts, false);
+			copy(current.probe, outputs, probeKey, probeNumber, current.depth + 1);
+			current.build.delete();
+			current.probe.delete();
+			for (int i = PARTITIONS - 1; i >= 0; i--)
+				partitions.push(parts[i]);
+		}
+		current = null;
+		return false;
+	}
+
+	/**
+	 * Splits the records of a partition file into new partition files.
+	 *
+	 * @param myFile
+	 *            the partition file
+	 * @param outputs
+	 *            the new partition files
+	 * @param key
+	 *            the index of the key field
+	 * @param number
+	 *            whether the key field holds numbers
+	 * @param depth
+	 *            how many times the records have been split before
+	 * @throws IOException
+	 *             if the partition files can't be read or written
+	 */
+	private void copy(File myFile, DataOutputStream[] outputs, int key, boolean number, int depth)
+			throws IOException {
+		try (DataInputStream input = open(myFile)) {
+			String record;
+			while ((record = read(input)) != null)
+				write(outputs, record, key, number, depth);
+		} finally {
+			close(outputs);
+		}
+	}
+
+	/**
+	 * Makes the partition files records are split into.
+	 *
+	 * @param depth
+	 *            how many times the records have been split before
+	 * @return the partitions
+	 * @throws IOException
+	 *             if the partition files can't be made
+	 */
+	private Partition[] split(int depth) throws IOException {
+		Partition[] parts = new Partition[PARTITIONS];
+		for (int i = 0; i < PARTITIONS; i++) {
+			spills.add(File.createTempFile("join", ".part"));
+			spills.add(File.createTempFile("join", ".part"));
+			parts[i] = new Partition(spills.get(spills.size() - 2), spills.get(spills.size() - 1), depth);
+		}
+		return parts;
+	}
+
+	/**
+	 * Opens the partition files of one of the files for writing.
+	 *
+	 * @param parts
+	 *            the partitions
+	 * @param build
+	 *            whether the files are for the smaller file
+	 * @return the partition files
+	 * @throws IOException
+	 *             if the partition files can't be opened
+	 */
+	private static DataOutputStream[] open(Partition[] parts, boolean build) throws IOException {
+		DataOutputStream[] outputs = new DataOutputStream[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			outputs[i] = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(build ? parts[i].build : parts[i].probe), 1 << 16));
+		}
+		return outputs;
+	}
+
+	/**
+	 * Opens a partition file for reading.
+	 *
+	 * @param myFile
+	 *            the partition file
+	 * @return the partition file
+	 * @throws IOException
+	 *             if the partition file can't be opened
+	 */
+	private static DataInputStream open(File myFile) throws IOException {
+		return new DataInputStream(new BufferedInputStream(new FileInputStream(myFile), 1 << 16));
+	}
+
+	/**
+	 * Closes partition files that were written.
+	 *
+	 * @param outputs
+	 *            the partition files
+	 * @throws IOException
+	 *             if the partition files can't be written
+	 */
+	private static void close(DataOutputStream[] outputs) throws IOException {
+		for (DataOutputStream output : outputs)
+			output.close();
+	}
+
+	/**
+	 * Writes a record to the partition of its key, as its length and its UTF-8
+	 * bytes.
+	 *
+	 * @param outputs
+	 *            the partition files
+	 * @param record
+	 *            a cleansed record
+	 * @param key
+	 *            the index of the key field
+	 * @param number
+	 *            whether the key field holds numbers
+	 * @param depth
+	 *            how many times the records have been split before
+	 * @throws IOException
+	 *             if the partition file can't be written
+	 */
+	private static void write(DataOutputStream[] outputs, String record, int key, boolean number, int depth)
+			throws IOException {
+		// The hash is mixed differently at each depth, so records that were
+		// in one partition are spread out when it is split again.
+		int hash = key(record, key, number).hashCode() ^ depth * 0x9e3779b9;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 15;
+		byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+		DataOutputStream output = outputs[(hash & 0x7fffffff) % PARTITIONS];
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	/**
+	 * Reads a record written by write.
+	 *
+	 * @param input
+	 *            the partition file
+	 * @return the record, or null at the end of the file
+	 * @throws IOException
+	 *             if the partition file can't be read
+	 */
+	private static String read(DataInputStream input) throws IOException {
+		int length;
+		try {
+			length = input.readInt();
+		} catch (EOFException end) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Gets the key of a record, with numbers written the way
+	 * NumberParser.canonical writes them.
+	 *
+	 * @param record
+	 *            a cleansed record, with a tab after each field
+	 * @param index
+	 *            the index of the key field
+	 * @param number
+	 *            whether the key field holds numbers
+	 * @return the key
+	 */
+	private static String key(String record, int index, boolean number) {
+		int start = start(record, index);
+		int end = record.indexOf('\t', start);
+		String value = record.substring(start, end == -1 ? record.length() : end);
+		return number ? NumberParser.canonical(value) : value;
+	}
+
+	/**
+	 * Leaves one field out of a record.
+	 *
+	 * @param record
+	 *            a cleansed record, with a tab after each field
+	 * @param index
+	 *            the index of the field
+	 * @return the record without the field
+	 */
+	private static String without(String record, int index) {
+		int start = start(record, index);
+		int end = record.indexOf('\t', start);
+		return end == -1 ? record.substring(0, start) : record.substring(0, start) + record.substring(end + 1);
+	}
+
+	/**
+	 * Finds where a field of a record starts.
+	 *
+	 * @param record
+	 *            a cleansed record, with a tab after each field
+	 * @param index
+	 *            the index of the field
+	 * @return the index of the first character of the field
+	 */
+	private static int start(String record, int index) {
+		int start = 0;
+		for (int i = 0; i < index; i++) {
+			start = record.indexOf('\t', start);
+			if (start == -1)
+				return record.length();
+			start++;
+		}
+		return start;
+	}
+
+	/**
+	 * Closes both files and deletes the partition files that are left, such
+	 * as when the joined records aren't all read.
+	 */
+	public void close() {
+		left.closeStream();
+		right.closeStream();
+		try {
+			if (probeInput != null)
+				probeInput.close();
+		} catch (IOException error) {
+		}
+		probeInput = null;
+		for (File spill : spills)
+			spill.delete();
+		spills.clear();
+		partitions.clear();
+		current = null;
+		table.clear();
+		pending.clear();
+		unmatched = null;
+		probing = false;
+	}
+
+	/**
+	 * The records of the smaller file with one key, and whether any record of
+	 * the larger file matched them.
+	 */
+	private static class Bucket {
+		private final ArrayList<String> records = new ArrayList<String>(1);
+		private boolean matched;
+	}
+
+	/**
+	 * The partition files of both files for the keys with one hash.
+	 */
+	private static class Partition {
+		private final File build;
+		private final File probe;
+		private final int depth;
+
+		/**
+		 * Constructs a Partition.
+		 *
+		 * @param myBuild
+		 *            the partition file of the smaller file
+		 * @param myProbe
+		 *            the partition file of the larger file
+		 * @param myDepth
+		 *            how many times the records have been split before
+		 */
+		private Partition(File myBuild, File myProbe, int myDepth) {
+			build = myBuild;
+			probe = myProbe;
+			depth = myDepth;
+		}
+	}
+}
@@ -0,0 +1,557 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * MappedReader reads a tsv file through a memory-mapped FileChannel. Lines and
+ * fields are found by scanning the mapped bytes for tabs and line breaks, and
+ * each field is handed out as an offset and length into the mapped bytes, so
+ * nothing is allocated for a field unless it is turned into a String. Extra
+ * tabs and whitespace around fields are skipped the same way
+ * Formatter.removeExtraTabs skips them. Large files are mapped one window at a
+ * time. A gzip compressed file can't be mapped, so it is read from the start
+ * through a GzipChannel into a buffer that is refilled as the lines are used
+ * up, and offsets count the decompressed bytes. Lines that were already read
+ * into memory, such as a batch of a StagedExecutor, can be gone through the
+ * same way.
+ * 
+ * @author Tian Low ttl2132
+ * 
+ */
+public class MappedReader implements Closeable {
+	private static final int WINDOW = 1 << 26;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final ReadableByteChannel stream;
+	private final long size;
+	private ByteBuffer buffer;
+	private boolean streamEnded;
+	private long bufferStart;
+	private long position;
+	private long lineOffset;
+	private int lineStart;
+	private int lineEnd;
+	private int fields;
+	private int[] offsets = new int[16];
+	private int[] lengths = new int[16];
+	private byte[] scratch = new byte[64];
+
+	/**
+	 * Constructs a MappedReader and opens the file.
+	 * 
+	 * @param myFileName
+	 *            the name of the file
+	 * @throws IOException
+	 *             if the file can't be found or opened
+	 */
+	public MappedReader(String myFileName) throws IOException {
+		this(myFileName, 0);
+	}
+
+	/**
+	 * Constructs a MappedReader that starts reading at the given byte of the
+	 * file, which should be the start of a line.
+	 * 
+	 * @param myFileName
+	 *            the name of the file
+	 * @param myPosition
+	 *            the byte of the file to start reading at
+	 * @throws IOException
+	 *             if the file can't be found or opened
+	 */
+	public MappedReader(String myFileName, long myPosition) throws IOException {
+		this(myFileName, myPosition, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Constructs a MappedReader that only reads the lines between two bytes of
+	 * the file, which should both be the start of a line. A compressed file is
+	 * decompressed as it is read, and can only be read from its start.
+	 * 
+	 * @param myFileName
+	 *            the name of the file
+	 * @param myPosition
+	 *            the byte of the file to start reading at
+	 * @param myEnd
+	 *            the byte of the file to stop reading at
+	 * @throws IOException
+	 *             if the file can't be found or opened
+	 */
+	public MappedReader(String myFileName, long myPosition, long myEnd) throws IOException {
+		position = myPosition;
+		bufferStart = myPosition;
+		if (GzipChannel.isGzip(myFileName)) {
+			if (myPosition != 0)
+				throw new IOException("A compressed file can only be read from its start.");
+			file = null;
+			channel = null;
+			stream = new GzipChannel(myFileName);
+			size = myEnd;
+			buffer = ByteBuffer.allocate(GzipChannel.BLOCK);
+			buffer.limit(0);
+			return;
+		}
+		file = new RandomAccessFile(myFileName, "r");
+		channel = file.getChannel();
+		stream = null;
+		size = Math.min(myEnd, channel.size());
+	}
+
+	/**
+	 * Constructs a MappedReader over lines that are already in memory. Offsets
+	 * count the bytes of the buffer, and nothing has to be closed.
+	 * 
+	 * @param myBuffer
+	 *            the bytes of whole lines, up to the limit of the buffer
+	 */
+	public MappedReader(ByteBuffer myBuffer) {
+		file = null;
+		channel = null;
+		stream = null;
+		buffer = myBuffer;
+		size = myBuffer.limit();
+	}
+
+	/**
+	 * Finds the start of the first line that begins at or after a byte of the
+	 * file, so a file can be split into parts without cutting a line in two.
+	 * 
+	 * @param myFileName
+	 *            the name of the file
+	 * @param myPosition
+	 *            any byte of the file
+	 * @return the start of the next line, or the size of the file
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	public static long lineStartAfter(String myFileName, long myPosition) throws IOException {
+		try (RandomAccessFile myFile = new RandomAccessFile(myFileName, "r")) {
+			long mySize = myFile.length();
+			if (myPosition <= 0)
+				return 0;
+			long current = myPosition - 1;
+			myFile.seek(current);
+			int read;
+			while ((read = myFile.read()) != -1) {
+				current++;
+				if (read == '\n')
+					return current;
+				if (read == '\r') {
+					if (myFile.read() == '\n')
+						current++;
+					return Math.min(current, mySize);
+				}
+			}
+			return mySize;
+		}
+	}
+
+	/**
+	 * Finds where the last line that has a line break ends, so a line that is
+	 * still being written to the end of the file can be left alone.
+	 * 
+	 * @param myFileName
+	 *            the name of the file
+	 * @return the byte after the last line break, or 0 if there isn't one
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	public static long completeLinesEnd(String myFileName) throws IOException {
+		try (RandomAccessFile myFile = new RandomAccessFile(myFileName, "r")) {
+			byte[] block = new byte[8192];
+			long end = myFile.length();
+			while (end > 0) {
+				int length = (int) Math.min(block.length, end);
+				myFile.seek(end - length);
+				myFile.readFully(block, 0, length);
+				for (int i = length - 1; i >= 0; i--) {
+					if (block[i] == '\n' || block[i] == '\r')
+						return end - length + i + 1;
+				}
+				end -= length;
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * Moves on to the next line of the file and finds its fields.
+	 * 
+	 * @return whether there was another line
+	 * @throws IOException
+	 *             if the file can't be mapped
+	 */
+	public boolean nextLine() throws IOException {
+		if (position >= size)
+			return false;
+		if (stream != null)
+			return nextStreamedLine();
+		int window = WINDOW;
+		while (true) {
+			if (buffer == null || position < bufferStart || position - bufferStart >= buffer.limit()) {
+				bufferStart = position;
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, bufferStart,
+						Math.min(window, size - bufferStart));
+			}
+			int start = (int) (position - bufferStart);
+			int limit = buffer.limit();
+			boolean atEnd = bufferStart + limit == size;
+			int index = start;
+			while (index < limit) {
+				byte current = buffer.get(index);
+				if (current == '\n' || current == '\r')
+					break;
+				index++;
+			}
+			if (index == limit && !atEnd || index + 1 == limit && buffer.get(index) == '\r' && !atEnd) {
+				if (start == 0) {
+					if (window == Integer.MAX_VALUE)
+						throw new IOException("Line is too long to map.");
+					window = (int) Math.min(Integer.MAX_VALUE, (long) window * 2);
+				}
+				buffer = null;
+				continue;
+			}
+			lineOffset = position;
+			lineStart = start;
+			lineEnd = index;
+			if (index < limit && buffer.get(index) == '\r' && index + 1 < limit && buffer.get(index + 1) == '\n')
+				index++;
+			position = bufferStart + Math.min(index + 1, limit);
+			splitFields();
+			return true;
+		}
+	}
+
+	/**
+	 * Moves on to the next line of a compressed file. Whatever is left of the
+	 * buffer is moved to its start and the rest is filled with the next
+	 * decompressed bytes whenever a line runs past the end of the buffer.
+	 * 
+	 * @return whether there was another line
+	 * @throws IOException
+	 *             if the file can't be decompressed
+	 */
+	private boolean nextStreamedLine() throws IOException {
+		while (true) {
+			int start = (int) (position - bufferStart);
+			int limit = buffer.limit();
+			int index = start;
+			while (index < limit) {
+				byte current = buffer.get(index);
+				if (current == '\n' || current == '\r')
+					break;
+				index++;
+			}
+			if (!streamEnded && (index == limit || index + 1 == limit && buffer.get(index) == '\r')) {
+				refill(start);
+				continue;
+			}
+			if (start == limit)
+				return false;
+			lineOffset = position;
+			lineStart = start;
+			lineEnd = index;
+			if (index < limit && buffer.get(index) == '\r' && index + 1 < limit && buffer.get(index + 1) == '\n')
+				index++;
+			position = bufferStart + Math.min(index + 1, limit);
+			splitFields();
+			return true;
+		}
+	}
+
+	/**
+	 * Moves the bytes of a compressed file that haven't been used yet to the
+	 * start of the buffer and fills the rest with the next decompressed bytes.
+	 * The buffer is made bigger if a single line fills all of it.
+	 * 
+	 * @param start
+	 *            the first byte of the buffer that hasn't been used
+	 * @throws IOException
+	 *             if the file can't be decompressed
+	 */
+	private void refill(int start) throws IOException {
+		buffer.position(start);
+		buffer.compact();
+		bufferStart += start;
+		if (!(buffer.hasRemaining())) {
+			if (buffer.capacity() == Integer.MAX_VALUE)
+				throw new IOException("Line is too long to read.");
+			ByteBuffer bigger = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE, (long) buffer.capacity() * 2));
+			buffer.flip();
+			bigger.put(buffer);
+			buffer = bigger;
+		}
+		if (stream.read(buffer) == -1)
+			streamEnded = true;
+		buffer.flip();
+	}
+
+	/**
+	 * Checks whether a file can be read from any of its lines, which a
+	 * compressed file can't.
+	 * 
+	 * @param myFileName
+	 *            the name of the file
+	 * @return whether seek and a later start can be used on the file
+	 */
+	public static boolean isSeekable(String myFileName) {
+		return !(GzipChannel.isGzip(myFileName));
+	}
+
+	/**
+	 * Checks whether the reader can be moved around in with seek, which it
+	 * can't if the file is compressed.
+	 * 
+	 * @return whether seek can be used
+	 */
+	public boolean isSeekable() {
+		return stream == null;
+	}
+
+	/**
+	 * Moves to another byte of the file, which should be the start of a line,
+	 * so the next call to nextLine reads the line there.
+	 * 
+	 * @param myPosition
+	 *            the byte of the file to read from next
+	 * @throws IOException
+	 *             if the file is compressed, so it can only be read in order
+	 */
+	public void seek(long myPosition) throws IOException {
+		if (!(isSeekable()))
+			throw new IOException("A compressed file can only be read in order.");
+		position = myPosition;
+	}
+
+	/**
+	 * Finds the fields of the current line, skipping extra tabs and the
+	 * whitespace around each field.
+	 */
+	private void splitFields() {
+		fields = 0;
+		int index = lineStart;
+		while (index <= lineEnd) {
+			int end = index;
+			while (end < lineEnd && buffer.get(end) != '\t')
+				end++;
+			int start = index;
+			int stop = end;
+			while (start < stop && (buffer.get(start) & 0xff) <= ' ')
+				start++;
+			while (stop > start && (buffer.get(stop - 1) & 0xff) <= ' ')
+				stop--;
+			if (stop > start) {
+				if (fields == offsets.length) {
+					offsets = Arrays.copyOf(offsets, fields * 2);
+					lengths = Arrays.copyOf(lengths, fields * 2);
+				}
+				offsets[fields] = start;
+				lengths[fields] = stop - start;
+				fields++;
+			}
+			index = end + 1;
+		}
+	}
+
+	/**
+	 * Puts the fields of the current line back together, each followed by a
+	 * tab, the same way Formatter.toString does.
+	 * 
+	 * @param builder
+	 *            a StringBuilder that can be reused between lines
+	 * @return the current line without extra space
+	 */
+	public String joinFields(StringBuilder builder) {
+		builder.setLength(0);
+		for (int i = 0; i < fields; i++)
+			appendField(i, builder).append('\t');
+		return builder.toString();
+	}
+
+	/**
+	 * Gets the byte of the file where the current line starts.
+	 * 
+	 * @return the offset of the current line in the file
+	 */
+	public long lineOffset() {
+		return lineOffset;
+	}
+
+	/**
+	 * Gets the byte of the file where the next line starts.
+	 * 
+	 * @return the offset of the next line in the file
+	 */
+	public long position() {
+		return position;
+	}
+
+	/**
+	 * Gets the size of the file in bytes, which isn't known ahead of time for a
+	 * compressed file.
+	 * 
+	 * @return the size of the file, or Long.MAX_VALUE if it is compressed
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Gets how many bytes long the current line is, without its line break.
+	 * 
+	 * @return the length of the current line
+	 */
+	public int lineLength() {
+		return lineEnd - lineStart;
+	}
+
+	/**
+	 * Gets how many non-empty fields the current line has.
+	 * 
+	 * @return the number of fields
+	 */
+	public int fieldCount() {
+		return fields;
+	}
+
+	/**
+	 * Gets where a field starts in the mapped bytes.
+	 * 
+	 * @param field
+	 *            the index of the field in the current line
+	 * @return the offset of the field
+	 */
+	public int fieldOffset(int field) {
+		return offsets[field];
+	}
+
+	/**
+	 * Gets how many bytes long a field is.
+	 * 
+	 * @param field
+	 *            the index of the field in the current line
+	 * @return the length of the field
+	 */
+	public int fieldLength(int field) {
+		return lengths[field];
+	}
+
+	/**
+	 * Gets one of the mapped bytes.
+	 * 
+	 * @param index
+	 *            an offset given by fieldOffset
+	 * @return the byte at the offset
+	 */
+	public byte byteAt(int index) {
+		return buffer.get(index);
+	}
+
+	/**
+	 * Parses a field that is known to be a long straight from the mapped bytes.
+	 * 
+	 * @param field
+	 *            the index of the field in the current line
+	 * @return the field as a long
+	 */
+	public long longField(int field) {
+		int index = offsets[field];
+		int end = index + lengths[field];
+		byte first = buffer.get(index);
+		boolean negative = first == '-';
+		if (first == '-' || first == '+')
+			index++;
+		long result = 0;
+		for (; index < end; index++) {
+			byte current = buffer.get(index);
+			if (current < 0)
+				return Long.parseLong(field(field));
+			result = result * 10 - (current - '0');
+		}
+		return negative ? result : -result;
+	}
+
+	/**
+	 * Checks whether a field that is known to be a long is written the same
+	 * way Long.toString would write it, without a plus sign or leading zeros.
+	 * 
+	 * @param field
+	 *            the index of the field in the current line
+	 * @return whether the field is a plainly written long
+	 */
+	public boolean isPlainLong(int field) {
+		int index = offsets[field];
+		int end = index + lengths[field];
+		byte first = buffer.get(index);
+		if (first == '+')
+			return false;
+		if (first == '-')
+			index++;
+		if (buffer.get(index) == '0' && (end - index > 1 || first == '-'))
+			return false;
+		for (; index < end; index++) {
+			if (buffer.get(index) < 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Turns a field into a String.
+	 * 
+	 * @param field
+	 *            the index of the field in the current line
+	 * @return the field as a String
+	 */
+	public String field(int field) {
+		int length = lengths[field];
+		if (scratch.length < length)
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+		for (int i = 0; i < length; i++)
+			scratch[i] = buffer.get(offsets[field] + i);
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Adds a field to a StringBuilder. Plain ASCII fields are copied over
+	 * directly without making a String first.
+	 * 
+	 * @param field
+	 *            the index of the field in the current line
+	 * @param builder
+	 *            the StringBuilder to add to
+	 * @return the StringBuilder
+	 */
+	public StringBuilder appendField(int field, StringBuilder builder) {
+		int offset = offsets[field];
+		int length = lengths[field];
+		for (int i = 0; i < length; i++) {
+			if (buffer.get(offset + i) < 0)
+				return builder.append(field(field));
+		}
+		for (int i = 0; i < length; i++)
+			builder.append((char) buffer.get(offset + i));
+		return builder;
+	}
+
+	/**
+	 * Closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (stream != null) {
+			stream.close();
+			return;
+		}
+		if (channel == null)
+			return;
+		channel.close();
+		file.close();
+	}
+}
@@ -0,0 +1,428 @@
+import java.math.BigDecimal;
+
+/**
+ * NumberParser reads numbers that aren't longs, such as 12.50 or 1.5e-3,
+ * without making a BigDecimal or a new String for each one. A number is kept
+ * as a long of its digits and a scale, the same way BigDecimal keeps it, so
+ * decimals can be added up exactly for as long as their digits fit in a long.
+ * The double of a number is worked out with one multiplication or division
+ * when its digits and scale are small enough for that to be exact, which is
+ * nearly always the case for numbers read from a file, and by
+ * Double.parseDouble otherwise.
+ *
+ * The kind of a field is the same character Formatter.findFormat puts in a
+ * format: 0 for a long, 2 for a decimal written without an exponent, 3 for a
+ * double written with one, and 1 for anything else. The kind can be found
+ * without a NumberParser, while one NumberParser is reused for every number
+ * whose digits are needed.
+ *
+ * @author Tian Low ttl2132
+ *
+ */
+public class NumberParser {
+	// The kinds of fields, in the order of which numbers they accept.
+	public static final char LONG = '0';
+	public static final char STRING = '1';
+	public static final char DECIMAL = '2';
+	public static final char DOUBLE = '3';
+	// The powers of ten a double holds exactly.
+	private static final double[] POWERS = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+			1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	private static final long[] LONGPOWERS = new long[19];
+	// The digits below this are exact in a double.
+	private static final long EXACTLIMIT = 1L << 53;
+	// The most digits can be before another digit might not fit.
+	private static final long DIGITLIMIT = (Long.MAX_VALUE - 9) / 10;
+	private long unscaled;
+	private int scale;
+	private boolean exact;
+	private double approximate;
+
+	static {
+		LONGPOWERS[0] = 1;
+		for (int i = 1; i < LONGPOWERS.length; i++)
+			LONGPOWERS[i] = LONGPOWERS[i - 1] * 10;
+	}
+
+	/**
+	 * Finds the kind of part of a line.
+	 *
+	 * @param line
+	 *            the line the value is in
+	 * @param start
+	 *            the index the value starts at
+	 * @param end
+	 *            the index the value ends at
+	 * @return LONG, DECIMAL, DOUBLE or STRING
+	 */
+	public static char kind(CharSequence line, int start, int end) {
+		if (RowValidator.isLong(line, start, end))
+			return LONG;
+		return scan(line, null, start, end);
+	}
+
+	/**
+	 * Finds the kind of a field of the line a MappedReader is on, looking at
+	 * its mapped bytes.
+	 *
+	 * @param reader
+	 *            the MappedReader on the line
+	 * @param field
+	 *            the index of the field
+	 * @return LONG, DECIMAL, DOUBLE or STRING
+	 */
+	public static char kind(MappedReader reader, int field) {
+		if (RowValidator.isLong(reader, field))
+			return LONG;
+		int start = reader.fieldOffset(field);
+		return scan(null, reader, start, start + reader.fieldLength(field));
+	}
+
+	/**
+	 * Checks the syntax of a value that isn't a long. Either the line or the
+	 * MappedReader is given. Digits that aren't plain ASCII are left to
+	 * RowValidator.isLong, so a value with any other byte is a String.
+	 *
+	 * @param line
+	 *            the line the value is in, or null
+	 * @param reader
+	 *            the MappedReader on the line, or null
+	 * @param start
+	 *            the index the value starts at
+	 * @param end
+	 *            the index the value ends at
+	 * @return DECIMAL, DOUBLE or STRING
+	 */
+	private static char scan(CharSequence line, MappedReader reader, int start, int end) {
+		int index = start;
+		if (index < end && isSign(at(line, reader, index)))
+			index++;
+		int digits = 0;
+		boolean point = false;
+		for (; index < end; index++) {
+			int current = at(line, reader, index);
+			if (current >= '0' && current <= '9')
+				digits++;
+			else if (current == '.' && !(point))
+				point = true;
+			else
+				break;
+		}
+		if (digits == 0)
+			return STRING;
+		if (index == end)
+			return DECIMAL;
+		int current = at(line, reader, index++);
+		if (current != 'e' && current != 'E')
+			return STRING;
+		if (index < end && isSign(at(line, reader, index)))
+			index++;
+		if (index == end)
+			return STRING;
+		for (; index < end; index++) {
+			current = at(line, reader, index);
+			if (current < '0' || current > '9')
+				return STRING;
+		}
+		return DOUBLE;
+	}
+
+	private static int at(CharSequence line, MappedReader reader, int index) {
+		return line != null ? line.charAt(index) : reader.byteAt(index);
+	}
+
+	private static boolean isSign(int current) {
+		return current == '-' || current == '+';
+	}
+
+	/**
+	 * Reads a number from part of a line. Only the first 18 or so significant
+	 * digits are kept, and a number with more digits than that which aren't
+	 * zeros is not exact, so its double is found by Double.parseDouble.
+	 *
+	 * @param line
+	 *            the line the value is in
+	 * @param start
+	 *            the index the value starts at
+	 * @param end
+	 *            the index the value ends at
+	 * @return the kind of the value, where nothing is read for a STRING
+	 */
+	public char parse(CharSequence line, int start, int end) {
+		char kind = kind(line, start, end);
+		if (kind == STRING)
+			return kind;
+		scale = 0;
+		exact = true;
+		int begin = start;
+		char first = line.charAt(start);
+		boolean negative = first == '-';
+		if (isSign(first))
+			start++;
+		long digits = 0;
+		if (kind == LONG) {
+			for (int i = start; i < end; i++)
+				digits = digits * 10 - Character.digit(line.charAt(i), 10);
+			unscaled = negative ? digits : -digits;
+			return kind;
+		}
+		boolean point = false;
+		int index = start;
+		for (; index < end; index++) {
+			char current = line.charAt(index);
+			if (current == '.') {
+				point = true;
+				continue;
+			}
+			if (current == 'e' || current == 'E')
+				break;
+			int digit = current - '0';
+			if (digits <= DIGITLIMIT) {
+				digits = digits * 10 + digit;
+				scale += point ? 1 : 0;
+			} else {
+				exact = exact && digit == 0;
+				scale -= point ? 0 : 1;
+			}
+		}
+		if (index < end) {
+			index++;
+			boolean negativeExponent = line.charAt(index) == '-';
+			if (isSign(line.charAt(index)))
+				index++;
+			int exponent = 0;
+			for (; index < end; index++) {
+				if (exponent < 100000)
+					exponent = exponent * 10 + line.charAt(index) - '0';
+			}
+			scale += negativeExponent ? exponent : -exponent;
+		}
+		unscaled = negative ? -digits : digits;
+		if (!(exact))
+			approximate = Double.parseDouble(line.subSequence(begin, end).toString());
+		return kind;
+	}
+
+	/**
+	 * Gets the digits of the last number read, without its decimal point.
+	 *
+	 * @return the unscaled number
+	 */
+	public long getUnscaled() {
+		return unscaled;
+	}
+
+	/**
+	 * Gets how many of the digits of the last number read come after its
+	 * decimal point. It is below zero for numbers that end in zeros that were
+	 * left out of the digits.
+	 *
+	 * @return the scale of the number
+	 */
+	public int getScale() {
+		return scale;
+	}
+
+	/**
+	 * Gets whether the digits and scale of the last number read are exactly
+	 * the number.
+	 *
+	 * @return whether the number is exact
+	 */
+	public boolean isExact() {
+		return exact;
+	}
+
+	/**
+	 * Gets the last number read as the closest double to it.
+	 *
+	 * @return the number as a double
+	 */
+	public double toDouble() {
+		return exact ? toDouble(unscaled, scale) : approximate;
+	}
+
+	/**
+	 * Gets the highest long that isn't above the last number read.
+	 * 
+	 * @return the number rounded down, or Long.MIN_VALUE or Long.MAX_VALUE if
+	 *         it doesn't fit in a long
+	 */
+	public long floor() {
+		if (!(exact))
+			return (long) Math.floor(Math.nextDown(approximate));
+		if (scale <= 0) {
+			try {
+				return rescale(unscaled, -scale);
+			} catch (ArithmeticException overflow) {
+				return unscaled < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+			}
+		}
+		if (scale >= LONGPOWERS.length)
+			return unscaled < 0 ? -1 : 0;
+		return Math.floorDiv(unscaled, LONGPOWERS[scale]);
+	}
+
+	/**
+	 * Gets the lowest long that isn't below the last number read.
+	 * 
+	 * @return the number rounded up, or Long.MIN_VALUE or Long.MAX_VALUE if it
+	 *         doesn't fit in a long
+	 */
+	public long ceiling() {
+		if (!(exact))
+			return (long) Math.ceil(Math.nextUp(approximate));
+		if (scale <= 0)
+			return floor();
+		if (scale >= LONGPOWERS.length)
+			return unscaled > 0 ? 1 : 0;
+		return -Math.floorDiv(-unscaled, LONGPOWERS[scale]);
+	}
+
+	/**
+	 * Turns digits and a scale into the closest double to them.
+	 *
+	 * @param myUnscaled
+	 *            the digits of the number
+	 * @param myScale
+	 *            how many of the digits come after the decimal point
+	 * @return the number as a double
+	 */
+	public static double toDouble(long myUnscaled, int myScale) {
+		if (myScale == 0)
+			return myUnscaled;
+		if (-EXACTLIMIT < myUnscaled && myUnscaled < EXACTLIMIT) {
+			if (myScale > 0 && myScale < POWERS.length)
+				return myUnscaled / POWERS[myScale];
+			if (myScale < 0 && -myScale < POWERS.length)
+				return myUnscaled * POWERS[-myScale];
+		}
+		return BigDecimal.valueOf(myUnscaled, myScale).doubleValue();
+	}
+
+	/**
+	 * Moves the decimal point of digits to the right, so they can be added to
+	 * or compared with digits that have a higher scale.
+	 *
+	 * @param myUnscaled
+	 *            the digits of the number
+	 * @param by
+	 *            how many places to move the decimal point, at least zero
+	 * @return the digits at the higher scale
+	 * @throws ArithmeticException
+	 *             if the digits don't fit in a long at the higher scale
+	 */
+	public static long rescale(long myUnscaled, int by) {
+		if (myUnscaled == 0 || by == 0)
+			return myUnscaled;
+		if (by >= LONGPOWERS.length)
+			throw new ArithmeticException("long overflow");
+		return Math.multiplyExact(myUnscaled, LONGPOWERS[by]);
+	}
+
+	/**
+	 * Compares two exact numbers. Digits that would not fit in a long at the
+	 * other number's scale are bigger than any number that does.
+	 *
+	 * @param firstUnscaled
+	 *            the digits of the first number
+	 * @param firstScale
+	 *            the scale of the first number
+	 * @param secondUnscaled
+	 *            the digits of the second number
+	 * @param secondScale
+	 *            the scale of the second number
+	 * @return below zero, zero or above zero as the first number is below,
+	 *         equal to or above the second
+	 */
+	public static int compare(long firstUnscaled, int firstScale, long secondUnscaled, int secondScale) {
+		if (firstScale < secondScale)
+			return -compare(secondUnscaled, secondScale, firstUnscaled, firstScale);
+		try {
+			return Long.compare(firstUnscaled, rescale(secondUnscaled, firstScale - secondScale));
+		} catch (ArithmeticException overflow) {
+			return secondUnscaled > 0 ? -1 : 1;
+		}
+	}
+
+	/**
+	 * Writes digits and a scale the way BigDecimal.toPlainString would, such as
+	 * 12.50 for 1250 and 2.
+	 *
+	 * @param myUnscaled
+	 *            the digits of the number
+	 * @param myScale
+	 *            how many of the digits come after the decimal point
+	 * @return the number as a String
+	 */
+	public static String toString(long myUnscaled, int myScale) {
+		if (myScale == 0 || myUnscaled == 0 && myScale < 0)
+			return Long.toString(myUnscaled);
+		StringBuilder myNumber = new StringBuilder(Long.toString(myUnscaled));
+		for (int i = myScale; i < 0; i++)
+			myNumber.append('0');
+		if (myScale < 0)
+			return myNumber.toString();
+		int sign = myUnscaled < 0 ? 1 : 0;
+		while (myNumber.length() - sign <= myScale)
+			myNumber.insert(sign, '0');
+		return myNumber.insert(myNumber.length() - myScale, '.').toString();
+	}
+
+	/**
+	 * Writes a double without a decimal point if it is a whole number small
+	 * enough to be a long, and the way Double.toString would otherwise.
+	 *
+	 * @param number
+	 *            the double
+	 * @return the double as a String
+	 */
+	public static String toString(double number) {
+		if (number == Math.rint(number) && Math.abs(number) < 1e15)
+			return Long.toString((long) number);
+		return Double.toString(number);
+	}
+
+	/**
+	 * Writes a value the same way as every other value that is the same
+	 * number, so numbers can be matched by their text. Longs are written the
+	 * way Long.toString would and decimals and doubles without their trailing
+	 * zeros, so 7, 007, 7.00 and 7e0 are all written as 7. Anything else is
+	 * left the way it is.
+	 * 
+	 * @param value
+	 *            the value
+	 * @return the value written the same way as every equal number
+	 */
+	public static String canonical(String value) {
+		char kind = kind(value, 0, value.length());
+		if (kind == LONG)
+			return Long.toString(Long.parseLong(value));
+		if (kind == STRING)
+			return value;
+		BigDecimal number;
+		try {
+			number = new BigDecimal(value).stripTrailingZeros();
+		} catch (NumberFormatException error) {
+			// The exponent doesn't fit in an int.
+			return value;
+		}
+		// A huge exponent is left as one rather than written out in zeros.
+		if (Math.abs(number.scale()) > 1000)
+			return number.toString();
+		return number.toPlainString();
+	}
+
+	/**
+	 * Turns a double into a long in the same order, so doubles can be sorted
+	 * as longs.
+	 *
+	 * @param number
+	 *            the double
+	 * @return a long that is below the long of every higher double
+	 */
+	public static long orderOf(double number) {
+		long bits = Double.doubleToLongBits(number + 0.0);
+		return bits < 0 ? bits ^ Long.MAX_VALUE : bits;
+	}
+}
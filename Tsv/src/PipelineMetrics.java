@@ -0,0 +1,290 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * PipelineMetrics records where the time of a run of TSVPipeline goes: how
+ * long each Stage took, how many records came in and went out, how many were
+ * left out by Formatter.hasFormat and why, and how many bytes were read and
+ * written.
+ * 
+ * The stages of a streamed file take turns on every record, and timing every
+ * record would slow the run down noticeably, so only every SAMPLE-th record is
+ * timed and its times are counted SAMPLE times. Stages that run once over the
+ * whole file, such as writing a ColumnTable, are timed exactly. In parallel
+ * mode the times of every thread are added together, so the stages can add up
+ * to more than the wall time.
+ * 
+ * @author Tian Low ttl2132
+ * 
+ */
+public class PipelineMetrics {
+	public static final int SAMPLE = 64;
+	private final long[] nanos = new long[Stage.values().length];
+	private final long[] rejections = new long[Rejection.values().length];
+	private long rowsIn;
+	private long rowsOut;
+	private long bytesRead;
+	private long bytesWritten;
+	private long started = System.nanoTime();
+	private long wallNanos;
+	private int tick;
+	private boolean sampling;
+	private long last;
+
+	/**
+	 * Starts the wall clock of the run over.
+	 */
+	public void start() {
+		started = System.nanoTime();
+	}
+
+	/**
+	 * Stops the wall clock of the run.
+	 */
+	public void finish() {
+		wallNanos = System.nanoTime() - started;
+	}
+
+	/**
+	 * Starts on the next record, deciding whether its stages are timed.
+	 */
+	public void begin() {
+		sampling = (tick++ % SAMPLE) == 0;
+		if (sampling)
+			last = System.nanoTime();
+	}
+
+	/**
+	 * Ends a stage of the current record, adding the time since the last stage
+	 * ended if the record is being timed.
+	 * 
+	 * @param stage
+	 *            the stage that just ended
+	 */
+	public void lap(Stage stage) {
+		if (!sampling)
+			return;
+		long now = System.nanoTime();
+		nanos[stage.ordinal()] += (now - last) * SAMPLE;
+		last = now;
+	}
+
+	/**
+	 * Adds the time of a stage that ran once over the whole file.
+	 * 
+	 * @param stage
+	 *            the stage
+	 * @param since
+	 *            the System.nanoTime when the stage started
+	 */
+	public void time(Stage stage, long since) {
+		nanos[stage.ordinal()] += System.nanoTime() - since;
+	}
+
+	/**
+	 * Counts a line that was read from the file.
+	 * 
+	 * @param bytes
+	 *            the length of the line in bytes, with its line break
+	 */
+	public void read(long bytes) {
+		rowsIn++;
+		bytesRead += bytes;
+	}
+
+	/**
+	 * Counts records that were read all at once, such as from a ColumnCache.
+	 * 
+	 * @param records
+	 *            the number of records
+	 * @param bytes
+	 *            the number of bytes they were read from
+	 */
+	public void read(long records, long bytes) {
+		rowsIn += records;
+		bytesRead += bytes;
+	}
+
+	/**
+	 * Counts a line that was left out for not following the format.
+	 * 
+	 * @param reason
+	 *            why the line was left out
+	 */
+	public void reject(Rejection reason) {
+		if (reason != null)
+			rejections[reason.ordinal()]++;
+	}
+
+	/**
+	 * Counts records that were written to a filtered file.
+	 * 
+	 * @param records
+	 *            the number of records
+	 */
+	public void keep(long records) {
+		rowsOut += records;
+	}
+
+	/**
+	 * Counts bytes that were written to a filtered file.
+	 * 
+	 * @param bytes
+	 *            the number of bytes
+	 */
+	public void wrote(long bytes) {
+		bytesWritten += bytes;
+	}
+
+	/**
+	 * Adds the counts and times of another PipelineMetrics, such as one that
+	 * went through another part of the same file.
+	 * 
+	 * @param other
+	 *            the metrics to add
+	 */
+	public void merge(PipelineMetrics other) {
+		for (int i = 0; i < nanos.length; i++)
+			nanos[i] += other.nanos[i];
+		for (int i = 0; i < rejections.length; i++)
+			rejections[i] += other.rejections[i];
+		rowsIn += other.rowsIn;
+		rowsOut += other.rowsOut;
+		bytesRead += other.bytesRead;
+		bytesWritten += other.bytesWritten;
+	}
+
+	/**
+	 * Gets how long a stage took.
+	 * 
+	 * @param stage
+	 *            the stage
+	 * @return the time of the stage in nanoseconds
+	 */
+	public long getNanos(Stage stage) {
+		return nanos[stage.ordinal()];
+	}
+
+	/**
+	 * Gets how many records a stage got through per second, counting every
+	 * line that was read.
+	 * 
+	 * @param stage
+	 *            the stage
+	 * @return the records per second, or 0 if the stage took no time
+	 */
+	public long getRowsPerSecond(Stage stage) {
+		if (nanos[stage.ordinal()] == 0)
+			return 0;
+		return (long) (rowsIn * 1e9 / nanos[stage.ordinal()]);
+	}
+
+	/**
+	 * Gets how long the whole run took.
+	 * 
+	 * @return the wall time in nanoseconds
+	 */
+	public long getWallNanos() {
+		return wallNanos;
+	}
+
+	/**
+	 * Gets how many lines were read, not counting the first line.
+	 * 
+	 * @return the number of lines read
+	 */
+	public long getRowsIn() {
+		return rowsIn;
+	}
+
+	/**
+	 * Gets how many records were written to filtered files.
+	 * 
+	 * @return the number of records written
+	 */
+	public long getRowsOut() {
+		return rowsOut;
+	}
+
+	/**
+	 * Gets how many lines were left out for not following the format.
+	 * 
+	 * @return the number of lines left out
+	 */
+	public long getRowsRejected() {
+		long rejected = 0;
+		for (long each : rejections)
+			rejected += each;
+		return rejected;
+	}
+
+	/**
+	 * Gets how many lines were left out for one reason.
+	 * 
+	 * @param reason
+	 *            the reason
+	 * @return the number of lines left out for the reason
+	 */
+	public long getRowsRejected(Rejection reason) {
+		return rejections[reason.ordinal()];
+	}
+
+	/**
+	 * Gets how many bytes of the file were read.
+	 * 
+	 * @return the number of bytes read
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * Gets how many bytes were written to filtered files.
+	 * 
+	 * @return the number of bytes written
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Writes the metrics to a file with one key=value pair on each line, which
+	 * can be read with java.util.Properties or any other tool.
+	 * 
+	 * @param fileName
+	 *            the name of the summary file
+	 */
+	public void writeSummary(String fileName) {
+		try (BufferedWriter bWriter = new BufferedWriter(new FileWriter(fileName, false))) {
+			bWriter.write(toString());
+		} catch (IOException error) {
+			System.out.println("The metrics could not be written.");
+		}
+	}
+
+	/**
+	 * Converts the metrics into key=value pairs, one on each line.
+	 * 
+	 * @return the metrics as a String
+	 */
+	@Override
+	public String toString() {
+		StringBuilder summary = new StringBuilder();
+		summary.append("wallMillis=").append(wallNanos / 1000000).append('\n');
+		summary.append("rowsIn=").append(rowsIn).append('\n');
+		summary.append("rowsOut=").append(rowsOut).append('\n');
+		summary.append("rowsRejected=").append(getRowsRejected()).append('\n');
+		for (Rejection reason : Rejection.values())
+			summary.append("rowsRejected.").append(reason).append('=').append(getRowsRejected(reason)).append('\n');
+		summary.append("bytesRead=").append(bytesRead).append('\n');
+		summary.append("bytesWritten=").append(bytesWritten).append('\n');
+		for (Stage stage : Stage.values()) {
+			summary.append("stage.").append(stage).append(".millis=").append(getNanos(stage) / 1000000)
+					.append('\n');
+			summary.append("stage.").append(stage).append(".rowsPerSecond=").append(getRowsPerSecond(stage))
+					.append('\n');
+		}
+		return summary.toString();
+	}
+}
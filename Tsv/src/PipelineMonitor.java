@@ -0,0 +1,124 @@
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * PipelineMonitor publishes the metrics of the latest run of a TSVPipeline as
+ * a JMX MBean, so a scheduler or a JMX console can watch for runs that slow
+ * down.
+ * 
+ * @author Tian Low ttl2132
+ *
+ */
+public class PipelineMonitor implements PipelineMonitorMBean {
+	private volatile PipelineMetrics latest = new PipelineMetrics();
+	private volatile long runs;
+
+	/**
+	 * Registers a PipelineMonitor with the platform MBeanServer under the name
+	 * Filter:type=TSVPipeline,name= followed by the given name.
+	 * 
+	 * @param name
+	 *            the name of the pipeline
+	 * @return the PipelineMonitor, or null if it couldn't be registered
+	 */
+	public static PipelineMonitor register(String name) {
+		PipelineMonitor monitor = new PipelineMonitor();
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(monitor,
+					new ObjectName("Filter:type=TSVPipeline,name=" + ObjectName.quote(name)));
+		} catch (JMException error) {
+			System.out.println("The metrics could not be registered.");
+			return null;
+		}
+		return monitor;
+	}
+
+	/**
+	 * Replaces the published metrics with the metrics of a run that just
+	 * finished.
+	 * 
+	 * @param metrics
+	 *            the metrics of the run
+	 */
+	public void update(PipelineMetrics metrics) {
+		latest = metrics;
+		runs++;
+	}
+
+	@Override
+	public long getRuns() {
+		return runs;
+	}
+
+	@Override
+	public long getWallMillis() {
+		return latest.getWallNanos() / 1000000;
+	}
+
+	@Override
+	public long getRowsIn() {
+		return latest.getRowsIn();
+	}
+
+	@Override
+	public long getRowsOut() {
+		return latest.getRowsOut();
+	}
+
+	@Override
+	public long getRowsRejected() {
+		return latest.getRowsRejected();
+	}
+
+	@Override
+	public long getBytesRead() {
+		return latest.getBytesRead();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return latest.getBytesWritten();
+	}
+
+	@Override
+	public long getReadMillis() {
+		return latest.getNanos(Stage.READ) / 1000000;
+	}
+
+	@Override
+	public long getFormatMillis() {
+		return latest.getNanos(Stage.FORMAT) / 1000000;
+	}
+
+	@Override
+	public long getCleanseMillis() {
+		return latest.getNanos(Stage.CLEANSE) / 1000000;
+	}
+
+	@Override
+	public long getJoinMillis() {
+		return latest.getNanos(Stage.JOIN) / 1000000;
+	}
+
+	@Override
+	public long getFilterMillis() {
+		return latest.getNanos(Stage.FILTER) / 1000000;
+	}
+
+	@Override
+	public long getWriteMillis() {
+		return latest.getNanos(Stage.WRITE) / 1000000;
+	}
+
+	@Override
+	public long getComputeMillis() {
+		return latest.getNanos(Stage.COMPUTE) / 1000000;
+	}
+
+	@Override
+	public String getSummary() {
+		return latest.toString();
+	}
+}
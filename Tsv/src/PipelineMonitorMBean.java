@@ -0,0 +1,38 @@
+/**
+ * The JMX view of PipelineMonitor, with the metrics of the latest run of a
+ * TSVPipeline.
+ * 
+ * @author Tian Low ttl2132
+ *
+ */
+public interface PipelineMonitorMBean {
+	long getRuns();
+
+	long getWallMillis();
+
+	long getRowsIn();
+
+	long getRowsOut();
+
+	long getRowsRejected();
+
+	long getBytesRead();
+
+	long getBytesWritten();
+
+	long getReadMillis();
+
+	long getFormatMillis();
+
+	long getCleanseMillis();
+
+	long getJoinMillis();
+
+	long getFilterMillis();
+
+	long getWriteMillis();
+
+	long getComputeMillis();
+
+	String getSummary();
+}
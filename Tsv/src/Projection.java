@@ -0,0 +1,226 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Projection works out which fields of a file a TSVFilter actually uses. Only
+ * the fields read by the select, compute and group by are turned into Strings
+ * for each record, and the rest are only checked against the format, so a
+ * filter over a file with hundreds of fields that only touches a few of them
+ * doesn't make a String for every field of every record. A Projection can
+ * also keep only some of the fields, in the order they are given, for the
+ * filtered file.
+ *
+ * The fields of a record go into an array as long as the first line, where
+ * the fields that aren't used are left as they were.
+ *
+ * @author Tian Low ttl2132
+ *
+ */
+public class Projection {
+	private final int count;
+	private final int[] read;
+	private final int[] columns;
+	private final boolean all;
+	private final String firstLine;
+	// Where each field of the record being written starts.
+	private final int[] starts;
+
+	/**
+	 * Constructs a Projection. Written fields that aren't in the first line
+	 * are reported and left out.
+	 *
+	 * @param myFirstLine
+	 *            the cleansed first line of the file
+	 * @param readFields
+	 *            the fields whose values are used
+	 * @param writtenFields
+	 *            the fields written to the filtered file, in order, or none to
+	 *            write every field
+	 */
+	public Projection(String myFirstLine, List<String> readFields, String[] writtenFields) {
+		List<String> fields = Arrays.asList(myFirstLine.split("\t"));
+		count = fields.size();
+		boolean[] used = new boolean[count];
+		for (String readField : readFields) {
+			int index = fields.lastIndexOf(readField);
+			if (index != -1)
+				used[index] = true;
+		}
+		int usedCount = 0;
+		for (boolean each : used)
+			usedCount += each ? 1 : 0;
+		read = new int[usedCount];
+		for (int i = 0, j = 0; i < count; i++) {
+			if (used[i])
+				read[j++] = i;
+		}
+		ArrayList<Integer> written = new ArrayList<Integer>();
+		for (String writtenField : writtenFields) {
+			int index = fields.lastIndexOf(writtenField);
+			if (index == -1)
+				System.out.println("Accurate field not specified.");
+			else
+				written.add(index);
+		}
+		if (writtenFields.length == 0) {
+			for (int i = 0; i < count; i++)
+				written.add(i);
+		}
+		columns = new int[written.size()];
+		boolean inOrder = columns.length == count;
+		StringBuilder myFirstLineBuilder = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = written.get(i);
+			inOrder = inOrder && columns[i] == i;
+			myFirstLineBuilder.append(fields.get(columns[i])).append('\t');
+		}
+		all = inOrder;
+		firstLine = all ? myFirstLine : myFirstLineBuilder.toString();
+		starts = new int[count + 1];
+	}
+
+	/**
+	 * Gets the first line of the filtered file.
+	 *
+	 * @return the written fields, with a tab after each
+	 */
+	public String getFirstLine() {
+		return firstLine;
+	}
+
+	/**
+	 * Gets the format of the written fields.
+	 *
+	 * @param format
+	 *            the format of the file
+	 * @return the format of the filtered file
+	 */
+	public String getFormat(String format) {
+		if (all)
+			return format;
+		StringBuilder myFormat = new StringBuilder();
+		for (int column : columns)
+			myFormat.append(column < format.length() ? format.charAt(column) : '1');
+		return myFormat.toString();
+	}
+
+	/**
+	 * Gets the fields written to the filtered file.
+	 *
+	 * @return the indices of the written fields, in order
+	 */
+	public int[] getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Makes an array for the fields of the records.
+	 *
+	 * @return an array as long as the first line
+	 */
+	public String[] newWords() {
+		return new String[count];
+	}
+
+	/**
+	 * Turns the used fields of the line a MappedReader is on into Strings,
+	 * straight from the mapped bytes. Nothing else of the line is copied, so
+	 * the select can be checked before the record is put together.
+	 *
+	 * @param reader
+	 *            the MappedReader on a line that follows the format
+	 * @param words
+	 *            where the used fields are put
+	 */
+	public void read(MappedReader reader, String[] words) {
+		for (int column : read)
+			words[column] = reader.field(column);
+	}
+
+	/**
+	 * Finds the used fields of a cleansed record, going through its fields
+	 * only as far as the last used one.
+	 *
+	 * @param record
+	 *            a cleansed record, with a tab after each field
+	 * @param words
+	 *            where the used fields are put
+	 */
+	public void read(String record, String[] words) {
+		int start = 0;
+		int column = 0;
+		for (int used : read) {
+			for (; column < used; column++)
+				start = next(record, start);
+			int end = next(record, start);
+			start = Math.min(start, record.length());
+			words[used] = record.substring(start, Math.max(start, end - 1));
+			start = end;
+			column++;
+		}
+	}
+
+	/**
+	 * Finds where the field after the one starting at an index starts.
+	 *
+	 * @param record
+	 *            a cleansed record, with a tab after each field
+	 * @param start
+	 *            where a field starts
+	 * @return where the next field starts, or one past the end of the record
+	 */
+	private static int next(String record, int start) {
+		if (start >= record.length())
+			return record.length() + 1;
+		int end = record.indexOf('\t', start);
+		return end == -1 ? record.length() + 1 : end + 1;
+	}
+
+	/**
+	 * Puts the written fields of the line a MappedReader is on together, once
+	 * the record is kept.
+	 *
+	 * @param reader
+	 *            the MappedReader on a line that follows the format
+	 * @param builder
+	 *            the StringBuilder the record is put together in
+	 * @return the record to write, with a tab after each field
+	 */
+	public String write(MappedReader reader, StringBuilder builder) {
+		if (all)
+			return reader.joinFields(builder);
+		builder.setLength(0);
+		for (int column : columns)
+			reader.appendField(column, builder).append('\t');
+		return builder.toString();
+	}
+
+	/**
+	 * Keeps only the written fields of a cleansed record, once it is kept.
+	 * The same array of where the fields start is used for every record, so
+	 * a Projection should only write Strings on one thread at a time.
+	 *
+	 * @param record
+	 *            a cleansed record, with a tab after each field
+	 * @param builder
+	 *            the StringBuilder the record is put together in
+	 * @return the record to write, with a tab after each field
+	 */
+	public String write(String record, StringBuilder builder) {
+		if (all)
+			return record;
+		int start = 0;
+		for (int i = 0; i < count; i++) {
+			starts[i] = Math.min(start, record.length());
+			start = next(record, starts[i]);
+		}
+		starts[count] = start;
+		builder.setLength(0);
+		for (int column : columns) {
+			builder.append(record, starts[column], Math.max(starts[column], starts[column + 1] - 1))
+					.append('\t');
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,303 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * QuantileValues estimates quantiles of the numbers of a field, such as the
+ * median or the 99th percentile, for QUANTILES with a KLL sketch. Numbers are
+ * kept in levels, where each number in a level stands for twice as many
+ * numbers as one in the level below. When a level is full it is sorted and
+ * every other number, starting at a random one of the first two, moves up a
+ * level, so the memory stays bounded while the numbers left are still spread
+ * the same way as all of the numbers. Lower levels get smaller the further
+ * they are from the top, so the sketch holds about three times k numbers, and
+ * the rank of a quantile it gives is usually within about 1.7 / k of the real
+ * one. Until the first level fills up, the quantiles are exact. Values that
+ * aren't numbers are left out.
+ *
+ * @author Tian Low ttl2132
+ *
+ */
+public class QuantileValues extends ValueSketch {
+	// The quantiles given by default: the median, p95 and p99.
+	public static final double[] DEFAULTQUANTILES = { 0.5, 0.95, 0.99 };
+	private static final int MINWIDTH = 8;
+	private static final double SHRINK = 2.0 / 3.0;
+	private final int k;
+	private final double[] quantiles;
+	private final ArrayList<long[]> levels = new ArrayList<long[]>();
+	private int[] sizes = new int[0];
+	private long count;
+	private final Random random = new Random(0x5453564b4c4cL);
+
+	/**
+	 * Constructs an empty QuantileValues.
+	 *
+	 * @param size
+	 *            about how many numbers are kept in memory
+	 * @param myQuantiles
+	 *            the quantiles to give, each between 0 and 1
+	 */
+	public QuantileValues(int size, double... myQuantiles) {
+		k = Math.max(MINWIDTH, size / 3);
+		quantiles = myQuantiles.length == 0 ? DEFAULTQUANTILES : myQuantiles.clone();
+		for (double quantile : quantiles) {
+			if (!(quantile >= 0 && quantile <= 1))
+				throw new IllegalArgumentException("Quantiles have to be between 0 and 1.");
+		}
+	}
+
+	@Override
+	public void add(String value) {
+		if (RowValidator.isLong(value, 0, value.length()))
+			add(Long.parseLong(value));
+	}
+
+	@Override
+	public void add(long number) {
+		if (levels.isEmpty())
+			addLevel();
+		put(0, number);
+		count++;
+		if (sizes[0] >= capacity(0))
+			compact();
+	}
+
+	@Override
+	public void add(String value, long times) {
+		if (RowValidator.isLong(value, 0, value.length())) {
+			long number = Long.parseLong(value);
+			for (long i = 0; i < times; i++)
+				add(number);
+		}
+	}
+
+	/**
+	 * Adds a level on top of the others.
+	 */
+	private void addLevel() {
+		levels.add(new long[MINWIDTH]);
+		sizes = Arrays.copyOf(sizes, levels.size());
+	}
+
+	/**
+	 * Gets how many numbers a level holds before it is compacted.
+	 *
+	 * @param level
+	 *            the level, where 0 is the bottom
+	 * @return the number of numbers the level holds
+	 */
+	private int capacity(int level) {
+		int depth = levels.size() - 1 - level;
+		return Math.max(MINWIDTH, (int) Math.ceil(k * Math.pow(SHRINK, depth)));
+	}
+
+	/**
+	 * Puts a number in a level, making room for it if needed.
+	 *
+	 * @param level
+	 *            the level
+	 * @param number
+	 *            the number
+	 */
+	private void put(int level, long number) {
+		long[] values = levels.get(level);
+		if (sizes[level] == values.length) {
+			values = Arrays.copyOf(values, values.length * 2);
+			levels.set(level, values);
+		}
+		values[sizes[level]++] = number;
+	}
+
+	/**
+	 * Compacts the lowest level that is full, and the levels above it that
+	 * fill up in turn, until every level fits.
+	 */
+	private void compact() {
+		for (int level = 0; level < levels.size(); level++) {
+			if (sizes[level] < capacity(level))
+				continue;
+			if (level + 1 == levels.size())
+				addLevel();
+			long[] values = levels.get(level);
+			int size = sizes[level];
+			Arrays.sort(values, 0, size);
+			// An odd number out stays behind, so the weight adds up.
+			int kept = size % 2;
+			for (int i = kept + random.nextInt(2); i < size; i += 2)
+				put(level + 1, values[i]);
+			sizes[level] = kept;
+		}
+	}
+
+	@Override
+	public void merge(ValueSketch other) {
+		QuantileValues myOther = (QuantileValues) other;
+		while (levels.size() < myOther.levels.size())
+			addLevel();
+		for (int level = 0; level < myOther.levels.size(); level++) {
+			long[] values = myOther.levels.get(level);
+			for (int i = 0; i < myOther.sizes[level]; i++)
+				put(level, values[i]);
+		}
+		count += myOther.count;
+		compact();
+	}
+
+	@Override
+	public ValueSketch empty() {
+		return new QuantileValues(k * 3, quantiles);
+	}
+
+	/**
+	 * Finds a quantile from the numbers kept, each counted as many times as
+	 * the numbers it stands for.
+	 *
+	 * @param sorted
+	 *            the numbers kept, sorted
+	 * @param weights
+	 *            how many numbers each one stands for, in the same order
+	 * @param total
+	 *            how many numbers they stand for altogether
+	 * @param quantile
+	 *            the quantile, between 0 and 1
+	 * @return the number at the quantile
+	 */
+	private static long quantile(long[] sorted, long[] weights, long total, double quantile) {
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			seen += weights[i];
+			if (seen >= rank)
+				return sorted[i];
+		}
+		return sorted[sorted.length - 1];
+	}
+
+	/**
+	 * Gets each quantile asked for, such as p50: 12, p95: 40, p99: 97.
+	 *
+	 * @return the quantiles, or unavailable if there were no numbers
+	 */
+	@Override
+	public String result() {
+		int kept = 0;
+		for (int size : sizes)
+			kept += size;
+		if (kept == 0)
+			return "unavailable";
+		// Sort the numbers with their levels packed in, so the weights follow.
+		long[] packed = new long[kept];
+		int index = 0;
+		for (int level = 0; level < levels.size(); level++) {
+			long[] values = levels.get(level);
+			for (int i = 0; i < sizes[level]; i++)
+				packed[index++] = values[i];
+		}
+		Integer[] order = new Integer[kept];
+		for (int i = 0; i < kept; i++)
+			order[i] = i;
+		final long[] values = packed;
+		Arrays.sort(order, (first, second) -> Long.compare(values[first], values[second]));
+		long[] sorted = new long[kept];
+		long[] weights = new long[kept];
+		long total = 0;
+		for (int i = 0; i < kept; i++) {
+			sorted[i] = packed[order[i]];
+			weights[i] = 1L << levelOf(order[i]);
+			total += weights[i];
+		}
+		StringBuilder myResult = new StringBuilder();
+		for (double myQuantile : quantiles) {
+			myResult.append(myResult.length() == 0 ? "" : ", ").append(name(myQuantile)).append(": ")
+					.append(quantile(sorted, weights, total, myQuantile));
+		}
+		return myResult.toString();
+	}
+
+	/**
+	 * Finds which level a number packed by result came from.
+	 *
+	 * @param packedIndex
+	 *            where the number is in the packed numbers
+	 * @return the level of the number
+	 */
+	private int levelOf(int packedIndex) {
+		int level = 0;
+		while (packedIndex >= sizes[level]) {
+			packedIndex -= sizes[level];
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * Names a quantile as a percentile, such as p99 or p99.9.
+	 *
+	 * @param quantile
+	 *            the quantile, between 0 and 1
+	 * @return the name of the quantile
+	 */
+	private static String name(double quantile) {
+		double percentile = Math.round(quantile * 100000) / 1000.0;
+		if (percentile == Math.rint(percentile))
+			return "p" + (long) percentile;
+		return "p" + percentile;
+	}
+
+	@Override
+	public void writeTo(DataOutputStream output) throws IOException {
+		output.writeUTF(toString());
+		output.writeInt(k * 3);
+		output.writeInt(quantiles.length);
+		for (double quantile : quantiles)
+			output.writeDouble(quantile);
+		output.writeLong(count);
+		output.writeInt(levels.size());
+		for (int level = 0; level < levels.size(); level++) {
+			output.writeInt(sizes[level]);
+			long[] values = levels.get(level);
+			for (int i = 0; i < sizes[level]; i++)
+				output.writeLong(values[i]);
+		}
+	}
+
+	/**
+	 * Reads the rest of a QuantileValues that was written by writeTo.
+	 *
+	 * @param input
+	 *            where the QuantileValues is read from
+	 * @return the QuantileValues
+	 * @throws IOException
+	 *             if the QuantileValues can't be read
+	 */
+	public static QuantileValues readFrom(DataInputStream input) throws IOException {
+		int size = input.readInt();
+		double[] myQuantiles = new double[input.readInt()];
+		for (int i = 0; i < myQuantiles.length; i++)
+			myQuantiles[i] = input.readDouble();
+		QuantileValues myValues = new QuantileValues(size, myQuantiles);
+		myValues.count = input.readLong();
+		int levelCount = input.readInt();
+		for (int level = 0; level < levelCount; level++) {
+			myValues.addLevel();
+			int levelSize = input.readInt();
+			for (int i = 0; i < levelSize; i++)
+				myValues.put(level, input.readLong());
+		}
+		return myValues;
+	}
+
+	/**
+	 * Names the statistic the QuantileValues was made for.
+	 *
+	 * @return QUANTILES
+	 */
+	@Override
+	public String toString() {
+		return "QUANTILES";
+	}
+}
@@ -0,0 +1,521 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * RecordSorter puts the filtered records in order by one or more fields, like
+ * ORDER BY in SQL, before they are written. Long fields are compared as
+ * longs, decimal and double fields by their doubles and String fields as
+ * text, each either from lowest to highest or from highest to lowest, and
+ * records that tie keep the order they were read in.
+ *
+ * Only a bounded number of records is kept in memory. Once that many are
+ * added, they are sorted and written to a run file on disk by one of the sort
+ * threads while the next records come in, and at the end the run files are
+ * merged together, up to FANIN at a time, so files much larger than memory can
+ * be sorted. If every record fits in memory, nothing is written to disk. The
+ * order fields of the records in memory are kept side by side in arrays and
+ * the records are sorted by their index, so sorting doesn't make an object for
+ * each record.
+ *
+ * @author Tian Low ttl2132
+ *
+ */
+public class RecordSorter {
+	// How many records are sorted in memory at once by default.
+	public static final int DEFAULTRECORDS = 1 << 17;
+	// How many run files are merged at once.
+	private static final int FANIN = 64;
+	// Records in pieces this small are sorted by insertion before merging.
+	private static final int INSERTION = 32;
+	private final int[] keyIndices;
+	private final boolean[] numberKeys;
+	private final boolean[] doubleKeys;
+	private final boolean[] descending;
+	private final int keys;
+	private final boolean stringKeys;
+	private final int maxRecords;
+	private final int threads;
+	private final ArrayDeque<Future<File>> pending = new ArrayDeque<Future<File>>();
+	private final ArrayList<File> runs = new ArrayList<File>();
+	private ExecutorService sorters;
+	private Run run;
+	private final NumberParser parser = new NumberParser();
+
+	/**
+	 * Constructs a RecordSorter. Order fields that aren't in the first line
+	 * are reported and left out of the order.
+	 *
+	 * @param myFirstLine
+	 *            the cleansed first line of the file
+	 * @param myFormat
+	 *            the format of the file, as NumberParser kinds
+	 * @param myFields
+	 *            the fields the records are put in order by, most important
+	 *            first
+	 * @param myDescending
+	 *            whether each field goes from highest to lowest
+	 * @param myMaxRecords
+	 *            how many records are sorted in memory at once
+	 * @param myThreads
+	 *            how many threads sort and write the runs
+	 */
+	public RecordSorter(String myFirstLine, String myFormat, String[] myFields, boolean[] myDescending,
+			int myMaxRecords, int myThreads) {
+		List<String> fields = Arrays.asList(myFirstLine.split("\t"));
+		keys = myFields.length;
+		keyIndices = new int[keys];
+		numberKeys = new boolean[keys];
+		doubleKeys = new boolean[keys];
+		boolean anyString = false;
+		for (int i = 0; i < keys; i++) {
+			keyIndices[i] = fields.lastIndexOf(myFields[i]);
+			if (keyIndices[i] == -1)
+				System.out.println("Accurate field not specified.");
+			else if (keyIndices[i] < myFormat.length()) {
+				char type = myFormat.charAt(keyIndices[i]);
+				doubleKeys[i] = type == NumberParser.DECIMAL || type == NumberParser.DOUBLE;
+				numberKeys[i] = type == NumberParser.LONG || doubleKeys[i];
+			}
+			anyString = anyString || keyIndices[i] != -1 && !(numberKeys[i]);
+		}
+		stringKeys = anyString;
+		descending = myDescending.clone();
+		maxRecords = Math.max(1, myMaxRecords);
+		threads = Math.max(1, myThreads);
+		run = new Run();
+	}
+
+	/**
+	 * Adds a record to be sorted.
+	 *
+	 * @param record
+	 *            a cleansed and filtered record
+	 * @throws IOException
+	 *             if the records have to be written to disk and can't be
+	 */
+	public void add(String record) throws IOException {
+		if (run.count == maxRecords)
+			spill();
+		run.add(record);
+	}
+
+	/**
+	 * Finds the order fields of a record. A number that can't be parsed is
+	 * put after every number.
+	 *
+	 * @param record
+	 *            a cleansed record, with a tab after each field
+	 * @param numbers
+	 *            where the number fields are put
+	 * @param strings
+	 *            where the String fields are put, or null if there are none
+	 * @param offset
+	 *            where the fields of the record start in numbers and strings
+	 */
+	private void parse(String record, long[] numbers, String[] strings, int offset) {
+		for (int i = 0; i < keys; i++) {
+			if (keyIndices[i] == -1)
+				continue;
+			int start = 0;
+			for (int j = 0; j < keyIndices[i] && start != -1; j++) {
+				start = record.indexOf('\t', start);
+				start = start == -1 ? -1 : start + 1;
+			}
+			start = start == -1 ? record.length() : start;
+			int end = record.indexOf('\t', start);
+			end = end == -1 ? record.length() : end;
+			if (!(numberKeys[i]))
+				strings[offset + i] = record.substring(start, end);
+			else if (doubleKeys[i])
+				numbers[offset + i] = parser.parse(record, start, end) == NumberParser.STRING ? Long.MAX_VALUE
+						: NumberParser.orderOf(parser.toDouble());
+			else if (RowValidator.isLong(record, start, end))
+				numbers[offset + i] = parseLong(record, start, end);
+			else
+				numbers[offset + i] = Long.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Parses a long that is known to be valid from part of a String, without
+	 * making a String of the part first.
+	 *
+	 * @param text
+	 *            the String
+	 * @param start
+	 *            where the long starts
+	 * @param end
+	 *            where the long ends
+	 * @return the long
+	 */
+	private static long parseLong(String text, int start, int end) {
+		char first = text.charAt(start);
+		boolean negative = first == '-';
+		if (first == '-' || first == '+')
+			start++;
+		long result = 0;
+		for (int i = start; i < end; i++)
+			result = result * 10 - (text.charAt(i) - '0');
+		return negative ? result : -result;
+	}
+
+	/**
+	 * Compares the order fields of two records.
+	 *
+	 * @param firstNumbers
+	 *            the number fields of the first record
+	 * @param firstStrings
+	 *            the String fields of the first record
+	 * @param first
+	 *            where the fields of the first record start
+	 * @param secondNumbers
+	 *            the number fields of the second record
+	 * @param secondStrings
+	 *            the String fields of the second record
+	 * @param second
+	 *            where the fields of the second record start
+	 * @return less than 0 if the first record goes first, more than 0 if the
+	 *         second one does and 0 if they tie
+	 */
+	private int compare(long[] firstNumbers, String[] firstStrings, int first, long[] secondNumbers,
+			String[] secondStrings, int second) {
+		for (int i = 0; i < keys; i++) {
+			if (keyIndices[i] == -1)
+				continue;
+			int result;
+			if (numberKeys[i])
+				result = Long.compare(firstNumbers[first + i], secondNumbers[second + i]);
+			else
+				result = firstStrings[first + i].compareTo(secondStrings[second + i]);
+			if (result != 0)
+				return descending[i] ? -result : result;
+		}
+		return 0;
+	}
+
+	/**
+	 * Hands the records in memory to a sort thread to be sorted and written
+	 * to a run file, waiting for the oldest run first if every thread is busy
+	 * so no more than one run per thread is waiting in memory.
+	 *
+	 * @throws IOException
+	 *             if an earlier run couldn't be written
+	 */
+	private void spill() throws IOException {
+		if (sorters == null) {
+			sorters = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "sort");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		if (pending.size() >= threads)
+			runs.add(finished(pending.poll()));
+		final Run full = run;
+		pending.add(sorters.submit(new Callable<File>() {
+			@Override
+			public File call() throws IOException {
+				int[] order = full.sort();
+				File myRun = File.createTempFile("sorted", ".run");
+				try (DataOutputStream output = new DataOutputStream(
+						new BufferedOutputStream(new FileOutputStream(myRun), 1 << 16))) {
+					for (int index : order)
+						writeRecord(output, full.records[index]);
+				}
+				return myRun;
+			}
+		}));
+		run = new Run();
+	}
+
+	/**
+	 * Waits for a run to be sorted and written.
+	 *
+	 * @param myRun
+	 *            the run being sorted by a sort thread
+	 * @return the run file
+	 * @throws IOException
+	 *             if the run couldn't be written
+	 */
+	private static File finished(Future<File> myRun) throws IOException {
+		try {
+			return myRun.get();
+		} catch (InterruptedException error) {
+			Thread.currentThread().interrupt();
+			throw new IOException("The sort was interrupted.", error);
+		} catch (ExecutionException error) {
+			throw new IOException("A run could not be sorted.", error.getCause());
+		}
+	}
+
+	/**
+	 * Writes every record in order once they have all been added. The run
+	 * files are deleted afterwards.
+	 *
+	 * @param writer
+	 *            the filtered file
+	 * @throws IOException
+	 *             if the run files can't be read or the filtered file can't
+	 *             be written
+	 */
+	public void writeTo(RecordWriter writer) throws IOException {
+		try {
+			if (sorters == null) {
+				for (int index : run.sort())
+					writer.write(run.records[index]).endRecord();
+				return;
+			}
+			if (run.count > 0)
+				spill();
+			run = null;
+			while (!(pending.isEmpty()))
+				runs.add(finished(pending.poll()));
+			// The earliest runs are merged first so records that tie stay in
+			// the order they were read.
+			while (runs.size() > FANIN) {
+				List<File> first = new ArrayList<File>(runs.subList(0, FANIN));
+				File merged = File.createTempFile("sorted", ".run");
+				try (DataOutputStream output = new DataOutputStream(
+						new BufferedOutputStream(new FileOutputStream(merged), 1 << 16))) {
+					merge(first, output, null);
+				}
+				runs.subList(0, FANIN).clear();
+				runs.add(0, merged);
+				for (File myRun : first)
+					myRun.delete();
+			}
+			merge(runs, null, writer);
+		} finally {
+			if (sorters != null)
+				sorters.shutdown();
+			for (Future<File> myRun : pending) {
+				try {
+					myRun.get().delete();
+				} catch (InterruptedException | ExecutionException error) {
+				}
+			}
+			for (File myRun : runs)
+				myRun.delete();
+			runs.clear();
+		}
+	}
+
+	/**
+	 * Merges run files in order, either into another run file or into the
+	 * filtered file.
+	 *
+	 * @param myRuns
+	 *            the run files, in the order they were written
+	 * @param output
+	 *            the run file to merge into, or null
+	 * @param writer
+	 *            the filtered file to merge into, or null
+	 * @throws IOException
+	 *             if a run file can't be read or written
+	 */
+	private void merge(List<File> myRuns, DataOutputStream output, RecordWriter writer) throws IOException {
+		PriorityQueue<Cursor> heads = new PriorityQueue<Cursor>(Math.max(1, myRuns.size()), new Comparator<Cursor>() {
+			@Override
+			public int compare(Cursor first, Cursor second) {
+				int result = RecordSorter.this.compare(first.numbers, first.strings, 0, second.numbers,
+						second.strings, 0);
+				return result != 0 ? result : Integer.compare(first.index, second.index);
+			}
+		});
+		ArrayList<Cursor> cursors = new ArrayList<Cursor>();
+		try {
+			for (int i = 0; i < myRuns.size(); i++) {
+				Cursor cursor = new Cursor(myRuns.get(i), i);
+				cursors.add(cursor);
+				if (cursor.next())
+					heads.add(cursor);
+			}
+			while (!(heads.isEmpty())) {
+				Cursor cursor = heads.poll();
+				if (output != null)
+					writeRecord(output, cursor.record);
+				else
+					writer.write(cursor.record).endRecord();
+				if (cursor.next())
+					heads.add(cursor);
+			}
+		} finally {
+			for (Cursor cursor : cursors)
+				cursor.input.close();
+		}
+	}
+
+	/**
+	 * Writes a record to a run file as its length and its UTF-8 bytes.
+	 *
+	 * @param output
+	 *            the run file
+	 * @param record
+	 *            the record
+	 * @throws IOException
+	 *             if the run file can't be written
+	 */
+	private static void writeRecord(DataOutputStream output, String record) throws IOException {
+		byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	/**
+	 * The records in memory, with the order fields of each record kept next to
+	 * the ones of the record before it.
+	 */
+	private class Run {
+		private String[] records = new String[Math.min(maxRecords, 1024)];
+		private long[] numbers = new long[records.length * keys];
+		private String[] strings = stringKeys ? new String[records.length * keys] : null;
+		private int count;
+
+		/**
+		 * Adds a record, making room for it if needed.
+		 *
+		 * @param record
+		 *            a cleansed record
+		 */
+		private void add(String record) {
+			if (count == records.length) {
+				int capacity = Math.min(maxRecords, count * 2);
+				records = Arrays.copyOf(records, capacity);
+				numbers = Arrays.copyOf(numbers, capacity * keys);
+				if (strings != null)
+					strings = Arrays.copyOf(strings, capacity * keys);
+			}
+			records[count] = record;
+			parse(record, numbers, strings, count * keys);
+			count++;
+		}
+
+		/**
+		 * Compares two records of the run.
+		 *
+		 * @param first
+		 *            the index of one record
+		 * @param second
+		 *            the index of another record
+		 * @return less than 0 if the first record goes first, more than 0 if
+		 *         the second one does and 0 if they tie
+		 */
+		private int compare(int first, int second) {
+			return RecordSorter.this.compare(numbers, strings, first * keys, numbers, strings, second * keys);
+		}
+
+		/**
+		 * Sorts the records of the run with a merge sort, so records that tie
+		 * stay in the order they were added.
+		 *
+		 * @return the indices of the records, in order
+		 */
+		private int[] sort() {
+			int[] order = new int[count];
+			for (int i = 0; i < count; i++)
+				order[i] = i;
+			for (int start = 0; start < count; start += INSERTION) {
+				int end = Math.min(count, start + INSERTION);
+				for (int i = start + 1; i < end; i++) {
+					int index = order[i];
+					int j = i - 1;
+					while (j >= start && compare(order[j], index) > 0) {
+						order[j + 1] = order[j];
+						j--;
+					}
+					order[j + 1] = index;
+				}
+			}
+			int[] merged = new int[count];
+			for (int width = INSERTION; width < count; width *= 2) {
+				for (int start = 0; start < count; start += 2 * width) {
+					int middle = Math.min(count, start + width);
+					int end = Math.min(count, start + 2 * width);
+					int left = start;
+					int right = middle;
+					for (int i = start; i < end; i++) {
+						if (right == end || left < middle && compare(order[left], order[right]) <= 0)
+							merged[i] = order[left++];
+						else
+							merged[i] = order[right++];
+					}
+				}
+				int[] swap = order;
+				order = merged;
+				merged = swap;
+			}
+			return order;
+		}
+	}
+
+	/**
+	 * Where the merge is in one run file, along with the order fields of the
+	 * record it is on.
+	 */
+	private class Cursor {
+		private final DataInputStream input;
+		private final int index;
+		private final long[] numbers = new long[keys];
+		private final String[] strings = new String[keys];
+		private String record;
+
+		/**
+		 * Opens a run file.
+		 *
+		 * @param myRun
+		 *            the run file
+		 * @param myIndex
+		 *            where the run file is in the order they were written
+		 * @throws IOException
+		 *             if the run file can't be opened
+		 */
+		private Cursor(File myRun, int myIndex) throws IOException {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(myRun), 1 << 16));
+			index = myIndex;
+		}
+
+		/**
+		 * Reads the next record of the run file.
+		 *
+		 * @return whether there was another record
+		 * @throws IOException
+		 *             if the run file can't be read
+		 */
+		private boolean next() throws IOException {
+			int length;
+			try {
+				length = input.readInt();
+			} catch (EOFException end) {
+				return false;
+			}
+			byte[] bytes = new byte[length];
+			input.readFully(bytes);
+			record = new String(bytes, StandardCharsets.UTF_8);
+			parse(record, numbers, strings, 0);
+			return true;
+		}
+	}
+}
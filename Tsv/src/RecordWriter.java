@@ -0,0 +1,214 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * RecordWriter writes records to a file as they are produced. Characters are
+ * encoded as UTF-8 straight into a large direct ByteBuffer, which is handed to
+ * a FileChannel whenever it fills up, so no String of the whole output is ever
+ * built and numbers don't have to be turned into Strings first. If asked, the
+ * file is forced to disk once, when it is closed. Files whose names end with
+ * .gz are gzip compressed at the fastest level as they are written. Adding to
+ * the end of such a file starts a new gzip member, which gzip reads as part of
+ * the same file.
+ * 
+ * @author Tian Low ttl2132
+ *
+ */
+public class RecordWriter implements Closeable {
+	public static final int BUFFER = 1 << 20;
+	private final FileChannel file;
+	private final WritableByteChannel channel;
+	private final GZIPOutputStream compressor;
+	private final long start;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+	private final boolean sync;
+	private final byte[] digits = new byte[20];
+	private long written;
+
+	/**
+	 * Constructs a RecordWriter and opens the file.
+	 * 
+	 * @param myFileName
+	 *            the name of the file
+	 * @param append
+	 *            whether the records are added to the end of the file instead
+	 *            of replacing it
+	 * @param mySync
+	 *            whether the file is forced to disk when it is closed
+	 * @throws IOException
+	 *             if the file can't be opened
+	 */
+	public RecordWriter(String myFileName, boolean append, boolean mySync) throws IOException {
+		file = FileChannel.open(Paths.get(myFileName), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+		start = file.position();
+		if (myFileName.endsWith(".gz")) {
+			compressor = new GZIPOutputStream(Channels.newOutputStream(file), 1 << 16, true) {
+				{
+					def.setLevel(Deflater.BEST_SPEED);
+				}
+			};
+			channel = Channels.newChannel(compressor);
+		} else {
+			compressor = null;
+			channel = file;
+		}
+		sync = mySync;
+	}
+
+	/**
+	 * Writes text, encoded as UTF-8. A surrogate without its other half is
+	 * written as a question mark, the same way String.getBytes writes it.
+	 * 
+	 * @param text
+	 *            the text to write
+	 * @return the RecordWriter
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public RecordWriter write(CharSequence text) throws IOException {
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			char current = text.charAt(i);
+			if (buffer.remaining() < 4)
+				flush();
+			if (current < 0x80)
+				buffer.put((byte) current);
+			else if (current < 0x800) {
+				buffer.put((byte) (0xc0 | current >> 6));
+				buffer.put((byte) (0x80 | current & 0x3f));
+			} else if (Character.isHighSurrogate(current) && i + 1 < length
+					&& Character.isLowSurrogate(text.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(current, text.charAt(++i));
+				buffer.put((byte) (0xf0 | codePoint >> 18));
+				buffer.put((byte) (0x80 | codePoint >> 12 & 0x3f));
+				buffer.put((byte) (0x80 | codePoint >> 6 & 0x3f));
+				buffer.put((byte) (0x80 | codePoint & 0x3f));
+			} else if (Character.isSurrogate(current))
+				buffer.put((byte) '?');
+			else {
+				buffer.put((byte) (0xe0 | current >> 12));
+				buffer.put((byte) (0x80 | current >> 6 & 0x3f));
+				buffer.put((byte) (0x80 | current & 0x3f));
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Writes one ASCII character, such as a tab.
+	 * 
+	 * @param character
+	 *            the character to write
+	 * @return the RecordWriter
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public RecordWriter write(char character) throws IOException {
+		if (character >= 0x80)
+			return write(String.valueOf(character));
+		if (!(buffer.hasRemaining()))
+			flush();
+		buffer.put((byte) character);
+		return this;
+	}
+
+	/**
+	 * Writes a number the same way Long.toString writes it, without making a
+	 * String.
+	 * 
+	 * @param number
+	 *            the number to write
+	 * @return the RecordWriter
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public RecordWriter write(long number) throws IOException {
+		if (buffer.remaining() < digits.length)
+			flush();
+		if (number < 0)
+			buffer.put((byte) '-');
+		else
+			number = -number;
+		int index = digits.length;
+		do {
+			digits[--index] = (byte) ('0' - number % 10);
+			number /= 10;
+		} while (number != 0);
+		buffer.put(digits, index, digits.length - index);
+		return this;
+	}
+
+	/**
+	 * Ends a record with a line break.
+	 * 
+	 * @return the RecordWriter
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public RecordWriter endRecord() throws IOException {
+		if (buffer.remaining() < 2)
+			flush();
+		buffer.put((byte) '\r');
+		buffer.put((byte) '\n');
+		return this;
+	}
+
+	/**
+	 * Hands everything written so far to the FileChannel. A compressed file is
+	 * flushed so that it can be decompressed up to the last record written.
+	 * 
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+		if (compressor != null)
+			compressor.flush();
+		written = file.position() - start;
+	}
+
+	/**
+	 * Gets how many bytes have been handed to the FileChannel, after they were
+	 * compressed if the file is compressed.
+	 * 
+	 * @return the number of bytes written
+	 */
+	public long getBytesWritten() {
+		return written;
+	}
+
+	/**
+	 * Writes what is left, forces the file to disk if asked to, and closes it.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+			if (compressor != null) {
+				compressor.finish();
+				written = file.position() - start;
+			}
+			if (sync)
+				file.force(true);
+		} finally {
+			try {
+				if (compressor != null)
+					compressor.close();
+			} finally {
+				file.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,10 @@
+/**
+ * An enum with the reasons a record can be left out for not following the
+ * format of the file.
+ * 
+ * @author Tian Low ttl2132
+ *
+ */
+public enum Rejection {
+	MISSING_FIELDS, EXTRA_FIELDS, EXPECTED_NUMBER, EXPECTED_STRING;
+}
@@ -0,0 +1,272 @@
+/**
+ * RowValidator checks whether records follow the format of a file without
+ * splitting them or making new Strings. The format of the second line is kept
+ * as the type of every field, and each field of a record is classified as a
+ * long, a decimal, a double or a String by looking at its characters, the same
+ * way Long.parseLong or Double.parseDouble would accept or reject it but
+ * without throwing an exception. A decimal field also takes longs, and a
+ * double field takes any number.
+ * 
+ * @author Tian Low ttl2132
+ * 
+ */
+public class RowValidator {
+	private final char[] types;
+	private final int columns;
+
+	/**
+	 * Constructs a RowValidator for a format found by Formatter.findFormat.
+	 * 
+	 * @param format
+	 *            the format in terms of a String of NumberParser kinds
+	 */
+	public RowValidator(String format) {
+		columns = format.length();
+		types = format.toCharArray();
+	}
+
+	/**
+	 * Gets whether the field in a certain column should be a String.
+	 * 
+	 * @param column
+	 *            the index of the column
+	 * @return whether the column is a String column
+	 */
+	public boolean isString(int column) {
+		return types[column] == NumberParser.STRING;
+	}
+
+	/**
+	 * Checks whether part of a line can be in a certain column. Longs are
+	 * checked on their own, since most columns are longs or Strings.
+	 * 
+	 * @param line
+	 *            the line the value is in
+	 * @param start
+	 *            the index the value starts at
+	 * @param end
+	 *            the index the value ends at
+	 * @param column
+	 *            the index of the column
+	 * @return whether the value fits the type of the column
+	 */
+	private boolean fits(CharSequence line, int start, int end, int column) {
+		if (types[column] == NumberParser.LONG || types[column] == NumberParser.STRING)
+			return isLong(line, start, end) != isString(column);
+		char kind = NumberParser.kind(line, start, end);
+		return kind != NumberParser.STRING && kind <= types[column];
+	}
+
+	/**
+	 * Checks whether a field of the line a MappedReader is on can be in its
+	 * column.
+	 * 
+	 * @param reader
+	 *            the MappedReader on the line
+	 * @param column
+	 *            the index of the field
+	 * @return whether the field fits the type of the column
+	 */
+	private boolean fits(MappedReader reader, int column) {
+		if (types[column] == NumberParser.LONG || types[column] == NumberParser.STRING)
+			return isLong(reader, column) != isString(column);
+		char kind = NumberParser.kind(reader, column);
+		return kind != NumberParser.STRING && kind <= types[column];
+	}
+
+	/**
+	 * Gets how many fields a record needs to have.
+	 * 
+	 * @return the number of columns
+	 */
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Checks whether a line follows the format. Extra tabs and whitespace are
+	 * skipped the same way Formatter.removeExtraTabs skips them.
+	 * 
+	 * @param line
+	 *            any line from the file
+	 * @return whether or not the line's format is correct
+	 */
+	public boolean matches(CharSequence line) {
+		int column = 0;
+		int index = 0;
+		int length = line.length();
+		while (index <= length) {
+			int end = index;
+			while (end < length && line.charAt(end) != '\t')
+				end++;
+			int start = index;
+			int stop = end;
+			while (start < stop && line.charAt(start) <= ' ')
+				start++;
+			while (stop > start && line.charAt(stop - 1) <= ' ')
+				stop--;
+			if (stop > start) {
+				if (column == columns || !(fits(line, start, stop, column)))
+					return false;
+				column++;
+			}
+			index = end + 1;
+		}
+		return column == columns;
+	}
+
+	/**
+	 * Checks whether the line a MappedReader is on follows the format, looking
+	 * at the mapped bytes of each field.
+	 * 
+	 * @param reader
+	 *            the MappedReader on the line to check
+	 * @return whether or not the line's format is correct
+	 */
+	public boolean matches(MappedReader reader) {
+		if (reader.fieldCount() != columns)
+			return false;
+		for (int i = 0; i < columns; i++) {
+			if (!(fits(reader, i)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Finds why a line doesn't follow the format.
+	 * 
+	 * @param line
+	 *            any line from the file
+	 * @return the reason the line is left out, or null if it follows the
+	 *         format
+	 */
+	public Rejection reason(CharSequence line) {
+		int column = 0;
+		int index = 0;
+		int length = line.length();
+		Rejection found = null;
+		while (index <= length) {
+			int end = index;
+			while (end < length && line.charAt(end) != '\t')
+				end++;
+			int start = index;
+			int stop = end;
+			while (start < stop && line.charAt(start) <= ' ')
+				start++;
+			while (stop > start && line.charAt(stop - 1) <= ' ')
+				stop--;
+			if (stop > start) {
+				if (column == columns)
+					return Rejection.EXTRA_FIELDS;
+				if (found == null && !(fits(line, start, stop, column)))
+					found = isString(column) ? Rejection.EXPECTED_STRING : Rejection.EXPECTED_NUMBER;
+				column++;
+			}
+			index = end + 1;
+		}
+		if (column < columns)
+			return Rejection.MISSING_FIELDS;
+		return found;
+	}
+
+	/**
+	 * Finds why the line a MappedReader is on doesn't follow the format.
+	 * 
+	 * @param reader
+	 *            the MappedReader on the line to check
+	 * @return the reason the line is left out, or null if it follows the
+	 *         format
+	 */
+	public Rejection reason(MappedReader reader) {
+		if (reader.fieldCount() < columns)
+			return Rejection.MISSING_FIELDS;
+		if (reader.fieldCount() > columns)
+			return Rejection.EXTRA_FIELDS;
+		for (int i = 0; i < columns; i++) {
+			if (!(fits(reader, i)))
+				return isString(i) ? Rejection.EXPECTED_STRING : Rejection.EXPECTED_NUMBER;
+		}
+		return null;
+	}
+
+	/**
+	 * Checks whether part of a line is a long, without throwing an exception
+	 * when it isn't.
+	 * 
+	 * @param line
+	 *            the line the value is in
+	 * @param start
+	 *            the index the value starts at
+	 * @param end
+	 *            the index the value ends at
+	 * @return whether Long.parseLong would accept the value
+	 */
+	public static boolean isLong(CharSequence line, int start, int end) {
+		if (start >= end)
+			return false;
+		boolean negative = false;
+		char first = line.charAt(start);
+		if (first == '-' || first == '+') {
+			negative = first == '-';
+			start++;
+			if (start == end)
+				return false;
+		}
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long multiplyMinimum = limit / 10;
+		long result = 0;
+		for (int i = start; i < end; i++) {
+			int digit = Character.digit(line.charAt(i), 10);
+			if (digit < 0 || result < multiplyMinimum)
+				return false;
+			result *= 10;
+			if (result < limit + digit)
+				return false;
+			result -= digit;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether a field of the line a MappedReader is on is a long,
+	 * looking at its mapped bytes. Fields that aren't plain ASCII are turned
+	 * into a String first, since other digits can be more than one byte.
+	 * 
+	 * @param reader
+	 *            the MappedReader on the line
+	 * @param field
+	 *            the index of the field
+	 * @return whether Long.parseLong would accept the field
+	 */
+	public static boolean isLong(MappedReader reader, int field) {
+		int start = reader.fieldOffset(field);
+		int end = start + reader.fieldLength(field);
+		boolean negative = false;
+		byte first = reader.byteAt(start);
+		if (first == '-' || first == '+') {
+			negative = first == '-';
+			start++;
+			if (start == end)
+				return false;
+		}
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long multiplyMinimum = limit / 10;
+		long result = 0;
+		for (int i = start; i < end; i++) {
+			byte current = reader.byteAt(i);
+			if (current < 0) {
+				String value = reader.field(field);
+				return isLong(value, 0, value.length());
+			}
+			int digit = current - '0';
+			if (digit < 0 || digit > 9 || result < multiplyMinimum)
+				return false;
+			result *= 10;
+			if (result < limit + digit)
+				return false;
+			result -= digit;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,10 @@
+/**
+ * An enum with the stages a file goes through in TSVPipeline, which are timed
+ * separately by PipelineMetrics.
+ * 
+ * @author Tian Low ttl2132
+ *
+ */
+public enum Stage {
+	READ, FORMAT, CLEANSE, JOIN, FILTER, WRITE, COMPUTE;
+}
@@ -0,0 +1,437 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * StagedExecutor runs a file through TSVPipeline as a line of stages that each
+ * have their own threads, so reading the disk, parsing the lines and writing
+ * the filtered file happen at the same time instead of taking turns on one
+ * thread. The file goes through in batches of whole lines:
+ * 
+ * The reader reads BATCH bytes at a time from the file, or from a GzipChannel
+ * if the file is compressed, and cuts each batch after its last line break.
+ * One or more parsers check the lines of each batch against the format, turn
+ * the fields the filter uses into Strings and check the select, so only the
+ * kept records are put together. The compute stage puts the batches back in
+ * the order they were read and adds the kept records to the
+ * AggregationEngine and GroupAggregator. The writer writes the kept records
+ * through the Formatter.
+ * 
+ * The stages hand batches to each other through bounded queues, and the reader
+ * has to wait for a permit before it reads another batch. The writer gives
+ * the permit back once the batch is written, so only so many batches are ever
+ * in memory at once and a slow stage holds back the stages before it. The run
+ * goes about as fast as its slowest stage.
+ * 
+ * @author Tian Low ttl2132
+ * 
+ */
+public class StagedExecutor {
+	// How many batches can be in memory at once by default.
+	public static final int DEFAULTBATCHES = 16;
+	// How many bytes of lines are read into each batch.
+	public static final int BATCH = 1 << 18;
+	// Handed down the stages once every batch has been.
+	private static final Batch END = new Batch(-1, null, 0);
+	private final String myFileName;
+	private final Formatter myFormatter;
+	private final FilterExpression mySelect;
+	private final Projection myProjection;
+	private final AggregationEngine myEngine;
+	private final GroupAggregator myGroups;
+	private final int parsers;
+	private final Semaphore permits;
+	private final BlockingQueue<Batch> read;
+	private final BlockingQueue<Batch> parsed;
+	private final BlockingQueue<Batch> computed;
+	private final List<PipelineMetrics> stageMetrics = new ArrayList<PipelineMetrics>();
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	private ExecutorService stages;
+
+	/**
+	 * A batch of whole lines of the file, and the records parsed from them.
+	 */
+	private static class Batch {
+		private final long sequence;
+		private final byte[] bytes;
+		private final int length;
+		private List<String> records;
+		private List<String[]> words;
+
+		private Batch(long mySequence, byte[] myBytes, int myLength) {
+			sequence = mySequence;
+			bytes = myBytes;
+			length = myLength;
+		}
+	}
+
+	/**
+	 * Constructs a StagedExecutor for a file whose format was already found.
+	 * 
+	 * @param fileName
+	 *            the name of the file
+	 * @param formatter
+	 *            the Formatter that found the format of the file, with the
+	 *            filtered file open for writing
+	 * @param select
+	 *            the compiled select filter
+	 * @param projection
+	 *            the fields that are used and written
+	 * @param engine
+	 *            the AggregationEngine the kept records are added to
+	 * @param groups
+	 *            the GroupAggregator the kept records are added to, or null if
+	 *            there is no group by
+	 * @param myParsers
+	 *            how many threads parse the lines
+	 * @param myBatches
+	 *            how many batches can be in memory at once
+	 */
+	public StagedExecutor(String fileName, Formatter formatter, FilterExpression select, Projection projection,
+			AggregationEngine engine, GroupAggregator groups, int myParsers, int myBatches) {
+		myFileName = fileName;
+		myFormatter = formatter;
+		mySelect = select;
+		myProjection = projection;
+		myEngine = engine;
+		myGroups = groups;
+		parsers = Math.max(1, myParsers);
+		int batches = Math.max(1, myBatches);
+		permits = new Semaphore(batches);
+		read = new ArrayBlockingQueue<Batch>(batches + parsers);
+		parsed = new ArrayBlockingQueue<Batch>(batches + parsers);
+		computed = new ArrayBlockingQueue<Batch>(batches + 1);
+	}
+
+	/**
+	 * Runs the file through every stage and waits for the last record to be
+	 * written. The filtered file is left open.
+	 * 
+	 * @throws IOException
+	 *             if the file can't be read, the groups can't be written to
+	 *             disk or the run was interrupted
+	 */
+	public void run() throws IOException {
+		final AtomicInteger threads = new AtomicInteger();
+		stages = Executors.newFixedThreadPool(parsers + 3, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "stage-" + threads.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		List<Future<Void>> running = new ArrayList<Future<Void>>();
+		try {
+			final PipelineMetrics readMetrics = stage();
+			running.add(stages.submit(guard("stage-read", new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					readFile(readMetrics);
+					return null;
+				}
+			})));
+			for (int i = 0; i < parsers; i++) {
+				final PipelineMetrics parseMetrics = stage();
+				running.add(stages.submit(guard("stage-parse-" + (i + 1), new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						parseLines(parseMetrics);
+						return null;
+					}
+				})));
+			}
+			final PipelineMetrics computeMetrics = stage();
+			running.add(stages.submit(guard("stage-compute", new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					computeRecords(computeMetrics);
+					return null;
+				}
+			})));
+			final PipelineMetrics writeMetrics = stage();
+			running.add(stages.submit(guard("stage-write", new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					writeRecords(writeMetrics);
+					return null;
+				}
+			})));
+			for (Future<Void> stage : running)
+				stage.get();
+		} catch (InterruptedException error) {
+			Thread.currentThread().interrupt();
+			throw new IOException("The stages were interrupted.", error);
+		} catch (ExecutionException error) {
+			Throwable cause = failure.get() == null ? error.getCause() : failure.get();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			throw new IOException("A stage could not finish.", cause);
+		} finally {
+			stages.shutdownNow();
+		}
+	}
+
+	/**
+	 * Makes the metrics of one stage thread, which are added together by
+	 * getMetrics once the run is over.
+	 * 
+	 * @return the metrics of the stage
+	 */
+	private PipelineMetrics stage() {
+		PipelineMetrics myMetrics = new PipelineMetrics();
+		stageMetrics.add(myMetrics);
+		return myMetrics;
+	}
+
+	/**
+	 * Stops every other stage if a stage fails, so none of them are left
+	 * waiting on a queue that will never be filled or emptied. The thread is
+	 * named after the stage while it runs, so it can be told apart in a thread
+	 * dump.
+	 * 
+	 * @param name
+	 *            the name of the stage
+	 * @param stage
+	 *            the work of the stage
+	 * @return the work of the stage, stopping the others if it fails
+	 */
+	private Callable<Void> guard(final String name, final Callable<Void> stage) {
+		return new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				Thread.currentThread().setName(name);
+				try {
+					return stage.call();
+				} catch (Exception error) {
+					if (failure.compareAndSet(null, error))
+						stages.shutdownNow();
+					throw error;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Gets the metrics of every stage added together. Each stage is timed on
+	 * its own thread, so the stages can add up to more than the wall time.
+	 * 
+	 * @return the metrics of the run
+	 */
+	public PipelineMetrics getMetrics() {
+		PipelineMetrics myMetrics = new PipelineMetrics();
+		for (PipelineMetrics each : stageMetrics)
+			myMetrics.merge(each);
+		return myMetrics;
+	}
+
+	/**
+	 * The reader stage. Each batch ends after the last line break that was
+	 * read, and the rest of the line is moved on to the next batch. A batch
+	 * is made bigger if a single line doesn't fit in it.
+	 * 
+	 * @param metrics
+	 *            the metrics of the stage
+	 * @throws IOException
+	 *             if the file can't be read
+	 * @throws InterruptedException
+	 *             if another stage failed
+	 */
+	private void readFile(PipelineMetrics metrics) throws IOException, InterruptedException {
+		try (ReadableByteChannel channel = GzipChannel.isGzip(myFileName) ? new GzipChannel(myFileName)
+				: new FileInputStream(myFileName).getChannel()) {
+			byte[] rest = new byte[0];
+			long sequence = 0;
+			boolean ended = false;
+			while (!ended) {
+				permits.acquire();
+				byte[] bytes = new byte[Math.max(BATCH, rest.length * 2)];
+				System.arraycopy(rest, 0, bytes, 0, rest.length);
+				int length = rest.length;
+				int cut = 0;
+				long begin = System.nanoTime();
+				while (cut == 0 && !ended) {
+					if (length == bytes.length)
+						bytes = Arrays.copyOf(bytes, bytes.length * 2);
+					int count = channel.read(ByteBuffer.wrap(bytes, length, bytes.length - length));
+					if (count == -1)
+						ended = true;
+					else
+						length += count;
+					cut = ended ? length : lastLineEnd(bytes, length);
+				}
+				metrics.time(Stage.READ, begin);
+				rest = Arrays.copyOfRange(bytes, cut, length);
+				if (cut > 0)
+					read.put(new Batch(sequence++, bytes, cut));
+				else
+					permits.release();
+			}
+		} finally {
+			for (int i = 0; i < parsers; i++)
+				read.put(END);
+		}
+	}
+
+	/**
+	 * Finds where the batch should be cut, right after its last line break. A
+	 * carriage return at the very end could still be followed by a line feed,
+	 * so the batch isn't cut there.
+	 * 
+	 * @param bytes
+	 *            the bytes that were read
+	 * @param length
+	 *            how many of the bytes were read
+	 * @return the length of the whole lines, or 0 if there are none
+	 */
+	private static int lastLineEnd(byte[] bytes, int length) {
+		for (int i = length - 1; i >= 0; i--) {
+			if (bytes[i] == '\n' || bytes[i] == '\r' && i < length - 1)
+				return i + 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * A parser stage. The lines of each batch are checked against the format
+	 * and the select, and the records that match both are kept, the same way
+	 * a ChunkTask keeps them. The first line of the file is counted in the
+	 * metrics as part of finding the format.
+	 * 
+	 * @param metrics
+	 *            the metrics of the stage
+	 * @throws IOException
+	 *             if a batch can't be gone through
+	 * @throws InterruptedException
+	 *             if another stage failed
+	 */
+	private void parseLines(PipelineMetrics metrics) throws IOException, InterruptedException {
+		StringBuilder lineBuilder = new StringBuilder();
+		String[] words = myProjection.newWords();
+		Batch batch;
+		while ((batch = read.take()) != END) {
+			batch.records = new ArrayList<String>();
+			batch.words = new ArrayList<String[]>();
+			MappedReader lines = new MappedReader(ByteBuffer.wrap(batch.bytes, 0, batch.length));
+			while (true) {
+				metrics.begin();
+				if (!(lines.nextLine()))
+					break;
+				boolean header = batch.sequence == 0 && lines.lineOffset() == 0;
+				if (!header)
+					metrics.read(lines.position() - lines.lineOffset());
+				if (!(myFormatter.hasFormat(lines))) {
+					if (!header)
+						metrics.reject(myFormatter.rejection(lines));
+					metrics.lap(Stage.CLEANSE);
+					continue;
+				}
+				myProjection.read(lines, words);
+				metrics.lap(Stage.CLEANSE);
+				boolean kept = mySelect.matches(words);
+				metrics.lap(Stage.FILTER);
+				if (!kept)
+					continue;
+				batch.records.add(myProjection.write(lines, lineBuilder));
+				batch.words.add(words);
+				words = myProjection.newWords();
+				metrics.lap(Stage.WRITE);
+			}
+			parsed.put(batch);
+		}
+		parsed.put(END);
+	}
+
+	/**
+	 * The compute stage. Batches can come in from the parsers out of order,
+	 * so they wait until every batch before them has been computed, and the
+	 * kept records are added to the statistics in the order they were read.
+	 * 
+	 * @param metrics
+	 *            the metrics of the stage
+	 * @throws IOException
+	 *             if the groups can't be written to disk
+	 * @throws InterruptedException
+	 *             if another stage failed
+	 */
+	private void computeRecords(PipelineMetrics metrics) throws IOException, InterruptedException {
+		HashMap<Long, Batch> waiting = new HashMap<Long, Batch>();
+		long next = 0;
+		int ended = 0;
+		try {
+			while (ended < parsers) {
+				Batch batch = parsed.take();
+				if (batch == END) {
+					ended++;
+					continue;
+				}
+				waiting.put(batch.sequence, batch);
+				while ((batch = waiting.remove(next)) != null) {
+					compute(batch, metrics);
+					computed.put(batch);
+					next++;
+				}
+			}
+		} finally {
+			computed.put(END);
+		}
+	}
+
+	/**
+	 * Adds the kept records of a batch to the statistics.
+	 * 
+	 * @param batch
+	 *            a parsed batch
+	 * @param metrics
+	 *            the metrics of the stage
+	 * @throws IOException
+	 *             if the groups can't be written to disk
+	 */
+	private void compute(Batch batch, PipelineMetrics metrics) throws IOException {
+		long begin = System.nanoTime();
+		for (String[] words : batch.words) {
+			myEngine.addRecord(words);
+			if (myGroups != null)
+				myGroups.addRecord(words);
+		}
+		metrics.time(Stage.COMPUTE, begin);
+		batch.words = null;
+	}
+
+	/**
+	 * The writer stage. The permit of each batch is given back to the reader
+	 * once its records are written.
+	 * 
+	 * @param metrics
+	 *            the metrics of the stage
+	 * @throws InterruptedException
+	 *             if another stage failed
+	 */
+	private void writeRecords(PipelineMetrics metrics) throws InterruptedException {
+		Batch batch;
+		while ((batch = computed.take()) != END) {
+			long begin = System.nanoTime();
+			for (String record : batch.records)
+				myFormatter.writeRecord(record);
+			metrics.keep(batch.records.size());
+			metrics.time(Stage.WRITE, begin);
+			permits.release();
+		}
+	}
+}
@@ -1,3 +1,7 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Once built by its inner Builder class, determines which filters will be used,
  * if any, along with the fields needed for the filters. Contains a toString
@@ -13,6 +17,34 @@ public class TSVFilter {
 	private final String stringValue;
 	private final String fileName;
 	private final String terminalType;
+	private final boolean streaming;
+	private final int parallelism;
+	private final int stageWorkers;
+	private final int stageBatches;
+	private final List<List<Condition>> groups;
+	private final String outputName;
+	private final boolean indexed;
+	private final String[] groupFields;
+	private final int maxGroups;
+	private final String[] orderFields;
+	private final boolean[] descending;
+	private final int sortRecords;
+	private final int sortThreads;
+	private final String joinName;
+	private final String joinField;
+	private final String joinedField;
+	private final boolean leftJoin;
+	private final int joinRecords;
+	private final String[] projection;
+	private final String metricsName;
+	private final boolean incremental;
+	private final boolean sync;
+	private final boolean compressed;
+	private final boolean cached;
+	private final boolean zoned;
+	private final int topK;
+	private final int sketchSize;
+	private final double[] quantiles;
 
 	/**
 	 * Constructs an instance of TSVFilter
@@ -27,6 +59,38 @@ public class TSVFilter {
 		longValue = myBuilder.longValue;
 		stringValue = myBuilder.stringValue;
 		terminalType = myBuilder.terminalType;
+		streaming = myBuilder.streaming;
+		parallelism = myBuilder.parallelism;
+		stageWorkers = myBuilder.stageWorkers;
+		stageBatches = myBuilder.stageBatches;
+		outputName = myBuilder.outputName;
+		indexed = myBuilder.indexed;
+		groupFields = myBuilder.groupFields;
+		maxGroups = myBuilder.maxGroups;
+		orderFields = myBuilder.orderFields.toArray(new String[myBuilder.orderFields.size()]);
+		descending = new boolean[orderFields.length];
+		for (int i = 0; i < descending.length; i++)
+			descending[i] = myBuilder.descending.get(i);
+		sortRecords = myBuilder.sortRecords;
+		sortThreads = myBuilder.sortThreads;
+		joinName = myBuilder.joinName;
+		joinField = myBuilder.joinField;
+		joinedField = myBuilder.joinedField;
+		leftJoin = myBuilder.leftJoin;
+		joinRecords = myBuilder.joinRecords;
+		projection = myBuilder.projection;
+		metricsName = myBuilder.metricsName;
+		incremental = myBuilder.incremental;
+		sync = myBuilder.sync;
+		compressed = myBuilder.compressed;
+		cached = myBuilder.cached;
+		zoned = myBuilder.zoned;
+		topK = myBuilder.topK;
+		sketchSize = myBuilder.sketchSize;
+		quantiles = myBuilder.quantiles;
+		groups = new ArrayList<List<Condition>>();
+		for (List<Condition> group : myBuilder.groups)
+			groups.add(new ArrayList<Condition>(group));
 	}
 
 	/**
@@ -84,6 +148,371 @@ public class TSVFilter {
 		return terminalType;
 	}
 
+	/**
+	 * Allows other classes to know whether the file should be streamed.
+	 * 
+	 * @return whether the file should be streamed
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Allows other classes to get how many threads should go through the file.
+	 * 
+	 * @return the number of threads, or 0 if the file isn't split up
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Allows other classes to get how many threads parse the lines of a file
+	 * that is run through stages.
+	 * 
+	 * @return the number of parser threads, or 0 if the file isn't staged
+	 */
+	public int getStageWorkers() {
+		return stageWorkers;
+	}
+
+	/**
+	 * Allows other classes to get how many batches of lines a staged file can
+	 * have in memory at once.
+	 * 
+	 * @return the number of batches
+	 */
+	public int getStageBatches() {
+		return stageBatches;
+	}
+
+	/**
+	 * Allows other classes to get the name of the file the filtered records
+	 * are written to.
+	 * 
+	 * @return the name of the filtered file, or null if none was given
+	 */
+	public String getOutputName() {
+		return outputName;
+	}
+
+	/**
+	 * Allows other classes to know whether the select should use an index.
+	 * 
+	 * @return whether the select should use an index
+	 */
+	public boolean isIndexed() {
+		return indexed;
+	}
+
+	/**
+	 * Allows other classes to get the fields the records are grouped by.
+	 * 
+	 * @return the fields to group by, which is empty if there is no group by
+	 */
+	public String[] getGroupFields() {
+		return groupFields;
+	}
+
+	/**
+	 * Allows other classes to know whether the statistic is computed for each
+	 * group of records separately.
+	 * 
+	 * @return whether there is a group by
+	 */
+	public boolean hasGroupBy() {
+		return groupFields.length > 0;
+	}
+
+	/**
+	 * Allows other classes to get how many groups can be kept in memory before
+	 * they are written to disk.
+	 * 
+	 * @return the number of groups kept in memory
+	 */
+	public int getMaxGroups() {
+		return maxGroups;
+	}
+
+	/**
+	 * Allows other classes to get the fields the filtered records are put in
+	 * order by.
+	 * 
+	 * @return the fields to order by, most important first, which is empty if
+	 *         there is no order by
+	 */
+	public String[] getOrderFields() {
+		return orderFields;
+	}
+
+	/**
+	 * Allows other classes to know which order fields go from highest to
+	 * lowest.
+	 * 
+	 * @return whether each order field is descending
+	 */
+	public boolean[] getDescending() {
+		return descending;
+	}
+
+	/**
+	 * Allows other classes to know whether the filtered records are put in
+	 * order.
+	 * 
+	 * @return whether there is an order by
+	 */
+	public boolean hasOrderBy() {
+		return orderFields.length > 0;
+	}
+
+	/**
+	 * Allows other classes to get how many records are sorted in memory
+	 * before they are written to disk.
+	 * 
+	 * @return the number of records sorted in memory
+	 */
+	public int getSortRecords() {
+		return sortRecords;
+	}
+
+	/**
+	 * Allows other classes to get how many threads sort the records.
+	 * 
+	 * @return the number of sort threads
+	 */
+	public int getSortThreads() {
+		return sortThreads;
+	}
+
+	/**
+	 * Allows other classes to get the name of the file joined to this one.
+	 * 
+	 * @return the name of the joined file, or null if there is no join
+	 */
+	public String getJoinName() {
+		return joinName;
+	}
+
+	/**
+	 * Allows other classes to get the key field of this file for a join.
+	 * 
+	 * @return the key field of this file
+	 */
+	public String getJoinField() {
+		return joinField;
+	}
+
+	/**
+	 * Allows other classes to get the key field of the joined file.
+	 * 
+	 * @return the key field of the joined file
+	 */
+	public String getJoinedField() {
+		return joinedField;
+	}
+
+	/**
+	 * Allows other classes to know whether records of this file without a
+	 * match in the joined file are kept.
+	 * 
+	 * @return whether the join is a left join
+	 */
+	public boolean isLeftJoin() {
+		return leftJoin;
+	}
+
+	/**
+	 * Allows other classes to know whether another file is joined to this
+	 * one.
+	 * 
+	 * @return whether there is a join
+	 */
+	public boolean hasJoin() {
+		return joinName != null;
+	}
+
+	/**
+	 * Allows other classes to get how many records of the smaller file of a
+	 * join are kept in memory before both files are written to disk.
+	 * 
+	 * @return the number of records kept in memory
+	 */
+	public int getJoinRecords() {
+		return joinRecords;
+	}
+
+	/**
+	 * Allows other classes to get the fields written to the filtered file.
+	 * 
+	 * @return the fields to write, in order, which is empty if every field is
+	 *         written
+	 */
+	public String[] getProjection() {
+		return projection;
+	}
+
+	/**
+	 * Allows other classes to get the fields whose values the select, compute
+	 * and group by use, so the other fields don't have to be read.
+	 * 
+	 * @return the fields that are used
+	 */
+	public List<String> getReadFields() {
+		List<String> fields = new ArrayList<String>();
+		for (List<Condition> group : groups) {
+			for (Condition condition : group)
+				fields.add(condition.getField());
+		}
+		fields.add(field2);
+		fields.addAll(Arrays.asList(groupFields));
+		return fields;
+	}
+
+	/**
+	 * Allows other classes to get the name of the file the metrics of the run
+	 * are written to.
+	 * 
+	 * @return the name of the summary file, or null if none was given
+	 */
+	public String getMetricsName() {
+		return metricsName;
+	}
+
+	/**
+	 * Allows other classes to know whether only the records added since the
+	 * last run should be gone through.
+	 * 
+	 * @return whether the file is filtered incrementally
+	 */
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * Allows other classes to know whether the filtered file should be forced
+	 * to disk once it is written.
+	 * 
+	 * @return whether the filtered file is forced to disk
+	 */
+	public boolean isSync() {
+		return sync;
+	}
+
+	/**
+	 * Allows other classes to know whether the filtered file should be gzip
+	 * compressed.
+	 * 
+	 * @return whether the filtered file is compressed
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * Allows other classes to know whether the cleansed file should be kept
+	 * in a ColumnCache between runs.
+	 * 
+	 * @return whether the cleansed file is cached
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+
+	/**
+	 * Allows other classes to know whether blocks of the file should be
+	 * skipped using a ZoneMap.
+	 * 
+	 * @return whether the select should use a zone map
+	 */
+	public boolean isZoned() {
+		return zoned;
+	}
+
+	/**
+	 * Makes an empty ValueSketch for the statistic being computed, if it needs
+	 * one.
+	 * 
+	 * @return the sketch, or null if the statistic doesn't need one
+	 */
+	public ValueSketch sketch() {
+		if (terminalType == null)
+			return null;
+		return ValueSketch.create(terminalType, topK, sketchSize, quantiles);
+	}
+
+	/**
+	 * Describes the selects and the field being computed, so a Checkpoint can
+	 * tell whether it was saved by the same filter. Statistics kept in a
+	 * ValueSketch are described as well, since the sketch is saved with it.
+	 * 
+	 * @return the selects and the compute field as a String
+	 */
+	public String signature() {
+		StringBuilder mySignature = new StringBuilder();
+		for (List<Condition> group : groups) {
+			if (group.isEmpty())
+				continue;
+			mySignature.append(mySignature.length() == 0 ? "" : " OR ").append(group);
+		}
+		mySignature.append(" COMPUTE ").append(field2);
+		if (projection.length > 0)
+			mySignature.append(" PROJECT ").append(Arrays.toString(projection));
+		if (sketch() != null)
+			mySignature.append(' ').append(terminalType).append(' ').append(topK).append(' ').append(sketchSize)
+					.append(' ').append(Arrays.toString(quantiles));
+		return mySignature.toString();
+	}
+
+	/**
+	 * Finds the select that can be looked up in an index: the first EQUALS
+	 * comparison, as long as there is only one group of selects so every kept
+	 * record has to match it.
+	 * 
+	 * @return the comparison to look up, or null if there isn't one
+	 */
+	public Condition indexCondition() {
+		List<Condition> only = null;
+		for (List<Condition> group : groups) {
+			if (group.isEmpty())
+				continue;
+			if (only != null)
+				return null;
+			only = group;
+		}
+		if (only == null)
+			return null;
+		for (Condition myCondition : only) {
+			if (myCondition.getComparison() == Comparison.EQUALS)
+				return myCondition;
+		}
+		return null;
+	}
+
+	/**
+	 * Allows other classes to know whether any records are filtered out.
+	 * 
+	 * @return whether there is a select filter
+	 */
+	public boolean hasSelect() {
+		for (List<Condition> group : groups) {
+			if (!(group.isEmpty()))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Compiles the select filter for a file, so each record can be checked
+	 * without looking up the fields again.
+	 * 
+	 * @param myFirstLine
+	 *            the cleansed first line of the file
+	 * @return the compiled select filter
+	 */
+	public FilterExpression compile(String myFirstLine) {
+		return new FilterExpression(groups, myFirstLine);
+	}
+
 	/**
 	 * The inner class for TSVFilter. Allows the information in TSVFilter to
 	 * "change" until completely finalized.
@@ -98,6 +527,34 @@ public class TSVFilter {
 		private long longValue;
 		private String stringValue;
 		private String fileName;
+		private boolean streaming;
+		private int parallelism;
+		private int stageWorkers;
+		private int stageBatches = StagedExecutor.DEFAULTBATCHES;
+		private String outputName;
+		private boolean indexed;
+		private String[] groupFields = new String[0];
+		private int maxGroups = GroupAggregator.DEFAULTGROUPS;
+		private ArrayList<String> orderFields = new ArrayList<String>();
+		private ArrayList<Boolean> descending = new ArrayList<Boolean>();
+		private int sortRecords = RecordSorter.DEFAULTRECORDS;
+		private int sortThreads = 1;
+		private String joinName;
+		private String joinField;
+		private String joinedField;
+		private boolean leftJoin;
+		private int joinRecords = HashJoin.DEFAULTRECORDS;
+		private String[] projection = new String[0];
+		private String metricsName;
+		private boolean incremental;
+		private boolean sync;
+		private boolean compressed;
+		private boolean cached;
+		private boolean zoned;
+		private int topK = ValueSketch.DEFAULTK;
+		private int sketchSize = ValueSketch.DEFAULTSIZE;
+		private double[] quantiles = QuantileValues.DEFAULTQUANTILES;
+		private ArrayList<List<Condition>> groups = new ArrayList<List<Condition>>();
 
 		/**
 		 * Constructs a Builder. Give the default values of "None" to field and
@@ -110,6 +567,7 @@ public class TSVFilter {
 			fileName = myFileName;
 			field = "None";
 			field2 = "None";
+			groups.add(new ArrayList<Condition>());
 		}
 
 		/**
@@ -128,6 +586,8 @@ public class TSVFilter {
 
 		/**
 		 * Determines what field is being filtered and for what numerical value.
+		 * Selecting more than once keeps only the records that match all of
+		 * the selects.
 		 * 
 		 * @param myField
 		 *            the field being filtered
@@ -136,13 +596,17 @@ public class TSVFilter {
 		 * @return the Builder variable with the field and numerical value
 		 */
 		public Builder select(String myField, long myValue) {
-			field = myField;
-			longValue = myValue;
-			return this;
+			if (field.equals("None")) {
+				field = myField;
+				longValue = myValue;
+			}
+			return where(myField, Comparison.EQUALS, myValue);
 		}
 
 		/**
 		 * Determines what field is being filtered and for what String value.
+		 * Selecting more than once keeps only the records that match all of
+		 * the selects.
 		 * 
 		 * @param myField
 		 *            the field being filtered
@@ -151,8 +615,57 @@ public class TSVFilter {
 		 * @return the Builder variable with the field and String value
 		 */
 		public Builder select(String myField, String myValue) {
-			field = myField;
-			stringValue = myValue;
+			if (field.equals("None")) {
+				field = myField;
+				stringValue = myValue;
+			}
+			return where(myField, Comparison.EQUALS, myValue);
+		}
+
+		/**
+		 * Filters a field by comparing it with numbers. BETWEEN takes the
+		 * lowest and highest value, IN takes every value that is kept, and the
+		 * other comparisons take one value.
+		 * 
+		 * @param myField
+		 *            the field being filtered
+		 * @param myComparison
+		 *            how the field is compared
+		 * @param myValues
+		 *            the numerical values the field is compared with
+		 * @return the Builder variable with the comparison added
+		 */
+		public Builder where(String myField, Comparison myComparison, long... myValues) {
+			groups.get(groups.size() - 1).add(new Condition(myField, myComparison, myValues));
+			return this;
+		}
+
+		/**
+		 * Filters a field by comparing it with Strings. BETWEEN takes the
+		 * lowest and highest value, IN takes every value that is kept, and the
+		 * other comparisons take one value.
+		 * 
+		 * @param myField
+		 *            the field being filtered
+		 * @param myComparison
+		 *            how the field is compared
+		 * @param myValues
+		 *            the String values the field is compared with
+		 * @return the Builder variable with the comparison added
+		 */
+		public Builder where(String myField, Comparison myComparison, String... myValues) {
+			groups.get(groups.size() - 1).add(new Condition(myField, myComparison, myValues));
+			return this;
+		}
+
+		/**
+		 * Starts another group of selects. A record is kept if it matches all
+		 * of the selects before or all of the selects after.
+		 * 
+		 * @return the Builder variable with a new group of selects
+		 */
+		public Builder or() {
+			groups.add(new ArrayList<Condition>());
 			return this;
 		}
 
@@ -192,10 +705,449 @@ public class TSVFilter {
 			case STANDARD_DEVIATION:
 				terminalType = "STANDARD_DEVIATION";
 				break;
+			case TOP_K:
+				terminalType = "TOP_K";
+				break;
+			case BOTTOM_K:
+				terminalType = "BOTTOM_K";
+				break;
+			case MOST_FREQUENT:
+				terminalType = "MOST_FREQUENT";
+				break;
+			case DISTINCT_COUNT:
+				terminalType = "DISTINCT_COUNT";
+				break;
+			case QUANTILES:
+				terminalType = "QUANTILES";
+				break;
+			}
+			return this;
+		}
+
+		/**
+		 * Determines which type of statistic will be passed onto TSVPipeline,
+		 * along with how many values TOP_K, BOTTOM_K and MOST_FREQUENT give.
+		 * 
+		 * @param myField2
+		 *            the field that's being computed
+		 * @param myTerminal
+		 *            an instance of Terminal
+		 * @param myK
+		 *            how many values are given
+		 * @return the type of terminal statistic
+		 */
+		public Builder compute(String myField2, Terminal myTerminal, int myK) {
+			topK = myK;
+			return compute(myField2, myTerminal);
+		}
+
+		/**
+		 * Determines how many values MOST_FREQUENT, DISTINCT_COUNT and
+		 * QUANTILES keep in memory. MOST_FREQUENT keeps a counter for this many
+		 * values, DISTINCT_COUNT counts exactly until there are more values
+		 * than this and estimates the count from then on, and QUANTILES keeps
+		 * about this many numbers, so a larger size gives closer quantiles.
+		 * 
+		 * @param mySketchSize
+		 *            the number of values kept in memory
+		 * @return the Builder variable with the memory budget for sketches
+		 */
+		public Builder sketchMemory(int mySketchSize) {
+			sketchSize = mySketchSize;
+			return this;
+		}
+
+		/**
+		 * Determines which quantiles QUANTILES gives, such as 0.5 for the
+		 * median or 0.99 for p99. The median, p95 and p99 are given if this
+		 * isn't called.
+		 * 
+		 * @param myQuantiles
+		 *            the quantiles, each between 0 and 1
+		 * @return the Builder variable with the quantiles
+		 */
+		public Builder quantiles(double... myQuantiles) {
+			if (myQuantiles.length == 0)
+				throw new IllegalArgumentException("QUANTILES needs at least one quantile.");
+			for (double myQuantile : myQuantiles) {
+				if (!(myQuantile >= 0 && myQuantile <= 1))
+					throw new IllegalArgumentException("Quantiles have to be between 0 and 1.");
+			}
+			quantiles = myQuantiles.clone();
+			return this;
+		}
+
+		/**
+		 * Computes the statistic separately for every group of records that
+		 * have the same values in the given fields, like GROUP BY in SQL. The
+		 * records are streamed instead of read into memory first.
+		 * 
+		 * @param myGroupFields
+		 *            the fields the records are grouped by
+		 * @return the Builder variable with the fields to group by
+		 */
+		public Builder groupBy(String... myGroupFields) {
+			groupFields = myGroupFields;
+			return this;
+		}
+
+		/**
+		 * Determines how many groups can be kept in memory at once. When there
+		 * are more groups than this, they are written to disk and merged back
+		 * together at the end.
+		 * 
+		 * @param myMaxGroups
+		 *            the number of groups kept in memory
+		 * @return the Builder variable with the memory budget for groups
+		 */
+		public Builder groupMemory(int myMaxGroups) {
+			maxGroups = myMaxGroups;
+			return this;
+		}
+
+		/**
+		 * Puts the filtered records in order from lowest to highest by the
+		 * given fields, like ORDER BY in SQL. Number fields are compared as
+		 * numbers and String fields as text. Calling it again adds less
+		 * important fields after the ones already given.
+		 * 
+		 * @param myOrderFields
+		 *            the fields the records are put in order by, most
+		 *            important first
+		 * @return the Builder variable with the fields to order by
+		 */
+		public Builder orderBy(String... myOrderFields) {
+			for (String myOrderField : myOrderFields) {
+				orderFields.add(myOrderField);
+				descending.add(false);
+			}
+			return this;
+		}
+
+		/**
+		 * Puts the filtered records in order from highest to lowest by the
+		 * given fields, the same way orderBy puts them from lowest to highest.
+		 * 
+		 * @param myOrderFields
+		 *            the fields the records are put in order by, most
+		 *            important first
+		 * @return the Builder variable with the fields to order by
+		 */
+		public Builder orderByDescending(String... myOrderFields) {
+			for (String myOrderField : myOrderFields) {
+				orderFields.add(myOrderField);
+				descending.add(true);
 			}
 			return this;
 		}
 
+		/**
+		 * Determines how many records are sorted in memory at once. When there
+		 * are more records than this, sorted runs of them are written to disk
+		 * and merged back together at the end.
+		 * 
+		 * @param mySortRecords
+		 *            the number of records sorted in memory
+		 * @return the Builder variable with the memory budget for sorting
+		 */
+		public Builder sortMemory(int mySortRecords) {
+			sortRecords = mySortRecords;
+			return this;
+		}
+
+		/**
+		 * Determines how many threads sort the runs of records that are
+		 * written to disk, while the next records are still being read. Each
+		 * thread can keep one more run in memory.
+		 * 
+		 * @param mySortThreads
+		 *            the number of sort threads
+		 * @return the Builder variable with the number of sort threads
+		 */
+		public Builder sortThreads(int mySortThreads) {
+			sortThreads = mySortThreads;
+			return this;
+		}
+
+		/**
+		 * Joins another file to this one on a key field with the same name in
+		 * both, like an inner JOIN in SQL. Only records with a match in the
+		 * other file are kept, followed by the fields of the matching record,
+		 * and select, compute, group by and order by can use the fields of
+		 * both files. The records are streamed instead of read into memory
+		 * first.
+		 * 
+		 * @param myJoinName
+		 *            the name of the file joined to this one
+		 * @param myJoinField
+		 *            the key field of both files
+		 * @return the Builder variable with the file to join
+		 */
+		public Builder join(String myJoinName, String myJoinField) {
+			return join(myJoinName, myJoinField, myJoinField);
+		}
+
+		/**
+		 * Joins another file to this one on key fields with different names,
+		 * the same way as join with one key field.
+		 * 
+		 * @param myJoinName
+		 *            the name of the file joined to this one
+		 * @param myJoinField
+		 *            the key field of this file
+		 * @param myJoinedField
+		 *            the key field of the joined file
+		 * @return the Builder variable with the file to join
+		 */
+		public Builder join(String myJoinName, String myJoinField, String myJoinedField) {
+			joinName = myJoinName;
+			joinField = myJoinField;
+			joinedField = myJoinedField;
+			leftJoin = false;
+			return this;
+		}
+
+		/**
+		 * Joins another file to this one on a key field with the same name in
+		 * both, like a LEFT JOIN in SQL. Every record of this file is kept,
+		 * with empty fields for the other file if nothing matches. The empty
+		 * fields don't count towards the statistics of those fields, and the
+		 * records with them are dropped if the filtered file is read again.
+		 * 
+		 * @param myJoinName
+		 *            the name of the file joined to this one
+		 * @param myJoinField
+		 *            the key field of both files
+		 * @return the Builder variable with the file to join
+		 */
+		public Builder leftJoin(String myJoinName, String myJoinField) {
+			return leftJoin(myJoinName, myJoinField, myJoinField);
+		}
+
+		/**
+		 * Joins another file to this one on key fields with different names,
+		 * the same way as leftJoin with one key field.
+		 * 
+		 * @param myJoinName
+		 *            the name of the file joined to this one
+		 * @param myJoinField
+		 *            the key field of this file
+		 * @param myJoinedField
+		 *            the key field of the joined file
+		 * @return the Builder variable with the file to join
+		 */
+		public Builder leftJoin(String myJoinName, String myJoinField, String myJoinedField) {
+			join(myJoinName, myJoinField, myJoinedField);
+			leftJoin = true;
+			return this;
+		}
+
+		/**
+		 * Determines how many records of the smaller file of a join are kept
+		 * in memory. When it has more records than this, both files are split
+		 * into partitions on disk that are joined one at a time.
+		 * 
+		 * @param myJoinRecords
+		 *            the number of records kept in memory
+		 * @return the Builder variable with the memory budget for the join
+		 */
+		public Builder joinMemory(int myJoinRecords) {
+			joinRecords = myJoinRecords;
+			return this;
+		}
+
+		/**
+		 * Writes only the given fields of the filtered records, in the given
+		 * order, like the field list of SELECT in SQL. The select, compute and
+		 * group by can still use every field, but order by only sees the
+		 * fields that are written.
+		 * 
+		 * @param myProjection
+		 *            the fields written to the filtered file
+		 * @return the Builder variable with the fields to write
+		 */
+		public Builder project(String... myProjection) {
+			projection = myProjection;
+			return this;
+		}
+
+		/**
+		 * Determines the name of the file the filtered records are written to.
+		 * Without it the word filtered is put in front of the file name.
+		 * 
+		 * @param myOutputName
+		 *            the name of the filtered file
+		 * @return the Builder variable with the name of the filtered file
+		 */
+		public Builder writeTo(String myOutputName) {
+			outputName = myOutputName;
+			return this;
+		}
+
+		/**
+		 * Writes the metrics of the run, such as the time of each stage and
+		 * how many records were left out, to a summary file with one
+		 * key=value pair on each line.
+		 * 
+		 * @param myMetricsName
+		 *            the name of the summary file
+		 * @return the Builder variable with the name of the summary file
+		 */
+		public Builder metricsTo(String myMetricsName) {
+			metricsName = myMetricsName;
+			return this;
+		}
+
+		/**
+		 * Only goes through the records added to the end of the file since
+		 * the last run. A checkpoint saved next to the filtered file remembers
+		 * how far the file was read and the statistics so far, and the new
+		 * records are added to the end of the filtered file. If the file was
+		 * changed in any other way, it is gone through from the start again.
+		 * A last line without a line break is left for the next run, since it
+		 * may still be being written.
+		 * 
+		 * @return the Builder variable with incremental mode turned on
+		 */
+		public Builder incremental() {
+			incremental = true;
+			return this;
+		}
+
+		/**
+		 * Forces the filtered file to disk once it is written, so it
+		 * survives a crash of the machine. The file is only forced once, at
+		 * the end, instead of after every record.
+		 * 
+		 * @return the Builder variable with forcing to disk turned on
+		 */
+		public Builder fsync() {
+			sync = true;
+			return this;
+		}
+
+		/**
+		 * Gzip compresses the filtered file as it is written, which is then
+		 * named with .gz at the end unless another name was given. A filtered
+		 * file whose name given to writeTo ends with .gz is always compressed.
+		 * 
+		 * @return the Builder variable with compression turned on
+		 */
+		public Builder compress() {
+			compressed = true;
+			return this;
+		}
+
+		/**
+		 * Keeps the cleansed file in a binary cache next to it, so later runs
+		 * read the cache instead of parsing the file again, for as long as
+		 * the file doesn't change. Only used when the file is read into
+		 * memory, not when it is streamed.
+		 * 
+		 * @return the Builder variable with the cache turned on
+		 */
+		public Builder cache() {
+			cached = true;
+			return this;
+		}
+
+		/**
+		 * Looks up the records of an EQUALS select in an index of the select
+		 * field kept next to the file, building the index first if it is
+		 * missing or the file has changed since it was built.
+		 * 
+		 * @return the Builder variable with the index turned on
+		 */
+		public Builder indexed() {
+			indexed = true;
+			return this;
+		}
+
+		/**
+		 * Streams the file while skipping the blocks whose lowest and highest
+		 * numbers show no record could match the select, using a zone map kept
+		 * next to the file. The zone map is built first if it is missing or
+		 * the file has changed since it was built.
+		 * 
+		 * @return the Builder variable with the zone map turned on
+		 */
+		public Builder zoneMap() {
+			zoned = true;
+			return this;
+		}
+
+		/**
+		 * Streams the file through TSVPipeline instead of reading the entire
+		 * file into memory first. Useful for files too large to fit in memory.
+		 * 
+		 * @return the Builder variable with streaming turned on
+		 */
+		public Builder stream() {
+			streaming = true;
+			return this;
+		}
+
+		/**
+		 * Splits the file into parts that are cleansed, filtered and computed
+		 * at the same time, using every available processor.
+		 * 
+		 * @return the Builder variable with parallel processing turned on
+		 */
+		public Builder parallel() {
+			return parallel(Runtime.getRuntime().availableProcessors());
+		}
+
+		/**
+		 * Splits the file into parts that are cleansed, filtered and computed
+		 * at the same time by the given number of threads.
+		 * 
+		 * @param myThreads
+		 *            the number of threads
+		 * @return the Builder variable with parallel processing turned on
+		 */
+		public Builder parallel(int myThreads) {
+			parallelism = myThreads;
+			return this;
+		}
+
+		/**
+		 * Runs the file through stages that read, parse, filter and write it
+		 * at the same time, with a parser thread for every available
+		 * processor.
+		 * 
+		 * @return the Builder variable with staged processing turned on
+		 */
+		public Builder staged() {
+			return staged(Runtime.getRuntime().availableProcessors());
+		}
+
+		/**
+		 * Runs the file through stages that read, parse, filter and write it
+		 * at the same time, with the given number of parser threads.
+		 * 
+		 * @param myWorkers
+		 *            the number of parser threads
+		 * @return the Builder variable with staged processing turned on
+		 */
+		public Builder staged(int myWorkers) {
+			stageWorkers = myWorkers;
+			return this;
+		}
+
+		/**
+		 * Determines how many batches of lines a staged file can have in memory
+		 * at once. The reader waits for a batch to be written before it reads
+		 * another one past this.
+		 * 
+		 * @param myBatches
+		 *            the number of batches
+		 * @return the Builder variable with the number of batches
+		 */
+		public Builder stageMemory(int myBatches) {
+			stageBatches = myBatches;
+			return this;
+		}
+
 		/**
 		 * Builds the instance of TSVFilter.
 		 * 
@@ -216,4 +1168,20 @@ public class TSVFilter {
 	public void toString(String computed) {
 		System.out.println("The value of " + terminalType + " is " + computed + ".");
 	}
+
+	/**
+	 * Converts the computed information of one group into a String that prints
+	 * to the console.
+	 * 
+	 * @param group
+	 *            the values of the group fields, or null if there is no group
+	 * @param computed
+	 *            the result of the computation
+	 */
+	public void toString(String group, String computed) {
+		if (group == null)
+			toString(computed);
+		else
+			System.out.println("The value of " + terminalType + " for " + group + " is " + computed + ".");
+	}
 }
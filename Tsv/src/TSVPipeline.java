@@ -1,130 +1,881 @@
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.lang.NumberFormatException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class TSVPipeline {
+	// The smallest part a file is split into for parallel processing.
+	public static final long MINCHUNK = 1 << 20;
 	private String myFileName;
 	private Formatter myFormatter;
-	private String entireFile;
 	private String firstLine = "";
+	private ColumnTable table;
+	private int[] rows;
+	private String group;
+	private PipelineMetrics metrics = new PipelineMetrics();
+	private PipelineMonitor monitor;
 
 	public void doIt(TSVFilter myTSVFilter) {
-		myFileName = myTSVFilter.getFileName() + ".tsv";
+		start(myTSVFilter);
+		order(myTSVFilter, myFormatter);
+		run(myTSVFilter);
+		finish(myTSVFilter);
+	}
+
+	private void start(TSVFilter myTSVFilter) {
+		myFileName = GzipChannel.inputName(myTSVFilter.getFileName());
 		myFormatter = new Formatter(myFileName);
-		entireFile = myFormatter.readFile();
+		if (myTSVFilter.getOutputName() != null)
+			myFormatter.setOutputName(myTSVFilter.getOutputName());
+		else if (myTSVFilter.isCompressed() && !(myFileName.endsWith(".gz")))
+			myFormatter.setOutputName(myFormatter.getOutputName() + ".gz");
+		metrics = new PipelineMetrics();
+		myFormatter.setMetrics(metrics);
+		myFormatter.setSync(myTSVFilter.isSync());
+	}
+
+	private void finish(TSVFilter myTSVFilter) {
+		metrics.finish();
+		if (monitor != null)
+			monitor.update(metrics);
+		if (myTSVFilter.getMetricsName() != null)
+			metrics.writeSummary(myTSVFilter.getMetricsName());
+	}
+
+	// Puts the records the writer writes in order, unless they are added to an earlier run.
+	private void order(TSVFilter myTSVFilter, Formatter writer) {
+		if (!(myTSVFilter.hasOrderBy()))
+			return;
+		if (myTSVFilter.isIncremental())
+			System.out.println("An incremental run is written in the order it is read.");
+		else
+			writer.setOrder(myTSVFilter.getOrderFields(), myTSVFilter.getDescending(), myTSVFilter.getSortRecords(),
+					myTSVFilter.getSortThreads());
+	}
+
+	// The metrics of the latest call to doIt or doAll.
+	public PipelineMetrics getMetrics() {
+		return metrics;
+	}
+
+	// Publishes the metrics of every later run as a JMX MBean.
+	public void registerMBean(String name) {
+		monitor = PipelineMonitor.register(name);
+	}
+
+	private void run(TSVFilter myTSVFilter) {
+		if (myTSVFilter.hasJoin()) {
+			if (myTSVFilter.isIncremental() || myTSVFilter.getParallelism() > 0 || myTSVFilter.isIndexed()
+					|| myTSVFilter.isZoned() || myTSVFilter.isCached())
+				System.out.println("A join is streamed from the start of both files instead.");
+			joinFile(myTSVFilter);
+			return;
+		}
+		if (myTSVFilter.hasGroupBy()) {
+			if (myTSVFilter.getStageWorkers() > 0)
+				stagedFile(myTSVFilter);
+			else
+				streamFile(myTSVFilter);
+			return;
+		}
+		if (myTSVFilter.isIncremental()) {
+			incrementalFile(myTSVFilter);
+			return;
+		}
+		if (myTSVFilter.getParallelism() > 0) {
+			parallelFile(myTSVFilter);
+			return;
+		}
+		if (myTSVFilter.isIndexed()) {
+			indexFile(myTSVFilter);
+			return;
+		}
+		if (myTSVFilter.isZoned()) {
+			zoneFile(myTSVFilter);
+			return;
+		}
+		if (myTSVFilter.getStageWorkers() > 0) {
+			stagedFile(myTSVFilter);
+			return;
+		}
+		if (myTSVFilter.isStreaming()) {
+			streamFile(myTSVFilter);
+			return;
+		}
+		ColumnTable myTable = myTSVFilter.isCached() ? cachedTable() : myFormatter.readTable();
 		firstLine = myFormatter.firstLine;
-		if (entireFile.equals("File Not Found!"))
+		if (myFormatter.entireFile.equals("File Not Found!"))
 			;
-		else if (entireFile.isEmpty() || firstLine == null)
+		else if (firstLine == null)
 			System.out.println("The file is missing its first line!");
-		else {
-			String wantedField = myTSVFilter.getField();
-			String wantedField2 = myTSVFilter.getField2();
-			if (wantedField.equals("None"))
-				myFormatter.writeFile(entireFile);
-			else {
-				if (myTSVFilter.getStringValue() == (null))
-					filterFile(wantedField, myTSVFilter.getLongValue());
-				else
-					filterFile(wantedField, myTSVFilter.getStringValue());
-				myFormatter.writeFile(entireFile);
+		else if (myTable == null)
+			myFormatter.writeFile(myFormatter.entireFile);
+		else
+			filterTable(myTSVFilter, myTable);
+	}
+
+	// Reads the table from its ColumnCache, or parses the file and caches it.
+	private ColumnTable cachedTable() {
+		long begin = System.nanoTime();
+		ColumnTable myTable = ColumnCache.load(myFileName);
+		if (myTable != null) {
+			metrics.read(myTable.getRowCount(), new File(ColumnCache.cacheName(myFileName)).length());
+			metrics.time(Stage.READ, begin);
+			myFormatter.firstLine = myTable.getFirstLine();
+			return myTable;
+		}
+		myTable = myFormatter.readTable();
+		if (myTable != null) {
+			try {
+				ColumnCache.save(myFileName, myTable);
+			} catch (IOException error) {
+				System.out.println("The cache could not be written.");
 			}
-			if (!(wantedField2.equals("None")))
-				chooseCompute(myTSVFilter, new Computer(myFormatter.firstLine, entireFile));
 		}
+		return myTable;
 	}
 
-	public void filterFile(String onlyField, String data) {
-		int recordIndex = -1;
-		String[] fields = firstLine.split("\t");
-		for (int i = 0; i < fields.length; i++) {
-			if (onlyField.equals(fields[i]))
-				recordIndex = i;
-		}
-		if (recordIndex == -1) {
-			System.out.println("Accurate field not specified.");
-		} else {
-			String newEntireFile = "";
-			for (String each : entireFile.split("\r\n")) {
-				String[] words = each.split("\t");
-				if (words[recordIndex].equals(data))
-					newEntireFile += (each + "\r\n");
+	public List<FilterResult> doAll(List<TSVFilter> myTSVFilters) {
+		FilterResult[] results = new FilterResult[myTSVFilters.size()];
+		metrics = new PipelineMetrics();
+		LinkedHashMap<String, List<Integer>> files = new LinkedHashMap<String, List<Integer>>();
+		for (int i = 0; i < myTSVFilters.size(); i++) {
+			TSVFilter myTSVFilter = myTSVFilters.get(i);
+			String scan = myTSVFilter.getFileName();
+			// Filters that join the same file the same way share one scan too.
+			if (myTSVFilter.hasJoin())
+				scan += "\t" + myTSVFilter.getJoinName() + "\t" + myTSVFilter.getJoinField() + "\t"
+						+ myTSVFilter.getJoinedField() + "\t" + myTSVFilter.isLeftJoin();
+			if (!(files.containsKey(scan)))
+				files.put(scan, new ArrayList<Integer>());
+			files.get(scan).add(i);
+		}
+		for (List<Integer> positions : files.values())
+			batchFile(myTSVFilters.get(positions.get(0)).getFileName(), positions, myTSVFilters, results);
+		metrics.finish();
+		if (monitor != null)
+			monitor.update(metrics);
+		for (TSVFilter myTSVFilter : myTSVFilters) {
+			if (myTSVFilter.getMetricsName() != null)
+				metrics.writeSummary(myTSVFilter.getMetricsName());
+		}
+		return Arrays.asList(results);
+	}
+
+	private void batchFile(String fileName, List<Integer> positions, List<TSVFilter> myTSVFilters,
+			FilterResult[] results) {
+		myFileName = GzipChannel.inputName(fileName);
+		myFormatter = new Formatter(myFileName);
+		myFormatter.setMetrics(metrics);
+		boolean opened = myFormatter.openStream();
+		firstLine = myFormatter.firstLine;
+		String format = myFormatter.getFormat();
+		HashJoin join = null;
+		if (opened && myTSVFilters.get(positions.get(0)).hasJoin()) {
+			join = join(myTSVFilters.get(positions.get(0)));
+			opened = join.open();
+			// Without a first line, nothing is written if the join can't be opened.
+			firstLine = opened ? join.getFirstLine() : null;
+			format = join.getFormat();
+		}
+		int size = positions.size();
+		Formatter[] writers = new Formatter[size];
+		FilterExpression[] selects = new FilterExpression[size];
+		AggregationEngine[] engines = new AggregationEngine[size];
+		GroupAggregator[] groupers = new GroupAggregator[size];
+		Projection[] projections = new Projection[size];
+		List<String> readFields = new ArrayList<String>();
+		long[] counts = new long[size];
+		for (int i = 0; i < size; i++) {
+			TSVFilter myTSVFilter = myTSVFilters.get(positions.get(i));
+			writers[i] = new Formatter(myFileName);
+			writers[i].firstLine = firstLine;
+			writers[i].setMetrics(metrics);
+			writers[i].setSync(myTSVFilter.isSync());
+			order(myTSVFilter, writers[i]);
+			if (myTSVFilter.getOutputName() != null)
+				writers[i].setOutputName(myTSVFilter.getOutputName());
+			else if (size > 1)
+				writers[i].setOutputName("filtered" + (i + 1) + myFileName);
+			if (myTSVFilter.getOutputName() == null && myTSVFilter.isCompressed() && !(myFileName.endsWith(".gz")))
+				writers[i].setOutputName(writers[i].getOutputName() + ".gz");
+			if (!opened) {
+				if (!(myFormatter.entireFile.equals("File Not Found!")) && firstLine != null)
+					writers[i].writeFile(myFormatter.entireFile);
+				results[positions.get(i)] = new FilterResult(myTSVFilter, writers[i].getOutputName(), null, 0);
+				continue;
+			}
+			selects[i] = myTSVFilter.compile(firstLine);
+			engines[i] = engine(myTSVFilter);
+			groupers[i] = groupAggregator(myTSVFilter, engines[i], format);
+			projections[i] = project(myTSVFilter, writers[i], firstLine);
+			readFields.addAll(myTSVFilter.getReadFields());
+			writers[i].openWriter(false, format);
+		}
+		if (!opened)
+			return;
+		// The fields any of the filters use are read once for all of them.
+		Projection scan = new Projection(firstLine, readFields, new String[0]);
+		String[] words = scan.newWords();
+		StringBuilder recordBuilder = new StringBuilder();
+		String record = null;
+		try {
+			while (join != null ? (record = join.nextRecord()) != null : myFormatter.nextWords(scan, words)) {
+				if (join != null)
+					scan.read(record, words);
+				metrics.lap(Stage.CLEANSE);
+				for (int i = 0; i < size; i++) {
+					boolean kept = selects[i].matches(words);
+					metrics.lap(Stage.FILTER);
+					if (!kept)
+						continue;
+					writers[i].writeRecord(join != null ? projections[i].write(record, recordBuilder)
+							: myFormatter.record(projections[i]));
+					metrics.keep(1);
+					metrics.lap(Stage.WRITE);
+					engines[i].addRecord(words);
+					if (groupers[i] != null)
+						groupers[i].addRecord(words);
+					counts[i]++;
+					metrics.lap(Stage.COMPUTE);
+				}
 			}
-			entireFile = newEntireFile;
+		} catch (IOException error) {
+			System.out.println("The groups could not be written to disk.");
+			for (int i = 0; i < size; i++)
+				writers[i].closeWriter();
+			myFormatter.closeStream();
+			if (join != null)
+				join.close();
+			return;
+		}
+		for (int i = 0; i < size; i++) {
+			TSVFilter myTSVFilter = myTSVFilters.get(positions.get(i));
+			writers[i].closeWriter();
+			long begin = System.nanoTime();
+			Computer myComputer = new Computer(firstLine, engines[i]);
+			if (groupers[i] != null)
+				computeGroups(myTSVFilter, groupers[i]);
+			else if (!(myTSVFilter.getField2().equals("None")))
+				chooseCompute(myTSVFilter, myComputer);
+			metrics.time(Stage.COMPUTE, begin);
+			results[positions.get(i)] = new FilterResult(myTSVFilter, writers[i].getOutputName(), myComputer,
+					counts[i]);
 		}
+	}
 
+	public ColumnTable load(String fileName) {
+		return new Formatter(fileName + ".tsv").readTable();
 	}
 
-	public void filterFile(String onlyField, long data) {
-		int recordIndex = -1;
+	public void doIt(TSVFilter myTSVFilter, ColumnTable myTable) {
+		if (myTSVFilter.hasJoin()) {
+			System.out.println("A join can't be run on a table that is already read.");
+			return;
+		}
+		start(myTSVFilter);
+		order(myTSVFilter, myFormatter);
+		filterTable(myTSVFilter, myTable);
+		finish(myTSVFilter);
+	}
+
+	private void filterTable(TSVFilter myTSVFilter, ColumnTable myTable) {
+		myFormatter.firstLine = myTable.getFirstLine();
+		firstLine = myTable.getFirstLine();
+		table = myTable;
+		rows = table.allRows();
+		String wantedField2 = myTSVFilter.getField2();
+		long begin = System.nanoTime();
+		if (myTSVFilter.hasSelect())
+			rows = myTSVFilter.compile(firstLine).filter(table, rows);
+		metrics.time(Stage.FILTER, begin);
+		begin = System.nanoTime();
+		project(myTSVFilter, myFormatter, firstLine);
+		myFormatter.writeTable(table, rows);
+		metrics.keep(rows.length);
+		metrics.time(Stage.WRITE, begin);
+		begin = System.nanoTime();
+		if (myTSVFilter.hasGroupBy())
+			groupTable(myTSVFilter);
+		else if (!(wantedField2.equals("None")))
+			chooseCompute(myTSVFilter, new Computer(table, rows));
+		metrics.time(Stage.COMPUTE, begin);
+	}
+
+	private void groupTable(TSVFilter myTSVFilter) {
 		String[] fields = firstLine.split("\t");
-		for (int i = 0; i < fields.length; i++) {
-			if (onlyField.equals(fields[i]))
-				recordIndex = i;
-		}
-		if (recordIndex == -1)
-			System.out.println("Accurate field not specified.");
-		else {
-			String newEntireFile = "";
-			for (String each : entireFile.split("\r\n")) {
-				String[] words = each.split("\t");
-				long wantedNum = Long.parseLong(words[recordIndex]);
-				if (wantedNum == data)
-					newEntireFile += (each + "\r\n");
+		AggregationEngine myEngine = engine(myTSVFilter);
+		GroupAggregator myGroups = groupAggregator(myTSVFilter, myEngine, table.getFormat());
+		List<Integer> needed = new ArrayList<Integer>();
+		for (String groupField : myTSVFilter.getGroupFields())
+			needed.add(table.columnIndex(groupField));
+		needed.add(table.columnIndex(myTSVFilter.getField2()));
+		String[] words = new String[fields.length];
+		try {
+			for (int row : rows) {
+				for (int column : needed) {
+					if (column != -1)
+						words[column] = table.getString(column, row);
+				}
+				myGroups.addRecord(words);
+			}
+		} catch (IOException error) {
+			System.out.println("The groups could not be written to disk.");
+			return;
+		}
+		computeGroups(myTSVFilter, myGroups);
+	}
+
+	// Which fields the filter uses and writes, with the writer only writing those.
+	private Projection project(TSVFilter myTSVFilter, Formatter writer, String myFirstLine) {
+		Projection projection = new Projection(myFirstLine, myTSVFilter.getReadFields(),
+				myTSVFilter.getProjection());
+		writer.setProjection(projection);
+		return projection;
+	}
+
+	// The join of another file to the file read by myFormatter.
+	private HashJoin join(TSVFilter myTSVFilter) {
+		return new HashJoin(myFormatter, myFileName, myTSVFilter.getJoinName(), myTSVFilter.getJoinField(),
+				myTSVFilter.getJoinedField(), myTSVFilter.isLeftJoin(), myTSVFilter.getJoinRecords());
+	}
+
+	// The statistics of the compute field, with a ValueSketch if the terminal needs one.
+	private AggregationEngine engine(TSVFilter myTSVFilter) {
+		if (myTSVFilter.getField2().equals("None"))
+			return new AggregationEngine(firstLine);
+		AggregationEngine myEngine = new AggregationEngine(firstLine, myTSVFilter.getField2());
+		ValueSketch sketch = myTSVFilter.sketch();
+		if (sketch != null)
+			myEngine.track(myTSVFilter.getField2(), sketch);
+		return myEngine;
+	}
+
+	private GroupAggregator groupAggregator(TSVFilter myTSVFilter, AggregationEngine myEngine, String format) {
+		if (!(myTSVFilter.hasGroupBy()))
+			return null;
+		return new GroupAggregator(firstLine, format, myTSVFilter.getGroupFields(), myEngine,
+				myTSVFilter.getMaxGroups());
+	}
+
+	private void computeGroups(TSVFilter myTSVFilter, GroupAggregator myGroups) {
+		try {
+			while (myGroups.nextGroup()) {
+				group = myGroups.getLabel();
+				chooseCompute(myTSVFilter, new Computer(firstLine, myGroups.getEngine()));
+			}
+		} catch (IOException error) {
+			System.out.println("The groups could not be read back from disk.");
+		} finally {
+			group = null;
+		}
+	}
+
+	public void streamFile(TSVFilter myTSVFilter) {
+		if (!myFormatter.openStream()) {
+			if (!(myFormatter.entireFile.equals("File Not Found!")))
+				myFormatter.writeFile(myFormatter.entireFile);
+			return;
+		}
+		firstLine = myFormatter.firstLine;
+		String wantedField2 = myTSVFilter.getField2();
+		FilterExpression mySelect = myTSVFilter.compile(firstLine);
+		AggregationEngine myEngine = engine(myTSVFilter);
+		GroupAggregator myGroups = groupAggregator(myTSVFilter, myEngine, myFormatter.getFormat());
+		Projection projection = project(myTSVFilter, myFormatter, firstLine);
+		String[] words = projection.newWords();
+		myFormatter.openWriter();
+		try {
+			while (myFormatter.nextWords(projection, words)) {
+				metrics.lap(Stage.CLEANSE);
+				boolean kept = mySelect.matches(words);
+				metrics.lap(Stage.FILTER);
+				if (!kept)
+					continue;
+				myFormatter.writeRecord(myFormatter.record(projection));
+				metrics.keep(1);
+				metrics.lap(Stage.WRITE);
+				myEngine.addRecord(words);
+				if (myGroups != null)
+					myGroups.addRecord(words);
+				metrics.lap(Stage.COMPUTE);
+			}
+		} catch (IOException error) {
+			System.out.println("The groups could not be written to disk.");
+			myFormatter.closeStream();
+			return;
+		} finally {
+			myFormatter.closeWriter();
+		}
+		long begin = System.nanoTime();
+		if (myGroups != null)
+			computeGroups(myTSVFilter, myGroups);
+		else if (!(wantedField2.equals("None")))
+			chooseCompute(myTSVFilter, new Computer(firstLine, myEngine));
+		metrics.time(Stage.COMPUTE, begin);
+	}
+
+	// Streams the file through threads that read, parse, filter and write it at the same time.
+	public void stagedFile(TSVFilter myTSVFilter) {
+		if (!myFormatter.openStream()) {
+			if (!(myFormatter.entireFile.equals("File Not Found!")))
+				myFormatter.writeFile(myFormatter.entireFile);
+			return;
+		}
+		myFormatter.closeStream();
+		firstLine = myFormatter.firstLine;
+		String wantedField2 = myTSVFilter.getField2();
+		FilterExpression mySelect = myTSVFilter.compile(firstLine);
+		AggregationEngine myEngine = engine(myTSVFilter);
+		GroupAggregator myGroups = groupAggregator(myTSVFilter, myEngine, myFormatter.getFormat());
+		Projection projection = project(myTSVFilter, myFormatter, firstLine);
+		StagedExecutor executor = new StagedExecutor(myFileName, myFormatter, mySelect, projection, myEngine, myGroups,
+				myTSVFilter.getStageWorkers(), myTSVFilter.getStageBatches());
+		myFormatter.openWriter();
+		try {
+			executor.run();
+		} catch (IOException error) {
+			System.out.println("The file could not be run through the stages.");
+			return;
+		} finally {
+			myFormatter.closeWriter();
+			metrics.merge(executor.getMetrics());
+		}
+		long begin = System.nanoTime();
+		if (myGroups != null)
+			computeGroups(myTSVFilter, myGroups);
+		else if (!(wantedField2.equals("None")))
+			chooseCompute(myTSVFilter, new Computer(firstLine, myEngine));
+		metrics.time(Stage.COMPUTE, begin);
+	}
+
+	public void joinFile(TSVFilter myTSVFilter) {
+		if (!myFormatter.openStream()) {
+			if (!(myFormatter.entireFile.equals("File Not Found!")))
+				myFormatter.writeFile(myFormatter.entireFile);
+			return;
+		}
+		HashJoin join = join(myTSVFilter);
+		if (!(join.open()))
+			return;
+		firstLine = join.getFirstLine();
+		// myFormatter still replays its own first line, so the joined records
+		// are written by another Formatter.
+		Formatter writer = new Formatter(myFileName);
+		writer.firstLine = firstLine;
+		writer.setOutputName(myFormatter.getOutputName());
+		writer.setMetrics(metrics);
+		writer.setSync(myTSVFilter.isSync());
+		order(myTSVFilter, writer);
+		String wantedField2 = myTSVFilter.getField2();
+		FilterExpression mySelect = myTSVFilter.compile(firstLine);
+		AggregationEngine myEngine = engine(myTSVFilter);
+		GroupAggregator myGroups = groupAggregator(myTSVFilter, myEngine, join.getFormat());
+		Projection projection = project(myTSVFilter, writer, firstLine);
+		String[] words = projection.newWords();
+		StringBuilder recordBuilder = new StringBuilder();
+		writer.openWriter(false, join.getFormat());
+		String record;
+		try {
+			while ((record = join.nextRecord()) != null) {
+				projection.read(record, words);
+				metrics.lap(Stage.CLEANSE);
+				boolean kept = mySelect.matches(words);
+				metrics.lap(Stage.FILTER);
+				if (!kept)
+					continue;
+				writer.writeRecord(projection.write(record, recordBuilder));
+				metrics.keep(1);
+				metrics.lap(Stage.WRITE);
+				myEngine.addRecord(words);
+				if (myGroups != null)
+					myGroups.addRecord(words);
+				metrics.lap(Stage.COMPUTE);
+			}
+		} catch (IOException error) {
+			System.out.println("The groups could not be written to disk.");
+			join.close();
+			return;
+		} finally {
+			writer.closeWriter();
+		}
+		long begin = System.nanoTime();
+		if (myGroups != null)
+			computeGroups(myTSVFilter, myGroups);
+		else if (!(wantedField2.equals("None")))
+			chooseCompute(myTSVFilter, new Computer(firstLine, myEngine));
+		metrics.time(Stage.COMPUTE, begin);
+	}
+
+	public void incrementalFile(TSVFilter myTSVFilter) {
+		// A compressed file can only be decompressed in order from its start.
+		if (!(MappedReader.isSeekable(myFileName))) {
+			System.out.println("A compressed file is streamed from its start instead.");
+			streamFile(myTSVFilter);
+			return;
+		}
+		if (!myFormatter.openStream()) {
+			if (!(myFormatter.entireFile.equals("File Not Found!")))
+				myFormatter.writeFile(myFormatter.entireFile);
+			return;
+		}
+		firstLine = myFormatter.firstLine;
+		String wantedField2 = myTSVFilter.getField2();
+		FilterExpression mySelect = myTSVFilter.compile(firstLine);
+		AggregationEngine myEngine = engine(myTSVFilter);
+		String outputName = myFormatter.getOutputName();
+		String format = myFormatter.getFormat();
+		String signature = myTSVFilter.signature();
+		try {
+			long restored = Checkpoint.restore(myFileName, outputName, firstLine, format, signature, myEngine);
+			long end = MappedReader.completeLinesEnd(myFileName);
+			long start = myFormatter.limitStream(Math.max(restored, 0), end);
+			Projection projection = project(myTSVFilter, myFormatter, firstLine);
+			String[] words = projection.newWords();
+			myFormatter.openWriter(restored > 0);
+			try {
+				while (myFormatter.nextWords(projection, words)) {
+					metrics.lap(Stage.CLEANSE);
+					boolean kept = mySelect.matches(words);
+					metrics.lap(Stage.FILTER);
+					if (!kept)
+						continue;
+					myFormatter.writeRecord(myFormatter.record(projection));
+					metrics.keep(1);
+					metrics.lap(Stage.WRITE);
+					myEngine.addRecord(words);
+					metrics.lap(Stage.COMPUTE);
+				}
+			} finally {
+				myFormatter.closeWriter();
+			}
+			Checkpoint.save(myFileName, outputName, Math.max(start, end), firstLine, format, signature, myEngine);
+		} catch (IOException error) {
+			System.out.println("The checkpoint could not be saved.");
+			myFormatter.closeStream();
+			return;
+		}
+		long begin = System.nanoTime();
+		if (!(wantedField2.equals("None")))
+			chooseCompute(myTSVFilter, new Computer(firstLine, myEngine));
+		metrics.time(Stage.COMPUTE, begin);
+	}
+
+	public FileFollower follow(TSVFilter myTSVFilter) {
+		return follow(myTSVFilter, FileFollower.POLL);
+	}
+
+	public FileFollower follow(TSVFilter myTSVFilter, long pollMillis) {
+		start(myTSVFilter);
+		if (!(MappedReader.isSeekable(myFileName))) {
+			System.out.println("A compressed file can't be followed.");
+			return null;
+		}
+		if (myTSVFilter.hasJoin()) {
+			System.out.println("A followed file can't be joined.");
+			return null;
+		}
+		if (!myFormatter.openStream()) {
+			if (!(myFormatter.entireFile.equals("File Not Found!")))
+				myFormatter.writeFile(myFormatter.entireFile);
+			return null;
+		}
+		firstLine = myFormatter.firstLine;
+		AggregationEngine myEngine = engine(myTSVFilter);
+		FileFollower follower = new FileFollower(myFileName, myFormatter, myTSVFilter.compile(firstLine),
+				project(myTSVFilter, myFormatter, firstLine), myEngine, pollMillis);
+		follower.start();
+		return follower;
+	}
+
+	public void indexFile(TSVFilter myTSVFilter) {
+		// A compressed file can only be decompressed in order from its start.
+		if (!(MappedReader.isSeekable(myFileName))) {
+			System.out.println("A compressed file is streamed from its start instead.");
+			streamFile(myTSVFilter);
+			return;
+		}
+		Condition lookup = myTSVFilter.indexCondition();
+		if (lookup == null) {
+			System.out.println("The select can't be looked up in an index.");
+			streamFile(myTSVFilter);
+			return;
+		}
+		if (!myFormatter.openStream()) {
+			if (!(myFormatter.entireFile.equals("File Not Found!")))
+				myFormatter.writeFile(myFormatter.entireFile);
+			return;
+		}
+		myFormatter.closeStream();
+		firstLine = myFormatter.firstLine;
+		int column = Arrays.asList(firstLine.split("\t")).lastIndexOf(lookup.getField());
+		if (column == -1) {
+			streamFile(myTSVFilter);
+			return;
+		}
+		String wantedField2 = myTSVFilter.getField2();
+		FilterExpression mySelect = myTSVFilter.compile(firstLine);
+		AggregationEngine myEngine = engine(myTSVFilter);
+		try {
+			long begin = System.nanoTime();
+			if (!(ValueIndex.isCurrent(myFileName, lookup.getField())))
+				ValueIndex.build(myFileName, column, lookup.getField(), myFormatter);
+			metrics.time(Stage.READ, begin);
+			long[] offsets = ValueIndex.lookup(myFileName, lookup.getValue());
+			StringBuilder lineBuilder = new StringBuilder();
+			Projection projection = project(myTSVFilter, myFormatter, firstLine);
+			String[] words = projection.newWords();
+			myFormatter.openWriter();
+			try (MappedReader reader = new MappedReader(myFileName)) {
+				for (long offset : offsets) {
+					metrics.begin();
+					reader.seek(offset);
+					if (!(reader.nextLine()))
+						continue;
+					metrics.read(reader.position() - reader.lineOffset());
+					metrics.lap(Stage.READ);
+					if (!(myFormatter.hasFormat(reader))) {
+						metrics.reject(myFormatter.rejection(reader));
+						metrics.lap(Stage.CLEANSE);
+						continue;
+					}
+					projection.read(reader, words);
+					metrics.lap(Stage.CLEANSE);
+					boolean kept = mySelect.matches(words);
+					metrics.lap(Stage.FILTER);
+					if (!kept)
+						continue;
+					myFormatter.writeRecord(projection.write(reader, lineBuilder));
+					metrics.keep(1);
+					metrics.lap(Stage.WRITE);
+					myEngine.addRecord(words);
+					metrics.lap(Stage.COMPUTE);
+				}
+			} finally {
+				myFormatter.closeWriter();
+			}
+		} catch (IOException error) {
+			System.out.println("The index could not be used.");
+			return;
+		}
+		long begin = System.nanoTime();
+		if (!(wantedField2.equals("None")))
+			chooseCompute(myTSVFilter, new Computer(firstLine, myEngine));
+		metrics.time(Stage.COMPUTE, begin);
+	}
+
+	public void zoneFile(TSVFilter myTSVFilter) {
+		// A compressed file can only be decompressed in order from its start.
+		if (!(MappedReader.isSeekable(myFileName))) {
+			System.out.println("A compressed file is streamed from its start instead.");
+			streamFile(myTSVFilter);
+			return;
+		}
+		if (!myFormatter.openStream()) {
+			if (!(myFormatter.entireFile.equals("File Not Found!")))
+				myFormatter.writeFile(myFormatter.entireFile);
+			return;
+		}
+		myFormatter.closeStream();
+		firstLine = myFormatter.firstLine;
+		String wantedField2 = myTSVFilter.getField2();
+		FilterExpression mySelect = myTSVFilter.compile(firstLine);
+		AggregationEngine myEngine = engine(myTSVFilter);
+		try {
+			long begin = System.nanoTime();
+			ZoneMap zones = ZoneMap.load(myFileName);
+			if (zones == null)
+				zones = ZoneMap.build(myFileName, myFormatter);
+			metrics.time(Stage.READ, begin);
+			StringBuilder lineBuilder = new StringBuilder();
+			Projection projection = project(myTSVFilter, myFormatter, firstLine);
+			String[] words = projection.newWords();
+			myFormatter.openWriter();
+			try (MappedReader reader = new MappedReader(myFileName)) {
+				for (int block = 0; block < zones.getBlockCount(); block++) {
+					if (!(zones.mayMatch(block, mySelect)))
+						continue;
+					reader.seek(zones.getStart(block));
+					while (true) {
+						metrics.begin();
+						if (reader.position() >= zones.getEnd(block) || !(reader.nextLine()))
+							break;
+						// The first line is counted in the metrics as part of
+						// finding the format, the same way Formatter counts it.
+						boolean header = reader.lineOffset() == 0;
+						if (!header)
+							metrics.read(reader.position() - reader.lineOffset());
+						metrics.lap(Stage.READ);
+						if (!(myFormatter.hasFormat(reader))) {
+							if (!header)
+								metrics.reject(myFormatter.rejection(reader));
+							metrics.lap(Stage.CLEANSE);
+							continue;
+						}
+						projection.read(reader, words);
+						metrics.lap(Stage.CLEANSE);
+						boolean kept = mySelect.matches(words);
+						metrics.lap(Stage.FILTER);
+						if (!kept)
+							continue;
+						myFormatter.writeRecord(projection.write(reader, lineBuilder));
+						metrics.keep(1);
+						metrics.lap(Stage.WRITE);
+						myEngine.addRecord(words);
+						metrics.lap(Stage.COMPUTE);
+					}
+				}
+			} finally {
+				myFormatter.closeWriter();
+			}
+		} catch (IOException error) {
+			System.out.println("The zone map could not be used.");
+			return;
+		}
+		long begin = System.nanoTime();
+		if (!(wantedField2.equals("None")))
+			chooseCompute(myTSVFilter, new Computer(firstLine, myEngine));
+		metrics.time(Stage.COMPUTE, begin);
+	}
+
+	public void parallelFile(TSVFilter myTSVFilter) {
+		// A compressed file can only be decompressed in order from its start.
+		if (!(MappedReader.isSeekable(myFileName))) {
+			System.out.println("A compressed file is streamed from its start instead.");
+			streamFile(myTSVFilter);
+			return;
+		}
+		if (!myFormatter.openStream()) {
+			if (!(myFormatter.entireFile.equals("File Not Found!")))
+				myFormatter.writeFile(myFormatter.entireFile);
+			return;
+		}
+		myFormatter.closeStream();
+		firstLine = myFormatter.firstLine;
+		String wantedField2 = myTSVFilter.getField2();
+		FilterExpression mySelect = myTSVFilter.compile(firstLine);
+		AggregationEngine myEngine = engine(myTSVFilter);
+		Projection projection = project(myTSVFilter, myFormatter, firstLine);
+		ForkJoinPool pool = new ForkJoinPool(myTSVFilter.getParallelism());
+		List<ChunkTask> tasks = new ArrayList<ChunkTask>();
+		try {
+			long size = new File(myFileName).length();
+			long chunks = Math.max(1, Math.min(myTSVFilter.getParallelism() * 4L, size / MINCHUNK));
+			long start = 0;
+			// Compressed parts are joined as gzip members of the filtered file.
+			String suffix = myFormatter.getOutputName().endsWith(".gz") ? ".part.gz" : ".part";
+			for (long i = 1; i <= chunks && start < size; i++) {
+				long end = MappedReader.lineStartAfter(myFileName, size * i / chunks);
+				if (end > start) {
+					tasks.add(new ChunkTask(myFileName, start, end, myFormatter, mySelect, projection,
+							new AggregationEngine(myEngine), File.createTempFile("filtered", suffix)));
+					start = end;
+				}
 			}
-			entireFile = newEntireFile;
+			List<File> parts = new ArrayList<File>();
+			for (Future<AggregationEngine> result : pool.invokeAll(tasks))
+				myEngine.merge(result.get());
+			for (ChunkTask task : tasks) {
+				parts.add(task.getPart());
+				metrics.merge(task.getMetrics());
+			}
+			long begin = System.nanoTime();
+			myFormatter.writeFile("");
+			myFormatter.appendFiles(parts);
+			metrics.time(Stage.WRITE, begin);
+		} catch (IOException | InterruptedException | ExecutionException error) {
+			System.out.println("The file could not be split up.");
+			return;
+		} finally {
+			pool.shutdown();
+			for (ChunkTask task : tasks)
+				task.getPart().delete();
 		}
+		long begin = System.nanoTime();
+		if (!(wantedField2.equals("None")))
+			chooseCompute(myTSVFilter, new Computer(firstLine, myEngine));
+		metrics.time(Stage.COMPUTE, begin);
+	}
+
+	// Keeps only the rows of the table doIt last filtered whose field is the
+	// data. A select with an EQUALS condition does the same thing.
+	@Deprecated
+	public void filterFile(String onlyField, String data) {
+		filterRows(new Condition(onlyField, Comparison.EQUALS, data));
+	}
+
+	@Deprecated
+	public void filterFile(String onlyField, long data) {
+		filterRows(new Condition(onlyField, Comparison.EQUALS, data));
+	}
+
+	// Filters the rows of the table doIt last filtered the way the select does.
+	private void filterRows(Condition condition) {
+		if (table == null) {
+			System.out.println("No table has been filtered yet.");
+			return;
+		}
+		List<List<Condition>> groups = new ArrayList<List<Condition>>();
+		groups.add(Arrays.asList(condition));
+		rows = new FilterExpression(groups, table.getFirstLine()).filter(table, rows);
 	}
 
 	public void chooseCompute(TSVFilter myTSVF, Computer myComputer) {
+		ValueSketch sketch = myTSVF.sketch();
+		if (sketch != null) {
+			myComputer.track(myTSVF.getField2(), sketch);
+			String computed = myComputer.computeSketch(myTSVF.getField2());
+			myTSVF.toString(group, computed == null ? "unavailable" : computed);
+			return;
+		}
 		switch (myTSVF.getTerminalType()) {
 		case "ALLSAME":
-			myTSVF.toString("" + myComputer.computeALLSAME(myTSVF.getField2()));
+			myTSVF.toString(group, "" + myComputer.computeALLSAME(myTSVF.getField2()));
 			break;
 		case "COUNT":
-			myTSVF.toString("" + myComputer.computeCOUNT());
+			myTSVF.toString(group, "" + myComputer.computeCOUNT());
 			break;
 		case "MIN":
 			if (myComputer.computeMIN(myTSVF.getField2()).equals("" + myComputer.MINDEFAULT))
-				myTSVF.toString("unavailable");
+				myTSVF.toString(group, "unavailable");
 			else
-				myTSVF.toString("" + myComputer.computeMIN(myTSVF.getField2()));
+				myTSVF.toString(group, "" + myComputer.computeMIN(myTSVF.getField2()));
 			break;
 		case "MAX":
 			if (myComputer.computeMAX(myTSVF.getField2()).equals("" + myComputer.MAXDEFAULT))
-				myTSVF.toString("unavailable");
+				myTSVF.toString(group, "unavailable");
 			else
-				myTSVF.toString("" + myComputer.computeMAX(myTSVF.getField2()));
+				myTSVF.toString(group, "" + myComputer.computeMAX(myTSVF.getField2()));
 			break;
 		case "SUM":
-			if (myComputer.computeSUM(myTSVF.getField2()) == myComputer.SUMDEFAULT)
-				myTSVF.toString("unavailable");
+			// formatSUM lets the user know if the field has no numbers.
+			String sum = myComputer.formatSUM(myTSVF.getField2());
+			if (!(myComputer.hasNumbers(myTSVF.getField2())))
+				myTSVF.toString(group, "unavailable");
 			else
-				myTSVF.toString("" + myComputer.computeSUM(myTSVF.getField2()));
+				myTSVF.toString(group, sum);
 			break;
 		case "AVERAGE":
-			myTSVF.toString("" + myComputer.computeAVERAGE(myTSVF.getField2()));
+			myTSVF.toString(group, myComputer.formatAVERAGE(myTSVF.getField2()));
 			break;
 		case "STANDARD_DEVIATION":
-			if(myComputer.computeSTANDARD_DEVIATION(myTSVF.getField2()) == 0)
-				myTSVF.toString("either unavailable or the field only has the same number in it");
+			if (!(myComputer.hasDeviation(myTSVF.getField2())))
+				myTSVF.toString(group, "either unavailable or the field only has the same number in it");
 			else
-				myTSVF.toString("" + myComputer.computeSTANDARD_DEVIATION(myTSVF.getField2()));
+				myTSVF.toString(group, myComputer.formatSTANDARD_DEVIATION(myTSVF.getField2()));
 		case "STATS":
-			if (myComputer.computeAVERAGE(myTSVF.getField2()) == 0 && myComputer.computeSUM(myTSVF.getField2()) == 0
-					&& myComputer.computeSTANDARD_DEVIATION(myTSVF.getField2()) == 0)
-				myTSVF.toString("either unavailable or the field only has zeros in it");
+			if (!(myComputer.hasNumbers(myTSVF.getField2())) || myComputer.hasOnlyZeros(myTSVF.getField2()))
+				myTSVF.toString(group, "either unavailable or the field only has zeros in it");
 			else{
-				myTSVF.toString(
-						"COUNT: " + myComputer.computeCOUNT() + " SUM: " + myComputer.computeSUM(myTSVF.getField2())
-								+ " AVERAGE: " + myComputer.computeAVERAGE(myTSVF.getField2()) + " STANDARD_DEVIATION: "
-								+ myComputer.computeSTANDARD_DEVIATION(myTSVF.getField2()));
+				myTSVF.toString(group,
+						"COUNT: " + myComputer.computeCOUNT() + " SUM: " + myComputer.formatSUM(myTSVF.getField2())
+								+ " AVERAGE: " + myComputer.formatAVERAGE(myTSVF.getField2()) + " STANDARD_DEVIATION: "
+								+ myComputer.formatSTANDARD_DEVIATION(myTSVF.getField2()));
 			}
 			break;
 		}
@@ -5,5 +5,5 @@
  *
  */
 public enum Terminal {
-	ALLSAME, COUNT, MIN, MAX, SUM, STATS, AVERAGE, STANDARD_DEVIATION;
+	ALLSAME, COUNT, MIN, MAX, SUM, STATS, AVERAGE, STANDARD_DEVIATION, TOP_K, BOTTOM_K, MOST_FREQUENT, DISTINCT_COUNT, QUANTILES;
 }
@@ -0,0 +1,209 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * TopValues keeps the k highest or lowest values of a field for TOP_K and
+ * BOTTOM_K. Each value is checked against the lowest of the k highest kept so
+ * far, the root of a heap, so a value that isn't among them costs a single
+ * comparison and the memory never grows past k values. Like MAX and MIN,
+ * Strings are only given if the field has no numbers.
+ *
+ * @author Tian Low ttl2132
+ *
+ */
+public class TopValues extends ValueSketch {
+	private final boolean highest;
+	private final int k;
+	private long[] numbers;
+	private int numberCount;
+	private final PriorityQueue<String> strings;
+
+	/**
+	 * Constructs an empty TopValues.
+	 *
+	 * @param myHighest
+	 *            whether the highest values are kept instead of the lowest
+	 * @param myK
+	 *            how many values are kept
+	 */
+	public TopValues(boolean myHighest, int myK) {
+		highest = myHighest;
+		k = Math.max(1, myK);
+		numbers = new long[Math.min(k, 16)];
+		strings = new PriorityQueue<String>(16,
+				highest ? Comparator.<String>naturalOrder() : Comparator.<String>reverseOrder());
+	}
+
+	@Override
+	public void add(String value) {
+		if (RowValidator.isLong(value, 0, value.length()))
+			add(Long.parseLong(value));
+		else if (strings.size() < k)
+			strings.add(value);
+		else if (highest ? value.compareTo(strings.peek()) > 0 : value.compareTo(strings.peek()) < 0) {
+			strings.poll();
+			strings.add(value);
+		}
+	}
+
+	@Override
+	public void add(long number) {
+		if (numberCount < k) {
+			if (numberCount == numbers.length)
+				numbers = Arrays.copyOf(numbers, Math.min(k, numberCount * 2));
+			numbers[numberCount] = number;
+			siftUp(numberCount++);
+		} else if (highest ? number > numbers[0] : number < numbers[0]) {
+			numbers[0] = number;
+			siftDown(0);
+		}
+	}
+
+	@Override
+	public void add(String value, long times) {
+		for (long i = 0; i < Math.min(times, k); i++)
+			add(value);
+	}
+
+	/**
+	 * Checks whether one number should be closer to the root of the heap than
+	 * another, which is the one that would be dropped first.
+	 *
+	 * @param first
+	 *            a number in the heap
+	 * @param second
+	 *            another number in the heap
+	 * @return whether the first number would be dropped before the second
+	 */
+	private boolean before(long first, long second) {
+		return highest ? first < second : first > second;
+	}
+
+	/**
+	 * Moves a number up the heap until its parent would be dropped first.
+	 *
+	 * @param index
+	 *            where the number is in the heap
+	 */
+	private void siftUp(int index) {
+		long number = numbers[index];
+		while (index > 0) {
+			int parent = (index - 1) / 2;
+			if (!(before(number, numbers[parent])))
+				break;
+			numbers[index] = numbers[parent];
+			index = parent;
+		}
+		numbers[index] = number;
+	}
+
+	/**
+	 * Moves a number down the heap until both of its children would be dropped
+	 * after it.
+	 *
+	 * @param index
+	 *            where the number is in the heap
+	 */
+	private void siftDown(int index) {
+		long number = numbers[index];
+		while (true) {
+			int child = index * 2 + 1;
+			if (child >= numberCount)
+				break;
+			if (child + 1 < numberCount && before(numbers[child + 1], numbers[child]))
+				child++;
+			if (!(before(numbers[child], number)))
+				break;
+			numbers[index] = numbers[child];
+			index = child;
+		}
+		numbers[index] = number;
+	}
+
+	@Override
+	public void merge(ValueSketch other) {
+		TopValues myOther = (TopValues) other;
+		for (int i = 0; i < myOther.numberCount; i++)
+			add(myOther.numbers[i]);
+		for (String value : myOther.strings)
+			add(value);
+	}
+
+	@Override
+	public ValueSketch empty() {
+		return new TopValues(highest, k);
+	}
+
+	/**
+	 * Gets the values kept, from the highest down for TOP_K and from the
+	 * lowest up for BOTTOM_K.
+	 *
+	 * @return the values as a list
+	 */
+	@Override
+	public String result() {
+		if (numberCount > 0) {
+			long[] sorted = Arrays.copyOf(numbers, numberCount);
+			Arrays.sort(sorted);
+			StringBuilder myResult = new StringBuilder("[");
+			for (int i = 0; i < sorted.length; i++)
+				myResult.append(i == 0 ? "" : ", ").append(sorted[highest ? sorted.length - 1 - i : i]);
+			return myResult.append(']').toString();
+		}
+		ArrayList<String> sorted = new ArrayList<String>(strings);
+		Collections.sort(sorted);
+		if (highest)
+			Collections.reverse(sorted);
+		return sorted.toString();
+	}
+
+	@Override
+	public void writeTo(DataOutputStream output) throws IOException {
+		output.writeUTF(toString());
+		output.writeInt(k);
+		output.writeInt(numberCount);
+		for (int i = 0; i < numberCount; i++)
+			output.writeLong(numbers[i]);
+		output.writeInt(strings.size());
+		for (String value : strings)
+			output.writeUTF(value);
+	}
+
+	/**
+	 * Reads the rest of a TopValues that was written by writeTo.
+	 *
+	 * @param input
+	 *            where the TopValues is read from
+	 * @param myHighest
+	 *            whether the highest values were kept
+	 * @return the TopValues
+	 * @throws IOException
+	 *             if the TopValues can't be read
+	 */
+	public static TopValues readFrom(DataInputStream input, boolean myHighest) throws IOException {
+		TopValues myValues = new TopValues(myHighest, input.readInt());
+		int count = input.readInt();
+		for (int i = 0; i < count; i++)
+			myValues.add(input.readLong());
+		count = input.readInt();
+		for (int i = 0; i < count; i++)
+			myValues.add(input.readUTF());
+		return myValues;
+	}
+
+	/**
+	 * Names the statistic the TopValues was made for.
+	 *
+	 * @return TOP_K or BOTTOM_K
+	 */
+	@Override
+	public String toString() {
+		return highest ? "TOP_K" : "BOTTOM_K";
+	}
+}
@@ -0,0 +1,268 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * ValueIndex keeps an index of one field of a tsv file in a file next to it,
+ * named after the tsv file with .idx at the end. For every different value of
+ * the field, the index has the byte of the file where each record with that
+ * value starts, so a select can jump straight to the matching records instead
+ * of going through the whole file. The index remembers the size and the last
+ * time the tsv file was changed, and is only used while those still match.
+ * 
+ * Values are looked up through a hash table kept in the index file, so only a
+ * few bytes of the index are read for each lookup. Numbers are indexed the way
+ * NumberParser.canonical writes them, so 007, 7 and 7.00 share an entry; the
+ * records that are found still go through the whole select afterwards.
+ * 
+ * @author Tian Low ttl2132
+ *
+ */
+public class ValueIndex {
+	private static final long MAGIC = 0x5453564944583032L;
+
+	/**
+	 * Gets the name of the index file of a tsv file.
+	 * 
+	 * @param myFileName
+	 *            the name of the tsv file
+	 * @return the name of the index file
+	 */
+	public static String indexName(String myFileName) {
+		return myFileName + ".idx";
+	}
+
+	/**
+	 * Checks whether there is an index of the field that still matches the tsv
+	 * file.
+	 * 
+	 * @param myFileName
+	 *            the name of the tsv file
+	 * @param myField
+	 *            the field that should be indexed
+	 * @return whether the index can be used
+	 */
+	public static boolean isCurrent(String myFileName, String myField) {
+		File source = new File(myFileName);
+		File index = new File(indexName(myFileName));
+		if (!(index.exists()))
+			return false;
+		try (RandomAccessFile input = new RandomAccessFile(index, "r")) {
+			return input.readLong() == MAGIC && input.readLong() == source.length()
+					&& input.readLong() == source.lastModified() && readString(input).equals(myField);
+		} catch (IOException error) {
+			return false;
+		}
+	}
+
+	/**
+	 * Builds the index of a field by going through the tsv file once. Only
+	 * records that follow the format of the file are indexed. The value and
+	 * start of each record are put in order by a RecordSorter, so only so
+	 * many of them are kept in memory at once, and the index is written to a
+	 * temporary file that replaces the old index once it is whole.
+	 * 
+	 * @param myFileName
+	 *            the name of the tsv file
+	 * @param column
+	 *            the index of the field in the first line
+	 * @param myField
+	 *            the field being indexed
+	 * @param myFormatter
+	 *            the Formatter that already found the format of the file
+	 * @throws IOException
+	 *             if the tsv file can't be read or the index can't be written
+	 */
+	public static void build(String myFileName, int column, String myField, Formatter myFormatter)
+			throws IOException {
+		File source = new File(myFileName);
+		long size = source.length();
+		long modified = source.lastModified();
+		RecordSorter sorter = new RecordSorter("value\toffset", "" + NumberParser.STRING + NumberParser.LONG,
+				new String[] { "value" }, new boolean[] { false }, RecordSorter.DEFAULTRECORDS, 1);
+		StringBuilder pair = new StringBuilder();
+		try (MappedReader reader = new MappedReader(myFileName)) {
+			while (reader.nextLine()) {
+				if (!(myFormatter.hasFormat(reader)))
+					continue;
+				pair.setLength(0);
+				pair.append(key(reader.field(column))).append('\t').append(reader.lineOffset()).append('\t');
+				sorter.add(pair.toString());
+			}
+		}
+		File pairs = File.createTempFile("index", ".pairs");
+		try {
+			try (RecordWriter writer = new RecordWriter(pairs.getPath(), false, false)) {
+				sorter.writeTo(writer);
+			}
+			String indexName = indexName(myFileName);
+			File temporary = new File(indexName + ".tmp");
+			write(pairs, temporary, myField, size, modified);
+			Files.move(temporary.toPath(), Paths.get(indexName), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			pairs.delete();
+		}
+	}
+
+	/**
+	 * Writes the index from the values and starts of the records, in order
+	 * by value. Each value is written with all of its starts, and its place
+	 * in the hash table is filled in right away, so neither the starts nor
+	 * the table have to be kept in memory.
+	 * 
+	 * @param pairs
+	 *            the file of each value and start, in order by value
+	 * @param index
+	 *            the file to write the index to
+	 * @param myField
+	 *            the field being indexed
+	 * @param size
+	 *            the size of the tsv file
+	 * @param modified
+	 *            the last time the tsv file was changed
+	 * @throws IOException
+	 *             if the values can't be read or the index can't be written
+	 */
+	private static void write(File pairs, File index, String myField, long size, long modified)
+			throws IOException {
+		int values = 0;
+		try (MappedReader reader = new MappedReader(pairs.getPath())) {
+			String last = null;
+			while (reader.nextLine()) {
+				String key = reader.field(0);
+				if (!(key.equals(last)))
+					values++;
+				last = key;
+			}
+		}
+		int buckets = Integer.highestOneBit(Math.max(1, values * 2) * 2 - 1);
+		byte[] fieldBytes = myField.getBytes(StandardCharsets.UTF_8);
+		long tableStart = 8 * 3 + 4 + fieldBytes.length + 4;
+		BitSet taken = new BitSet(buckets);
+		ByteBuffer slotBytes = ByteBuffer.allocate(8);
+		try (FileOutputStream file = new FileOutputStream(index);
+				DataOutputStream output = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+				MappedReader reader = new MappedReader(pairs.getPath());
+				MappedReader ahead = new MappedReader(pairs.getPath())) {
+			FileChannel channel = file.getChannel();
+			output.writeLong(MAGIC);
+			output.writeLong(size);
+			output.writeLong(modified);
+			output.writeInt(fieldBytes.length);
+			output.write(fieldBytes);
+			output.writeInt(buckets);
+			for (int i = 0; i < buckets; i++)
+				output.writeLong(-1);
+			// The table is filled in straight through the channel, behind the
+			// values that are still buffered.
+			output.flush();
+			long position = tableStart + 8L * buckets;
+			// The reader ahead counts the starts of a value before the
+			// reader behind it writes them.
+			boolean more = ahead.nextLine();
+			while (more) {
+				String key = ahead.field(0);
+				int count = 0;
+				while (more && ahead.field(0).equals(key)) {
+					count++;
+					more = ahead.nextLine();
+				}
+				int slot = key.hashCode() & (buckets - 1);
+				while (taken.get(slot))
+					slot = (slot + 1) & (buckets - 1);
+				taken.set(slot);
+				slotBytes.clear();
+				slotBytes.putLong(0, position);
+				while (slotBytes.hasRemaining())
+					channel.write(slotBytes, tableStart + 8L * slot + slotBytes.position());
+				byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+				output.writeInt(keyBytes.length);
+				output.write(keyBytes);
+				output.writeInt(count);
+				for (int i = 0; i < count; i++) {
+					reader.nextLine();
+					output.writeLong(Long.parseLong(reader.field(1)));
+				}
+				position += 4 + keyBytes.length + 4 + 8L * count;
+			}
+		}
+	}
+
+	/**
+	 * Finds where the records with a value start in the tsv file.
+	 * 
+	 * @param myFileName
+	 *            the name of the tsv file
+	 * @param value
+	 *            the value of the indexed field
+	 * @return the bytes of the file the records start at, in order
+	 * @throws IOException
+	 *             if the index can't be read
+	 */
+	public static long[] lookup(String myFileName, String value) throws IOException {
+		String key = key(value);
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		try (RandomAccessFile input = new RandomAccessFile(indexName(myFileName), "r")) {
+			input.seek(8 * 3);
+			input.skipBytes(input.readInt());
+			int buckets = input.readInt();
+			long tableStart = input.getFilePointer();
+			int slot = key.hashCode() & (buckets - 1);
+			while (true) {
+				input.seek(tableStart + 8L * slot);
+				long position = input.readLong();
+				if (position == -1)
+					return new long[0];
+				input.seek(position);
+				byte[] found = new byte[input.readInt()];
+				input.readFully(found);
+				if (Arrays.equals(found, keyBytes)) {
+					long[] offsets = new long[input.readInt()];
+					byte[] offsetBytes = new byte[offsets.length * 8];
+					input.readFully(offsetBytes);
+					ByteBuffer.wrap(offsetBytes).asLongBuffer().get(offsets);
+					return offsets;
+				}
+				slot = (slot + 1) & (buckets - 1);
+			}
+		}
+	}
+
+	/**
+	 * Gets the key a value is indexed under, which is the value itself unless
+	 * it is a number.
+	 * 
+	 * @param value
+	 *            the value of the indexed field
+	 * @return the key of the value
+	 */
+	private static String key(String value) {
+		return NumberParser.canonical(value);
+	}
+
+	/**
+	 * Reads a String written as its length and its UTF-8 bytes.
+	 * 
+	 * @param input
+	 *            the index file
+	 * @return the String
+	 * @throws IOException
+	 *             if the index can't be read
+	 */
+	private static String readString(RandomAccessFile input) throws IOException {
+		byte[] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,152 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * ValueSketch keeps a summary of the values of one field in a fixed amount of
+ * memory, for the Terminal statistics that can't be folded into a handful of
+ * numbers the way an Accumulator folds them. Sketches of different parts of a
+ * file can be merged, so they work the same way when a file is streamed, split
+ * into parts, grouped or picked up again from a Checkpoint.
+ *
+ * Numbers are kept the way Long.toString writes them, so 007 and 7 are the
+ * same value.
+ *
+ * @author Tian Low ttl2132
+ *
+ */
+public abstract class ValueSketch {
+	// How many values a sketch keeps by default before it starts estimating.
+	public static final int DEFAULTSIZE = 1 << 16;
+	// How many values TOP_K, BOTTOM_K and MOST_FREQUENT give by default.
+	public static final int DEFAULTK = 10;
+
+	/**
+	 * Makes an empty sketch for a Terminal statistic.
+	 *
+	 * @param terminalType
+	 *            the name of the Terminal
+	 * @param k
+	 *            how many values are given for TOP_K, BOTTOM_K and
+	 *            MOST_FREQUENT
+	 * @param size
+	 *            how many values the sketch can keep in memory
+	 * @param quantiles
+	 *            the quantiles given for QUANTILES, or none for the median,
+	 *            p95 and p99
+	 * @return the sketch, or null if the Terminal doesn't need one
+	 */
+	public static ValueSketch create(String terminalType, int k, int size, double... quantiles) {
+		switch (terminalType) {
+		case "TOP_K":
+			return new TopValues(true, k);
+		case "BOTTOM_K":
+			return new TopValues(false, k);
+		case "MOST_FREQUENT":
+			return new FrequentValues(k, size);
+		case "DISTINCT_COUNT":
+			return new DistinctValues(size);
+		case "QUANTILES":
+			return new QuantileValues(size, quantiles);
+		}
+		return null;
+	}
+
+	/**
+	 * Adds one value of the field.
+	 *
+	 * @param value
+	 *            the value of the field in a record
+	 */
+	public abstract void add(String value);
+
+	/**
+	 * Adds one value of the field that was already parsed as a number.
+	 *
+	 * @param number
+	 *            the number of the field in a record
+	 */
+	public abstract void add(long number);
+
+	/**
+	 * Adds the same value of the field several times at once.
+	 *
+	 * @param value
+	 *            the value of the field
+	 * @param times
+	 *            how many records have the value
+	 */
+	public abstract void add(String value, long times);
+
+	/**
+	 * Adds another sketch of the same kind, such as one of a later part of the
+	 * same file.
+	 *
+	 * @param other
+	 *            the sketch to add
+	 */
+	public abstract void merge(ValueSketch other);
+
+	/**
+	 * Makes an empty sketch of the same kind and size.
+	 *
+	 * @return the empty sketch
+	 */
+	public abstract ValueSketch empty();
+
+	/**
+	 * Gets the statistic the sketch was made for.
+	 *
+	 * @return the statistic as a String
+	 */
+	public abstract String result();
+
+	/**
+	 * Writes the sketch so it can be read back by readFrom.
+	 *
+	 * @param output
+	 *            where the sketch is written
+	 * @throws IOException
+	 *             if the sketch can't be written
+	 */
+	public abstract void writeTo(DataOutputStream output) throws IOException;
+
+	/**
+	 * Reads a sketch that was written by writeTo.
+	 *
+	 * @param input
+	 *            where the sketch is read from
+	 * @return the sketch
+	 * @throws IOException
+	 *             if the sketch can't be read
+	 */
+	public static ValueSketch readFrom(DataInputStream input) throws IOException {
+		String terminalType = input.readUTF();
+		switch (terminalType) {
+		case "TOP_K":
+		case "BOTTOM_K":
+			return TopValues.readFrom(input, terminalType.equals("TOP_K"));
+		case "MOST_FREQUENT":
+			return FrequentValues.readFrom(input);
+		case "DISTINCT_COUNT":
+			return DistinctValues.readFrom(input);
+		case "QUANTILES":
+			return QuantileValues.readFrom(input);
+		}
+		throw new IOException("Unknown sketch " + terminalType + ".");
+	}
+
+	/**
+	 * Gets the key a value is kept under, which is the value itself unless it
+	 * is a long.
+	 *
+	 * @param value
+	 *            the value of the field
+	 * @return the key of the value
+	 */
+	protected static String key(String value) {
+		if (RowValidator.isLong(value, 0, value.length()))
+			return Long.toString(Long.parseLong(value));
+		return value;
+	}
+}
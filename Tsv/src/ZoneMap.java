@@ -0,0 +1,248 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * ZoneMap keeps the lowest and highest number of every number column for each
+ * block of ColumnTable.BLOCK lines of a tsv file, in a file next to it named
+ * after the tsv file with .zone at the end. A streamed select only reads the
+ * blocks that have a record it could match, so a range or equality select on
+ * a column the file is sorted by, such as a time or an id, reads a small part
+ * of the file. Blocks without any record that follows the format are never
+ * read. The zone map remembers the size and the last time the tsv file was
+ * changed, and is only used while those still match. Lines in blocks that are
+ * skipped aren't counted in the metrics. Decimal and double columns keep the
+ * longs just below and above their numbers, since a select only compares
+ * them with longs.
+ *
+ * @author Tian Low ttl2132
+ *
+ */
+public class ZoneMap {
+	private static final long MAGIC = 0x5453565a4f4e4532L;
+	private final long size;
+	private final long[] starts;
+	private final int[] records;
+	private final long[][] minimums;
+	private final long[][] maximums;
+
+	/**
+	 * Constructs a ZoneMap.
+	 *
+	 * @param mySize
+	 *            the size of the tsv file
+	 * @param myStarts
+	 *            the byte of the file each block starts at
+	 * @param myRecords
+	 *            how many records of each block follow the format
+	 * @param myMinimums
+	 *            the lowest number of each column in each block
+	 * @param myMaximums
+	 *            the highest number of each column in each block
+	 */
+	private ZoneMap(long mySize, long[] myStarts, int[] myRecords, long[][] myMinimums, long[][] myMaximums) {
+		size = mySize;
+		starts = myStarts;
+		records = myRecords;
+		minimums = myMinimums;
+		maximums = myMaximums;
+	}
+
+	/**
+	 * Gets the name of the zone map file of a tsv file.
+	 *
+	 * @param myFileName
+	 *            the name of the tsv file
+	 * @return the name of the zone map file
+	 */
+	public static String zoneName(String myFileName) {
+		return myFileName + ".zone";
+	}
+
+	/**
+	 * Reads the zone map of a tsv file.
+	 *
+	 * @param myFileName
+	 *            the name of the tsv file
+	 * @return the zone map, or null if there is none that still matches the
+	 *         tsv file
+	 */
+	public static ZoneMap load(String myFileName) {
+		File source = new File(myFileName);
+		File zones = new File(zoneName(myFileName));
+		if (!(zones.exists()))
+			return null;
+		try (DataInputStream input = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(zones), 1 << 16))) {
+			if (input.readLong() != MAGIC || input.readLong() != source.length()
+					|| input.readLong() != source.lastModified())
+				return null;
+			int columns = input.readInt();
+			int blocks = input.readInt();
+			long[] starts = new long[blocks];
+			int[] records = new int[blocks];
+			long[][] minimums = new long[blocks][columns];
+			long[][] maximums = new long[blocks][columns];
+			for (int block = 0; block < blocks; block++) {
+				starts[block] = input.readLong();
+				records[block] = input.readInt();
+				for (int column = 0; column < columns; column++) {
+					minimums[block][column] = input.readLong();
+					maximums[block][column] = input.readLong();
+				}
+			}
+			return new ZoneMap(source.length(), starts, records, minimums, maximums);
+		} catch (IOException error) {
+			return null;
+		}
+	}
+
+	/**
+	 * Builds the zone map of a tsv file by going through it once, and writes it
+	 * next to the file. Only records that follow the format of the file are
+	 * measured, the same way they are the only ones a select can keep.
+	 *
+	 * @param myFileName
+	 *            the name of the tsv file
+	 * @param myFormatter
+	 *            the Formatter that already found the format of the file
+	 * @return the zone map
+	 * @throws IOException
+	 *             if the tsv file can't be read or the zone map can't be
+	 *             written
+	 */
+	public static ZoneMap build(String myFileName, Formatter myFormatter) throws IOException {
+		File source = new File(myFileName);
+		long mySize = source.length();
+		long modified = source.lastModified();
+		String format = myFormatter.getFormat();
+		int columns = format.length();
+		int lines = 0;
+		int block = -1;
+		long[] starts = new long[16];
+		int[] records = new int[16];
+		long[][] minimums = new long[16][];
+		long[][] maximums = new long[16][];
+		NumberParser parser = new NumberParser();
+		try (MappedReader reader = new MappedReader(myFileName)) {
+			while (reader.nextLine()) {
+				if (lines++ % ColumnTable.BLOCK == 0) {
+					block++;
+					if (block == starts.length) {
+						starts = Arrays.copyOf(starts, block * 2);
+						records = Arrays.copyOf(records, block * 2);
+						minimums = Arrays.copyOf(minimums, block * 2);
+						maximums = Arrays.copyOf(maximums, block * 2);
+					}
+					starts[block] = reader.lineOffset();
+					minimums[block] = new long[columns];
+					maximums[block] = new long[columns];
+					for (int column = 0; column < columns; column++) {
+						boolean number = format.charAt(column) != NumberParser.STRING;
+						minimums[block][column] = number ? Computer.MINDEFAULT : Long.MIN_VALUE;
+						maximums[block][column] = number ? Computer.MAXDEFAULT : Long.MAX_VALUE;
+					}
+				}
+				if (!(myFormatter.hasFormat(reader)))
+					continue;
+				records[block]++;
+				for (int column = 0; column < columns; column++) {
+					char kind = format.charAt(column);
+					if (kind == NumberParser.STRING)
+						continue;
+					long lowest;
+					long highest;
+					if (kind == NumberParser.LONG) {
+						lowest = reader.longField(column);
+						highest = lowest;
+					} else {
+						String value = reader.field(column);
+						parser.parse(value, 0, value.length());
+						lowest = parser.floor();
+						highest = parser.ceiling();
+					}
+					if (lowest < minimums[block][column])
+						minimums[block][column] = lowest;
+					if (highest > maximums[block][column])
+						maximums[block][column] = highest;
+				}
+			}
+		}
+		int blocks = block + 1;
+		ZoneMap myZones = new ZoneMap(mySize, Arrays.copyOf(starts, blocks), Arrays.copyOf(records, blocks),
+				Arrays.copyOf(minimums, blocks), Arrays.copyOf(maximums, blocks));
+		String zoneName = zoneName(myFileName);
+		File temporary = new File(zoneName + ".tmp");
+		try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))) {
+			output.writeLong(MAGIC);
+			output.writeLong(mySize);
+			output.writeLong(modified);
+			output.writeInt(columns);
+			output.writeInt(blocks);
+			for (int i = 0; i < blocks; i++) {
+				output.writeLong(myZones.starts[i]);
+				output.writeInt(myZones.records[i]);
+				for (int column = 0; column < columns; column++) {
+					output.writeLong(myZones.minimums[i][column]);
+					output.writeLong(myZones.maximums[i][column]);
+				}
+			}
+		}
+		Files.move(temporary.toPath(), Paths.get(zoneName), StandardCopyOption.REPLACE_EXISTING);
+		return myZones;
+	}
+
+	/**
+	 * Gets how many blocks the tsv file is split into.
+	 *
+	 * @return the number of blocks
+	 */
+	public int getBlockCount() {
+		return starts.length;
+	}
+
+	/**
+	 * Gets the byte of the tsv file where a block starts.
+	 *
+	 * @param block
+	 *            the index of the block
+	 * @return the offset of the first line of the block
+	 */
+	public long getStart(int block) {
+		return starts[block];
+	}
+
+	/**
+	 * Gets the byte of the tsv file where a block ends.
+	 *
+	 * @param block
+	 *            the index of the block
+	 * @return the offset of the first line after the block
+	 */
+	public long getEnd(int block) {
+		return block + 1 < starts.length ? starts[block + 1] : size;
+	}
+
+	/**
+	 * Checks whether any record of a block could match a select.
+	 *
+	 * @param block
+	 *            the index of the block
+	 * @param mySelect
+	 *            the compiled select filter
+	 * @return whether the block has to be read
+	 */
+	public boolean mayMatch(int block, FilterExpression mySelect) {
+		return records[block] > 0 && mySelect.mayMatch(minimums[block], maximums[block]);
+	}
+}
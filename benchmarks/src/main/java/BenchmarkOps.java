@@ -0,0 +1,247 @@
+import java.io.IOException;
+
+/**
+ * BenchmarkOps gives the benchmarks in the filter.benchmarks package a way to
+ * reach the pipeline. The classes of the pipeline are in the default package,
+ * which can't be imported from a named package, and JMH only runs benchmarks
+ * that are in a named package, so each benchmarked operation is wrapped in a
+ * static method here and looked up once by filter.benchmarks.Ops. Every method
+ * returns a result so the work can't be optimized away.
+ * 
+ * @author Tian Low ttl2132
+ * 
+ */
+public class BenchmarkOps {
+
+	/**
+	 * Scans every line and field of a file through a MappedReader without
+	 * checking the format.
+	 * 
+	 * @param fileName
+	 *            the name of the file
+	 * @return the number of fields in the file
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	public static long scan(String fileName) throws IOException {
+		long fields = 0;
+		try (MappedReader reader = new MappedReader(fileName)) {
+			while (reader.nextLine())
+				fields += reader.fieldCount();
+		}
+		return fields;
+	}
+
+	/**
+	 * Reads and cleanses an entire file into one String.
+	 * 
+	 * @param fileName
+	 *            the name of the file
+	 * @return the cleansed file
+	 */
+	public static String cleanse(String fileName) {
+		return new Formatter(fileName).readFile();
+	}
+
+	/**
+	 * Gets the cleansed first line of a file.
+	 * 
+	 * @param fileName
+	 *            the name of the file
+	 * @return the first line
+	 */
+	public static String firstLine(String fileName) {
+		Formatter myFormatter = new Formatter(fileName);
+		myFormatter.readFile();
+		return myFormatter.firstLine;
+	}
+
+	/**
+	 * Streams the cleansed records of a file one at a time.
+	 * 
+	 * @param fileName
+	 *            the name of the file
+	 * @return the number of records
+	 */
+	public static long stream(String fileName) {
+		Formatter myFormatter = new Formatter(fileName);
+		long count = 0;
+		if (!(myFormatter.openStream()))
+			return count;
+		while (myFormatter.nextRecord() != null)
+			count++;
+		return count;
+	}
+
+	/**
+	 * Reads and cleanses a file into a ColumnTable.
+	 * 
+	 * @param fileName
+	 *            the name of the file
+	 * @return the ColumnTable
+	 */
+	public static Object readTable(String fileName) {
+		return new Formatter(fileName).readTable();
+	}
+
+	/**
+	 * Gets every row of a ColumnTable.
+	 * 
+	 * @param table
+	 *            the ColumnTable
+	 * @return every row
+	 */
+	public static int[] allRows(Object table) {
+		return ((ColumnTable) table).allRows();
+	}
+
+	/**
+	 * Filters the rows of a ColumnTable for a number, the same way
+	 * TSVPipeline.doIt does.
+	 * 
+	 * @param table
+	 *            the ColumnTable
+	 * @param rows
+	 *            the rows to filter
+	 * @param field
+	 *            the field being filtered
+	 * @param value
+	 *            the numerical value being filtered for
+	 * @return the rows that are kept
+	 */
+	public static int[] filter(Object table, int[] rows, String field, long value) {
+		ColumnTable myTable = (ColumnTable) table;
+		TSVFilter myFilter = new TSVFilter.Builder("").select(field, value).done();
+		return myFilter.compile(myTable.getFirstLine()).filter(myTable, rows.clone());
+	}
+
+	/**
+	 * Filters the rows of a ColumnTable for a String, the same way
+	 * TSVPipeline.doIt does.
+	 * 
+	 * @param table
+	 *            the ColumnTable
+	 * @param rows
+	 *            the rows to filter
+	 * @param field
+	 *            the field being filtered
+	 * @param value
+	 *            the String value being filtered for
+	 * @return the rows that are kept
+	 */
+	public static int[] filter(Object table, int[] rows, String field, String value) {
+		ColumnTable myTable = (ColumnTable) table;
+		TSVFilter myFilter = new TSVFilter.Builder("").select(field, value).done();
+		return myFilter.compile(myTable.getFirstLine()).filter(myTable, rows.clone());
+	}
+
+	/**
+	 * Computes a Terminal statistic over some of the rows of a ColumnTable.
+	 * 
+	 * @param table
+	 *            the ColumnTable
+	 * @param rows
+	 *            the rows to compute over
+	 * @param terminal
+	 *            the name of the Terminal
+	 * @param field
+	 *            the field being computed
+	 * @return the statistic as a String
+	 */
+	public static String compute(Object table, int[] rows, String terminal, String field) {
+		return compute(new Computer((ColumnTable) table, rows), terminal, field);
+	}
+
+	/**
+	 * Computes a Terminal statistic over a cleansed file kept as one String.
+	 * 
+	 * @param firstLine
+	 *            the first line of the file
+	 * @param entireFile
+	 *            the cleansed file
+	 * @param terminal
+	 *            the name of the Terminal
+	 * @param field
+	 *            the field being computed
+	 * @return the statistic as a String
+	 */
+	public static String compute(String firstLine, String entireFile, String terminal, String field) {
+		return compute(new Computer(firstLine, entireFile), terminal, field);
+	}
+
+	/**
+	 * Computes a Terminal statistic with a Computer.
+	 * 
+	 * @param myComputer
+	 *            the Computer
+	 * @param terminal
+	 *            the name of the Terminal
+	 * @param field
+	 *            the field being computed
+	 * @return the statistic as a String
+	 */
+	private static String compute(Computer myComputer, String terminal, String field) {
+		ValueSketch sketch = ValueSketch.create(terminal, ValueSketch.DEFAULTK, ValueSketch.DEFAULTSIZE);
+		if (sketch != null) {
+			myComputer.track(field, sketch);
+			return myComputer.computeSketch(field);
+		}
+		switch (Terminal.valueOf(terminal)) {
+		case ALLSAME:
+			return "" + myComputer.computeALLSAME(field);
+		case COUNT:
+			return "" + myComputer.computeCOUNT();
+		case MIN:
+			return myComputer.computeMIN(field);
+		case MAX:
+			return myComputer.computeMAX(field);
+		case SUM:
+			return myComputer.formatSUM(field);
+		case AVERAGE:
+			return myComputer.formatAVERAGE(field);
+		case STANDARD_DEVIATION:
+			return myComputer.formatSTANDARD_DEVIATION(field);
+		default:
+			return myComputer.computeCOUNT() + " " + myComputer.formatSUM(field) + " "
+					+ myComputer.formatAVERAGE(field) + " " + myComputer.formatSTANDARD_DEVIATION(field);
+		}
+	}
+
+	/**
+	 * Runs TSVPipeline.doIt from start to finish with a select and a compute.
+	 * 
+	 * @param name
+	 *            the name of the file without .tsv
+	 * @param mode
+	 *            table, stream, parallel, indexed, zoned, projected, which
+	 *            streams the file and only writes the select and compute
+	 *            fields, or staged
+	 * @param outputName
+	 *            the name of the filtered file
+	 * @param field
+	 *            the field being filtered
+	 * @param value
+	 *            the numerical value being filtered for
+	 * @param field2
+	 *            the field being computed
+	 * @return the name of the filtered file
+	 */
+	public static String doIt(String name, String mode, String outputName, String field, long value, String field2) {
+		TSVFilter.Builder myBuilder = new TSVFilter.Builder(name).select(field, value).compute(field2, Terminal.SUM)
+				.writeTo(outputName);
+		if (mode.equals("stream"))
+			myBuilder.stream();
+		else if (mode.equals("parallel"))
+			myBuilder.parallel();
+		else if (mode.equals("indexed"))
+			myBuilder.indexed();
+		else if (mode.equals("zoned"))
+			myBuilder.zoneMap();
+		else if (mode.equals("projected"))
+			myBuilder.stream().project(field, field2);
+		else if (mode.equals("staged"))
+			myBuilder.staged();
+		new TSVPipeline().doIt(myBuilder.done());
+		return outputName;
+	}
+}
@@ -0,0 +1,38 @@
+package filter.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler always on, so every result comes
+ * with its allocation rate (gc.alloc.rate.norm is the bytes allocated per
+ * operation). Any of the usual JMH command line options can be given, such as
+ * a benchmark name to run only some of them or -p rows=1000000 to change the
+ * file.
+ * 
+ * @author Tian Low ttl2132
+ * 
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		OptionsBuilder myBuilder = new OptionsBuilder();
+		myBuilder.parent(commandLine);
+		if (commandLine.getIncludes().isEmpty())
+			myBuilder.include(BenchmarkRunner.class.getPackage().getName() + ".*Benchmark");
+		if (!(commandLine.getWarmupIterations().hasValue()))
+			myBuilder.warmupIterations(3);
+		if (!(commandLine.getMeasurementIterations().hasValue()))
+			myBuilder.measurementIterations(5);
+		if (!(commandLine.getForkCount().hasValue()))
+			myBuilder.forks(1);
+		Options options = myBuilder.addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,71 @@
+package filter.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Dataset is the synthetic file every benchmark runs over. Its shape is set by
+ * the JMH parameters, which can be changed from the command line with -p, such
+ * as -p rows=1000000 -p malformedRatio=0.2.
+ * 
+ * @author Tian Low ttl2132
+ * 
+ */
+@State(Scope.Benchmark)
+public class Dataset {
+	@Param({ "100000" })
+	public int rows;
+
+	@Param({ "8" })
+	public int columns;
+
+	@Param({ "0.5" })
+	public double numericRatio;
+
+	@Param({ "0.0", "0.05" })
+	public double malformedRatio;
+
+	public File directory;
+	public String name;
+	public String fileName;
+	public String numberField;
+	public String stringField;
+
+	/**
+	 * Writes the synthetic file into a new temporary directory.
+	 * 
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	@Setup(Level.Trial)
+	public void generate() throws IOException {
+		directory = File.createTempFile("bench", "");
+		directory.delete();
+		directory.mkdirs();
+		name = new File(directory, "data").getPath();
+		fileName = name + ".tsv";
+		numberField = "c0";
+		stringField = "c" + (columns - 1);
+		TsvGenerator.generate(new File(fileName), rows, columns, numericRatio, malformedRatio, 42);
+	}
+
+	/**
+	 * Deletes the temporary directory and everything written into it.
+	 */
+	@TearDown(Level.Trial)
+	public void delete() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files)
+				file.delete();
+		}
+		directory.delete();
+	}
+}
@@ -0,0 +1,43 @@
+package filter.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures filtering a file that is already loaded into a ColumnTable, by a
+ * number field and by a String field.
+ * 
+ * @author Tian Low ttl2132
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class FilterBenchmark {
+	private Object table;
+	private int[] rows;
+
+	@Setup(Level.Trial)
+	public void load(Dataset data) throws Throwable {
+		table = (Object) Ops.READ_TABLE.invokeExact(data.fileName);
+		rows = (int[]) Ops.ALL_ROWS.invokeExact(table);
+	}
+
+	@Benchmark
+	public int[] filterNumber(Dataset data) throws Throwable {
+		return (int[]) Ops.FILTER_LONG.invokeExact(table, rows, data.numberField, 500L);
+	}
+
+	@Benchmark
+	public int[] filterString(Dataset data) throws Throwable {
+		return (int[]) Ops.FILTER_STRING.invokeExact(table, rows, data.stringField, "s50");
+	}
+}
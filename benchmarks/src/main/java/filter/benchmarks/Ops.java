@@ -0,0 +1,56 @@
+package filter.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Ops holds a MethodHandle for each operation of BenchmarkOps, which is in the
+ * default package and so can't be called directly. The handles are static
+ * final so the JIT inlines them and the benchmarks measure the pipeline rather
+ * than the lookup.
+ * 
+ * @author Tian Low ttl2132
+ * 
+ */
+final class Ops {
+	static final MethodHandle SCAN = find("scan", long.class, String.class);
+	static final MethodHandle CLEANSE = find("cleanse", String.class, String.class);
+	static final MethodHandle FIRST_LINE = find("firstLine", String.class, String.class);
+	static final MethodHandle STREAM = find("stream", long.class, String.class);
+	static final MethodHandle READ_TABLE = find("readTable", Object.class, String.class);
+	static final MethodHandle ALL_ROWS = find("allRows", int[].class, Object.class);
+	static final MethodHandle FILTER_LONG = find("filter", int[].class, Object.class, int[].class, String.class,
+			long.class);
+	static final MethodHandle FILTER_STRING = find("filter", int[].class, Object.class, int[].class, String.class,
+			String.class);
+	static final MethodHandle COMPUTE_TABLE = find("compute", String.class, Object.class, int[].class, String.class,
+			String.class);
+	static final MethodHandle COMPUTE_FILE = find("compute", String.class, String.class, String.class, String.class,
+			String.class);
+	static final MethodHandle DO_IT = find("doIt", String.class, String.class, String.class, String.class,
+			String.class, long.class, String.class);
+
+	private Ops() {
+	}
+
+	/**
+	 * Finds a static method of BenchmarkOps.
+	 * 
+	 * @param name
+	 *            the name of the method
+	 * @param returnType
+	 *            what the method returns
+	 * @param parameters
+	 *            the types of the parameters of the method
+	 * @return the handle of the method
+	 */
+	private static MethodHandle find(String name, Class<?> returnType, Class<?>... parameters) {
+		try {
+			return MethodHandles.publicLookup().findStatic(Class.forName("BenchmarkOps"), name,
+					MethodType.methodType(returnType, parameters));
+		} catch (ReflectiveOperationException error) {
+			throw new ExceptionInInitializerError(error);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package filter.benchmarks;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures TSVPipeline.doIt from start to finish, reading, cleansing,
+ * filtering, writing the filtered file and computing a SUM, for each way the
+ * file can be gone through. What doIt prints is thrown away so the console
+ * isn't part of the measurement.
+ * 
+ * @author Tian Low ttl2132
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+	@Param({ "table", "stream", "parallel", "indexed", "zoned", "projected", "staged" })
+	public String mode;
+
+	private String outputName;
+	private PrintStream console;
+
+	@Setup(Level.Trial)
+	public void quiet(Dataset data) {
+		outputName = new File(data.directory, "filtered" + mode + ".tsv").getPath();
+		console = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+	}
+
+	@TearDown(Level.Trial)
+	public void restore() {
+		System.setOut(console);
+	}
+
+	@Benchmark
+	public String doIt(Dataset data) throws Throwable {
+		return (String) Ops.DO_IT.invokeExact(data.name, mode, outputName, data.numberField, 500L, "c1");
+	}
+}
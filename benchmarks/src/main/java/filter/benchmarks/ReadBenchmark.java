@@ -0,0 +1,41 @@
+package filter.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+/**
+ * Measures reading a file: scanning its fields, cleansing it into one String
+ * the way Formatter.readFile does, streaming its records and loading it into a
+ * ColumnTable.
+ * 
+ * @author Tian Low ttl2132
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReadBenchmark {
+
+	@Benchmark
+	public long scan(Dataset data) throws Throwable {
+		return (long) Ops.SCAN.invokeExact(data.fileName);
+	}
+
+	@Benchmark
+	public String cleanse(Dataset data) throws Throwable {
+		return (String) Ops.CLEANSE.invokeExact(data.fileName);
+	}
+
+	@Benchmark
+	public long stream(Dataset data) throws Throwable {
+		return (long) Ops.STREAM.invokeExact(data.fileName);
+	}
+
+	@Benchmark
+	public Object readTable(Dataset data) throws Throwable {
+		return (Object) Ops.READ_TABLE.invokeExact(data.fileName);
+	}
+}
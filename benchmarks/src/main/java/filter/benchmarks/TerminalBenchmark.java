@@ -0,0 +1,52 @@
+package filter.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures each Terminal statistic, both over a ColumnTable and over a
+ * cleansed file kept as one String the way Computer was first written.
+ * 
+ * @author Tian Low ttl2132
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class TerminalBenchmark {
+	@Param({ "ALLSAME", "COUNT", "MIN", "MAX", "SUM", "STATS", "AVERAGE", "STANDARD_DEVIATION", "TOP_K", "BOTTOM_K",
+			"MOST_FREQUENT", "DISTINCT_COUNT", "QUANTILES" })
+	public String terminal;
+
+	private Object table;
+	private int[] rows;
+	private String firstLine;
+	private String entireFile;
+
+	@Setup(Level.Trial)
+	public void load(Dataset data) throws Throwable {
+		table = (Object) Ops.READ_TABLE.invokeExact(data.fileName);
+		rows = (int[]) Ops.ALL_ROWS.invokeExact(table);
+		firstLine = (String) Ops.FIRST_LINE.invokeExact(data.fileName);
+		entireFile = (String) Ops.CLEANSE.invokeExact(data.fileName);
+	}
+
+	@Benchmark
+	public String computeTable(Dataset data) throws Throwable {
+		return (String) Ops.COMPUTE_TABLE.invokeExact(table, rows, terminal, data.numberField);
+	}
+
+	@Benchmark
+	public String computeFile(Dataset data) throws Throwable {
+		return (String) Ops.COMPUTE_FILE.invokeExact(firstLine, entireFile, terminal, data.numberField);
+	}
+}
@@ -0,0 +1,95 @@
+package filter.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * TsvGenerator writes synthetic tsv files for the benchmarks. The fields are
+ * named c0, c1 and so on, with the number columns first and the String
+ * columns after them. Numbers are between 0 and 999 and Strings are one of a
+ * hundred values s0 to s99, so every select keeps about the same share of the
+ * records. Some of the records can be made malformed on purpose, so the cost
+ * of cleansing them out is measured as well.
+ * 
+ * @author Tian Low ttl2132
+ * 
+ */
+public final class TsvGenerator {
+	public static final int NUMBERS = 1000;
+	public static final int STRINGS = 100;
+
+	private TsvGenerator() {
+	}
+
+	/**
+	 * Gets how many of the columns hold numbers. There is always at least one
+	 * number column and, if there is more than one column, at least one String
+	 * column.
+	 * 
+	 * @param columns
+	 *            the number of columns
+	 * @param numericRatio
+	 *            the share of the columns that hold numbers
+	 * @return the number of number columns
+	 */
+	public static int numberColumns(int columns, double numericRatio) {
+		int numbers = (int) Math.round(columns * numericRatio);
+		return Math.max(1, Math.min(numbers, columns > 1 ? columns - 1 : 1));
+	}
+
+	/**
+	 * Writes a synthetic tsv file. The second line always follows the format,
+	 * since it defines the format of the file.
+	 * 
+	 * @param file
+	 *            the file to write
+	 * @param rows
+	 *            the number of records after the first line
+	 * @param columns
+	 *            the number of columns
+	 * @param numericRatio
+	 *            the share of the columns that hold numbers
+	 * @param malformedRatio
+	 *            the share of the records that don't follow the format
+	 * @param seed
+	 *            the seed of the random values, so runs can be compared
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public static void generate(File file, int rows, int columns, double numericRatio, double malformedRatio,
+			long seed) throws IOException {
+		Random random = new Random(seed);
+		int numbers = numberColumns(columns, numericRatio);
+		StringBuilder line = new StringBuilder();
+		try (Writer writer = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+			for (int i = 0; i < columns; i++)
+				line.append(i == 0 ? "" : "\t").append('c').append(i);
+			writer.write(line.append('\n').toString());
+			for (int row = 0; row < rows; row++) {
+				line.setLength(0);
+				boolean malformed = row > 0 && random.nextDouble() < malformedRatio;
+				int broken = malformed ? random.nextInt(columns + 1) : -1;
+				for (int i = 0; i < columns; i++) {
+					if (broken == columns && i == columns - 1)
+						break;
+					if (i > 0)
+						line.append('\t');
+					if (i == broken)
+						line.append(i < numbers ? "x" + random.nextInt(NUMBERS) : random.nextInt(NUMBERS));
+					else if (i < numbers)
+						line.append(random.nextInt(NUMBERS));
+					else
+						line.append('s').append(random.nextInt(STRINGS));
+				}
+				writer.write(line.append('\n').toString());
+			}
+		}
+	}
+}